@@ -0,0 +1,43 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.strategy.sampling.SamplingStrategy;
+
+/**
+ * Creates recorders for benchmarks.
+ */
+public final class BenchmarkRecorders {
+	private BenchmarkRecorders() {
+	}
+
+	/**
+	 * Creates a recorder which emits to an in-process sink.
+	 *
+	 * @param samplingStrategy
+	 *            sampling strategy
+	 * @return recorder
+	 */
+	public static AWSXRayRecorder create(SamplingStrategy samplingStrategy) {
+		return create(samplingStrategy, new InProcessEmitter());
+	}
+
+	/**
+	 * Creates a recorder.
+	 *
+	 * @param samplingStrategy
+	 *            sampling strategy
+	 * @param emitter
+	 *            emitter
+	 * @return recorder
+	 */
+	public static AWSXRayRecorder create(SamplingStrategy samplingStrategy, Emitter emitter) {
+		return AWSXRayRecorderBuilder.standard()
+				.withSamplingStrategy(samplingStrategy)
+				.withEmitter(emitter)
+				.withContextMissingStrategy((s, aClass) -> {
+				})
+				.build();
+	}
+}
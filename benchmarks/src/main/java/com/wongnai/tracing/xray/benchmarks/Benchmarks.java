@@ -0,0 +1,32 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with GC profiler so both ns/op and bytes/op are reported.
+ *
+ * Accepts the same arguments as JMH's main e.g. {@code java -jar benchmarks.jar SpanLifecycle}.
+ */
+public final class Benchmarks {
+	private Benchmarks() {
+	}
+
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            JMH command line arguments
+	 * @throws RunnerException
+	 *             if benchmarks could not run
+	 * @throws CommandLineOptionException
+	 *             if arguments are invalid
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build()).run();
+	}
+}
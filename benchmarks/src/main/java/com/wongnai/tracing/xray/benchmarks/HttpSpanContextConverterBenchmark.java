@@ -0,0 +1,108 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.TraceHeader;
+import com.amazonaws.xray.entities.TraceID;
+import com.wongnai.tracing.KeyedTextMap;
+import com.wongnai.tracing.xray.HttpSpanContextConverter;
+import com.wongnai.tracing.xray.XRaySpanContext;
+
+import io.opentracing.propagation.TextMapExtractAdapter;
+import io.opentracing.propagation.TextMapInjectAdapter;
+
+/**
+ * Benchmarks {@link HttpSpanContextConverter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpSpanContextConverterBenchmark {
+	private static final int HEADERS = 30;
+	private HttpSpanContextConverter converter;
+	private XRaySpanContext spanContext;
+	private Map<String, String> injected;
+	private TextMapInjectAdapter injectCarrier;
+	private TextMapExtractAdapter extractCarrier;
+	private KeyedTextMap keyedExtractCarrier;
+
+	@Setup
+	public void setUp() {
+		converter = new HttpSpanContextConverter();
+		spanContext = new XRaySpanContext(new TraceID(), null, Entity.generateId(), TraceHeader.SampleDecision.SAMPLED,
+				null);
+		injected = new HashMap<>();
+		injectCarrier = new TextMapInjectAdapter(injected);
+
+		Map<String, String> headers = new LinkedHashMap<>();
+		for (int i = 0; i < HEADERS - 1; i++) {
+			headers.put("X-Header-" + i, "value-" + i);
+		}
+		headers.put(TraceHeader.HEADER_KEY, "Root=1-5759e988-bd862e3fe1be46a994272793;Parent=53995c3f42cd8ad8;Sampled=1");
+		extractCarrier = new TextMapExtractAdapter(headers);
+
+		Map<String, String> caseInsensitiveHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		caseInsensitiveHeaders.putAll(headers);
+		keyedExtractCarrier = new KeyedTextMap() {
+			@Override
+			public String get(String key) {
+				return caseInsensitiveHeaders.get(key);
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return caseInsensitiveHeaders.entrySet().iterator();
+			}
+
+			@Override
+			public void put(String key, String value) {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Benchmark
+	public Map<String, String> inject() {
+		converter.inject(spanContext, injectCarrier);
+
+		return injected;
+	}
+
+	@Benchmark
+	public Map<String, String> injectNewContext() {
+		converter.inject(new XRaySpanContext(spanContext.getTraceId(), null, spanContext.getId(),
+				spanContext.getSampleDecision(), null), injectCarrier);
+
+		return injected;
+	}
+
+	@Benchmark
+	public XRaySpanContext extract() {
+		return converter.extract(extractCarrier);
+	}
+
+	@Benchmark
+	public XRaySpanContext extractKeyed() {
+		return converter.extract(keyedExtractCarrier);
+	}
+}
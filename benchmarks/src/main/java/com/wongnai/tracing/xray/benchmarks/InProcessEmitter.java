@@ -0,0 +1,53 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+
+/**
+ * An {@link Emitter} which serializes entities the same way as the UDP emitter does but keeps the bytes in process.
+ *
+ * Lets benchmarks include the serialization cost without needing a daemon.
+ */
+public class InProcessEmitter extends Emitter {
+	private final LongAdder segments = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+
+	@Override
+	public boolean sendSegment(Segment segment) {
+		return sink(PROTOCOL_HEADER + PROTOCOL_DELIMITER + segment.serialize());
+	}
+
+	@Override
+	public boolean sendSubsegment(Subsegment subsegment) {
+		return sink(PROTOCOL_HEADER + PROTOCOL_DELIMITER + subsegment.streamSerialize());
+	}
+
+	private boolean sink(String data) {
+		segments.increment();
+		bytes.add(data.getBytes(StandardCharsets.UTF_8).length);
+
+		return true;
+	}
+
+	/**
+	 * Gets number of emitted documents.
+	 *
+	 * @return number of emitted documents
+	 */
+	public long getSegments() {
+		return segments.sum();
+	}
+
+	/**
+	 * Gets number of emitted bytes.
+	 *
+	 * @return number of emitted bytes
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+}
@@ -0,0 +1,81 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.strategy.sampling.LocalizedSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.SamplingRequest;
+import com.wongnai.tracing.xray.strategy.sampling.CompiledSamplingStrategy;
+
+/**
+ * Compares matching a request against a rules file with {@link LocalizedSamplingStrategy} and
+ * {@link CompiledSamplingStrategy}. The request matches the last path rule, so the SDK checks every rule.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SamplingStrategyBenchmark {
+	private static final String SERVICE_NAME = "www.example.com";
+	private static final String METHOD = "GET";
+
+	@Param({ "10", "200" })
+	private int rules;
+
+	private LocalizedSamplingStrategy localized;
+	private CompiledSamplingStrategy compiled;
+	private String path;
+	private String url;
+
+	@Setup
+	public void setUp() throws IOException {
+		File file = File.createTempFile("sampling-rules", ".json");
+		file.deleteOnExit();
+		try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			writer.write("{\"version\": 1, \"rules\": [");
+			for (int i = 0; i < rules; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writer.write("{\"service_name\": \"*\", \"http_method\": \"" + (i % 3 == 0 ? "POST" : "*")
+						+ "\", \"url_path\": \"/api/v1/resource" + i + "/*\", \"fixed_target\": 0, \"rate\": 0.05}");
+			}
+			writer.write("], \"default\": {\"fixed_target\": 1, \"rate\": 0.1}}");
+		}
+		URL location = file.toURI().toURL();
+		localized = new LocalizedSamplingStrategy(location);
+		compiled = new CompiledSamplingStrategy(location);
+		path = "/api/v1/resource" + (rules - 1) + "/42/reviews";
+		url = "http://www.example.com" + path + "?page=2";
+	}
+
+	@Benchmark
+	public boolean localized() {
+		return localized.shouldTrace(new SamplingRequest(SERVICE_NAME, SERVICE_NAME, path, METHOD, "server"))
+				.isSampled();
+	}
+
+	@Benchmark
+	public boolean compiled() {
+		return compiled.shouldTrace(SERVICE_NAME, SERVICE_NAME, url, METHOD);
+	}
+}
@@ -0,0 +1,105 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Namespace;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.wongnai.tracing.xray.emitters.SegmentJsonWriter;
+
+/**
+ * Compares {@link SegmentJsonWriter} with the SDK's Jackson serialization followed by UTF-8 encoding, which is what
+ * the SDK's UDP emitter does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SegmentJsonWriterBenchmark {
+	private final SegmentJsonWriter writer = new SegmentJsonWriter();
+	private Segment segment;
+	private Subsegment subsegment;
+
+	@Setup
+	public void setUp() {
+		AWSXRayRecorder recorder = BenchmarkRecorders.create(new AllSamplingStrategy());
+		segment = new SegmentImpl(recorder, "GET /restaurants/{id}");
+		putHttp(segment, "http://www.example.com/restaurants/1", "GET", 200);
+		segment.putMetadata("span.kind", "server");
+		segment.putAnnotation("restaurant_id", "1");
+		segment.setUser("42");
+		for (int i = 0; i < 3; i++) {
+			Subsegment child = new SubsegmentImpl(recorder, "api.example.com", segment);
+			child.setParent(segment);
+			child.setNamespace(Namespace.REMOTE.toString());
+			putHttp(child, "http://api.example.com/restaurants/1/reviews?page=" + i, "GET", 200);
+			child.putMetadata("span.kind", "client");
+			child.putMetadata("peer.hostname", "api.example.com");
+			child.setEndTime(afterMillis(child.getStartTime(), 12));
+			segment.addSubsegment(child);
+			subsegment = child;
+		}
+		segment.setEndTime(afterMillis(segment.getStartTime(), 50));
+	}
+
+	/**
+	 * Adds milliseconds to epoch seconds the way the SDK computes timestamps, from epoch milliseconds.
+	 */
+	private static double afterMillis(double seconds, long millis) {
+		return (Math.round(seconds * 1000) + millis) / 1000.0;
+	}
+
+	private static void putHttp(Entity entity, String url, String method, int status) {
+		Map<String, Object> request = new HashMap<>();
+		request.put("url", url);
+		request.put("method", method);
+		request.put("user_agent", "Mozilla/5.0 (X11; Linux x86_64)");
+		entity.putHttp("request", request);
+		Map<String, Object> response = new HashMap<>();
+		response.put("status", status);
+		response.put("content_length", 5120L);
+		entity.putHttp("response", response);
+	}
+
+	@Benchmark
+	public byte[] jacksonSegment() {
+		return segment.serialize().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public ByteBuffer writerSegment() {
+		return writer.writeSegment(segment);
+	}
+
+	@Benchmark
+	public byte[] jacksonSubsegment() {
+		return subsegment.streamSerialize().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public ByteBuffer writerSubsegment() {
+		return writer.writeSubsegment(subsegment);
+	}
+}
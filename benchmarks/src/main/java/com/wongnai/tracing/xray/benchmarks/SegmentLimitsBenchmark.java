@@ -0,0 +1,91 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.wongnai.tracing.xray.AnnotationAllowlist;
+import com.wongnai.tracing.xray.SegmentLimits;
+import com.wongnai.tracing.xray.SpanEventLimits;
+import com.wongnai.tracing.xray.XRaySpan;
+import com.wongnai.tracing.xray.XRayTracer;
+import com.wongnai.tracing.xray.XRayTracerSettings;
+import com.wongnai.tracing.xray.strategy.ThresholdStreamingStrategy;
+
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+
+/**
+ * Benchmarks accounting of tags and subsegments against {@link SegmentLimits}, within limits that are never reached
+ * and once limits are reached. {@link #putMetadata()} is the baseline of a tag recorded without accounting. Child
+ * spans within limits include streaming of completed subsegments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SegmentLimitsBenchmark {
+	@Param({ "within", "over" })
+	private String limit;
+	private AWSXRayRecorder recorder;
+	private XRayTracer tracer;
+	private Span root;
+	private Entity segment;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		recorder = BenchmarkRecorders.create(new AllSamplingStrategy());
+		recorder.setStreamingStrategy(new ThresholdStreamingStrategy());
+		SegmentLimits limits = "within".equals(limit)
+				? new SegmentLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE)
+				: new SegmentLimits(0, 0, 0);
+		tracer = new XRayTracer(recorder,
+				new XRayTracerSettings(null, SpanEventLimits.DEFAULT, limits, AnnotationAllowlist.NONE));
+		root = tracer.buildSpan("GET /restaurants/{id}")
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.startManual();
+		segment = ((XRaySpan<?>) root).getEntity();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		recorder.clearTraceEntity();
+	}
+
+	@Benchmark
+	public Entity putMetadata() {
+		segment.putMetadata("restaurant.id", "1");
+
+		return segment;
+	}
+
+	@Benchmark
+	public Span setTag() {
+		return root.setTag("restaurant.id", "1");
+	}
+
+	@Benchmark
+	public Span childSpan() {
+		Span child = tracer.buildSpan("SELECT").asChildOf(root).startManual();
+		child.finish();
+
+		return child;
+	}
+}
@@ -0,0 +1,102 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.NoSamplingStrategy;
+import com.wongnai.tracing.TracingUtils;
+import com.wongnai.tracing.xray.XRayTracer;
+import com.wongnai.tracing.xray.emitters.AsyncEmitter;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.tag.Tags;
+
+/**
+ * Benchmarks whole span lifecycle i.e. build, tag, activate and close.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpanLifecycleBenchmark {
+	@Param({ "sampled", "unsampled" })
+	private String sampling;
+	@Param({ "sync", "async" })
+	private String emitter;
+	private AsyncEmitter asyncEmitter;
+	private XRayTracer tracer;
+
+	@Setup
+	public void setUp() {
+		InProcessEmitter sink = new InProcessEmitter();
+		if ("async".equals(emitter)) {
+			asyncEmitter = new AsyncEmitter(sink);
+		}
+		tracer = new XRayTracer(BenchmarkRecorders.create(
+				"sampled".equals(sampling) ? new AllSamplingStrategy() : new NoSamplingStrategy(),
+				asyncEmitter != null ? asyncEmitter : sink));
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (asyncEmitter != null) {
+			asyncEmitter.close();
+		}
+	}
+
+	@Benchmark
+	public ActiveSpan serverSpan() {
+		ActiveSpan span = startServerSpan();
+		span.close();
+
+		return span;
+	}
+
+	@Benchmark
+	public ActiveSpan serverSpanWithClientSpans() {
+		ActiveSpan span = startServerSpan();
+		for (int i = 0; i < 3; i++) {
+			ActiveSpan client = tracer.buildSpan("GET")
+					.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+					.withTag(Tags.PEER_HOSTNAME.getKey(), "api.example.com")
+					.withTag(Tags.HTTP_URL.getKey(), "http://api.example.com/restaurants/1")
+					.withTag(Tags.HTTP_METHOD.getKey(), "GET")
+					.startActive();
+			Tags.HTTP_STATUS.set(client, 200);
+			client.close();
+		}
+		span.close();
+
+		return span;
+	}
+
+	private ActiveSpan startServerSpan() {
+		ActiveSpan span = tracer.buildSpan("GET /restaurants/{id}")
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.withTag(Tags.HTTP_URL.getKey(), "http://www.example.com/restaurants/1")
+				.withTag(Tags.HTTP_METHOD.getKey(), "GET")
+				.withTag(TracingUtils.HTTP_USER_AGENT_TAG.getKey(), "Mozilla/5.0")
+				.withTag(TracingUtils.HTTP_CLIENT_IP_TAG.getKey(), "10.0.0.1")
+				.withTag(TracingUtils.HTTP_X_FORWARDED_FOR_TAG.getKey(), true)
+				.startActive();
+		Tags.HTTP_STATUS.set(span, 200);
+		TracingUtils.HTTP_CONTENT_LENGTH_TAG.set(span, 1024);
+
+		return span;
+	}
+}
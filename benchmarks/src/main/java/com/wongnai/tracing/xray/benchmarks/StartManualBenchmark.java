@@ -0,0 +1,102 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.NoSamplingStrategy;
+import com.wongnai.tracing.xray.XRayTracer;
+
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+
+/**
+ * Benchmarks {@link io.opentracing.Tracer.SpanBuilder#startManual()} for sampled, unsampled and noop paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartManualBenchmark {
+	@State(Scope.Thread)
+	public static class Sampled {
+		private XRayTracer tracer = new XRayTracer(BenchmarkRecorders.create(new AllSamplingStrategy()));
+	}
+
+	@State(Scope.Thread)
+	public static class Unsampled {
+		private XRayTracer tracer = new XRayTracer(BenchmarkRecorders.create(new NoSamplingStrategy()));
+	}
+
+	@State(Scope.Thread)
+	public static class InSegment {
+		private XRayTracer tracer = new XRayTracer(BenchmarkRecorders.create(new AllSamplingStrategy()));
+		private Span parent;
+
+		@Setup
+		public void setUp() {
+			parent = serverSpan(tracer);
+		}
+
+		@TearDown
+		public void tearDown() {
+			parent.finish();
+		}
+	}
+
+	@Benchmark
+	public Span sampled(Sampled state) {
+		Span span = serverSpan(state.tracer);
+		span.finish();
+
+		return span;
+	}
+
+	@Benchmark
+	public Span unsampled(Unsampled state) {
+		Span span = serverSpan(state.tracer);
+		span.finish();
+
+		return span;
+	}
+
+	@Benchmark
+	public Span noop(Sampled state) {
+		Span span = state.tracer.buildSpan("GET").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT).startManual();
+		span.finish();
+
+		return span;
+	}
+
+	@Benchmark
+	public Span subsegment(InSegment state) {
+		Span span = state.tracer.buildSpan("GET")
+				.asChildOf(state.parent)
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+				.withTag(Tags.PEER_HOSTNAME.getKey(), "api.example.com")
+				.startManual();
+		span.finish();
+
+		return span;
+	}
+
+	private static Span serverSpan(XRayTracer tracer) {
+		return tracer.buildSpan("GET /restaurants/{id}")
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.withTag(Tags.HTTP_URL.getKey(), "http://www.example.com/restaurants/1")
+				.withTag(Tags.HTTP_METHOD.getKey(), "GET")
+				.startManual();
+	}
+}
@@ -0,0 +1,77 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.wongnai.tracing.xray.Taggers;
+import com.wongnai.tracing.xray.XRaySpan;
+
+import io.opentracing.tag.Tags;
+
+/**
+ * Benchmarks {@link Taggers#applyTag}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TaggersBenchmark {
+	private static final Integer OK = 200;
+	private static final Integer SERVER_ERROR = 500;
+	private AWSXRayRecorder recorder;
+	private Segment segment;
+	private XRaySpan.XRaySegmentSpan span;
+
+	@Setup
+	public void setUp() {
+		recorder = BenchmarkRecorders.create(new AllSamplingStrategy());
+		segment = recorder.beginSegment("GET");
+		span = new XRaySpan.XRaySegmentSpan(recorder, segment);
+	}
+
+	@TearDown
+	public void tearDown() {
+		recorder.clearTraceEntity();
+	}
+
+	@Benchmark
+	public boolean httpUrl() {
+		return Taggers.applyTag(span, segment, Tags.HTTP_URL.getKey(), "http://www.example.com/restaurants/1");
+	}
+
+	@Benchmark
+	public boolean httpStatusOk() {
+		return Taggers.applyTag(span, segment, Tags.HTTP_STATUS.getKey(), OK);
+	}
+
+	@Benchmark
+	public boolean httpStatusServerError() {
+		return Taggers.applyTag(span, segment, Tags.HTTP_STATUS.getKey(), SERVER_ERROR);
+	}
+
+	@Benchmark
+	public boolean peerHostname() {
+		return Taggers.applyTag(span, segment, Tags.PEER_HOSTNAME.getKey(), "api.example.com");
+	}
+
+	@Benchmark
+	public boolean unknown() {
+		return Taggers.applyTag(span, segment, "restaurant.id", "1");
+	}
+}
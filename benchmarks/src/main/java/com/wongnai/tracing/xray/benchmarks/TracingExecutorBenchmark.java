@@ -0,0 +1,91 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.wongnai.tracing.concurrent.TracingExecutor;
+import com.wongnai.tracing.xray.XRayTracer;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.tag.Tags;
+
+/**
+ * Benchmarks handing tasks off to a {@link ForkJoinPool} kept saturated by as many submitting threads as processors,
+ * with and without restoring the active span on the worker thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class TracingExecutorBenchmark {
+	private static final int TASKS = 100;
+
+	@State(Scope.Benchmark)
+	public static class Pool {
+		@Param({ "plain", "tracing" })
+		private String executor;
+		private ForkJoinPool pool;
+		private XRayTracer tracer;
+		private Executor target;
+
+		@Setup
+		public void setUp() {
+			pool = new ForkJoinPool();
+			tracer = new XRayTracer(BenchmarkRecorders.create(new AllSamplingStrategy()));
+			target = "tracing".equals(executor) ? new TracingExecutor(pool, tracer) : pool;
+		}
+
+		@TearDown
+		public void tearDown() {
+			pool.shutdownNow();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Request {
+		private ActiveSpan span;
+
+		@Setup
+		public void setUp(Pool pool) {
+			span = pool.tracer.buildSpan("GET /restaurants/{id}")
+					.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+					.startActive();
+		}
+
+		@TearDown
+		public void tearDown() {
+			span.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TASKS)
+	public void execute(Pool pool, Request request) throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(TASKS);
+		Runnable task = latch::countDown;
+		for (int i = 0; i < TASKS; i++) {
+			pool.target.execute(task);
+		}
+		latch.await();
+	}
+}
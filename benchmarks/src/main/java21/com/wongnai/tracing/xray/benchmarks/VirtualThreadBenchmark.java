@@ -0,0 +1,111 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.NoSamplingStrategy;
+import com.wongnai.tracing.xray.XRayTracer;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.tag.Tags;
+
+/**
+ * Runs requests concurrently, one virtual thread each, and reports heap used per request and requests per second.
+ *
+ * Each request activates a server span and a client span, then all requests wait together so heap is measured while
+ * every span is active, and again after every span is closed while threads are still alive. Not a JMH benchmark, JMH
+ * cannot hold that many threads at once, run with e.g.
+ * {@code java -cp benchmarks.jar com.wongnai.tracing.xray.benchmarks.VirtualThreadBenchmark 100000} on Java 21 or
+ * later.
+ */
+public final class VirtualThreadBenchmark {
+	private static final int DEFAULT_REQUESTS = 100_000;
+	private static final int ROUNDS = 5;
+
+	private VirtualThreadBenchmark() {
+	}
+
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            number of concurrent requests, optional
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REQUESTS;
+		for (String mode : new String[] { "none", "unsampled", "sampled" }) {
+			for (int round = 0; round < ROUNDS; round++) {
+				run(mode, requests, round == ROUNDS - 1);
+			}
+		}
+	}
+
+	private static void run(String mode, int requests, boolean report) throws InterruptedException {
+		XRayTracer tracer = "none".equals(mode) ? null
+				: new XRayTracer(BenchmarkRecorders.create(
+						"sampled".equals(mode) ? new AllSamplingStrategy() : new NoSamplingStrategy()));
+		CountDownLatch active = new CountDownLatch(requests);
+		CountDownLatch closed = new CountDownLatch(requests);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch exit = new CountDownLatch(1);
+		Thread[] threads = new Thread[requests];
+
+		long baseline = usedHeap();
+		long start = System.nanoTime();
+		for (int i = 0; i < requests; i++) {
+			threads[i] = Thread.ofVirtual().start(() -> handle(tracer, active, closed, release, exit));
+		}
+		active.await();
+		long whileActive = usedHeap();
+		release.countDown();
+		closed.await();
+		long afterClose = usedHeap();
+		exit.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		if (report) {
+			System.out.printf("%-9s %,d requests: %,d B/request with spans active, %,d B/request after spans closed,"
+					+ " %,.0f requests/s%n", mode, requests, (whileActive - baseline) / requests,
+					(afterClose - baseline) / requests, requests * 1e9 / elapsed);
+		}
+	}
+
+	private static void handle(XRayTracer tracer, CountDownLatch active, CountDownLatch closed, CountDownLatch release,
+			CountDownLatch exit) {
+		try {
+			if (tracer == null) {
+				active.countDown();
+				release.await();
+			} else {
+				try (ActiveSpan server = tracer.buildSpan("GET /restaurants/{id}")
+						.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+						.withTag(Tags.HTTP_METHOD.getKey(), "GET")
+						.startActive()) {
+					try (ActiveSpan client = tracer.buildSpan("GET")
+							.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+							.startActive()) {
+						active.countDown();
+						release.await();
+					}
+				}
+			}
+			closed.countDown();
+			exit.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,166 @@
+package com.wongnai.tracing.xray.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactivestreams.Subscription;
+
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.wongnai.tracing.xray.XRayTracer;
+import com.wongnai.tracing.xray.reactive.ReactorTracing;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+/**
+ * Benchmarks elements flowing through a Reactor pipeline inside a request span, with no propagation, with
+ * {@link ReactorTracing} and with naive restoration of the span around every signal of every operator.
+ *
+ * Only built with the {@code reactive} profile, e.g. {@code mvn package -Preactive}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReactiveContextBenchmark {
+	private static final int ELEMENTS = 100;
+	private static final String NAIVE_HOOK_KEY = "naive";
+
+	@Param({ "none", "context", "naive" })
+	private String propagation;
+	private XRayTracer tracer;
+	private ActiveSpan span;
+	private Mono<Integer> sameThread;
+	private Mono<Integer> threadHop;
+
+	@Setup
+	public void setUp() {
+		tracer = new XRayTracer(BenchmarkRecorders.create(new AllSamplingStrategy()));
+		if ("context".equals(propagation)) {
+			ReactorTracing.install(tracer);
+		} else if ("naive".equals(propagation)) {
+			Hooks.onEachOperator(NAIVE_HOOK_KEY,
+					Operators.<Object, Object>lift((scannable, subscriber) -> naive(subscriber)));
+		}
+		sameThread = pipeline(Flux.range(0, ELEMENTS));
+		threadHop = pipeline(Flux.range(0, ELEMENTS).publishOn(Schedulers.single()));
+		span = tracer.buildSpan("GET /restaurants/{id}")
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.startActive();
+	}
+
+	@TearDown
+	public void tearDown() {
+		span.close();
+		ReactorTracing.uninstall();
+		Hooks.resetOnEachOperator(NAIVE_HOOK_KEY);
+	}
+
+	private static Mono<Integer> pipeline(Flux<Integer> source) {
+		return source.map(i -> i * 2)
+				.filter(i -> i % 3 != 0)
+				.map(i -> i + 1)
+				.reduce(0, Integer::sum);
+	}
+
+	private CoreSubscriber<? super Object> naive(CoreSubscriber<? super Object> subscriber) {
+		Span current = tracer.currentSpan();
+		return current != null ? new NaiveSubscriber<>(subscriber, tracer, current) : subscriber;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ELEMENTS)
+	public Integer sameThread() {
+		return sameThread.block();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ELEMENTS)
+	public Integer threadHop() {
+		return threadHop.block();
+	}
+
+	/**
+	 * Restores span around every signal, whether it is already active or not.
+	 */
+	private static final class NaiveSubscriber<T> implements CoreSubscriber<T>, Subscription {
+		private final CoreSubscriber<? super T> actual;
+		private final XRayTracer tracer;
+		private final Span span;
+		private Subscription s;
+
+		private NaiveSubscriber(CoreSubscriber<? super T> actual, XRayTracer tracer, Span span) {
+			this.actual = actual;
+			this.tracer = tracer;
+			this.span = span;
+		}
+
+		@Override
+		public Context currentContext() {
+			return actual.currentContext();
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			this.s = s;
+			try (ActiveSpan restored = tracer.makeCurrent(span)) {
+				actual.onSubscribe(this);
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			try (ActiveSpan restored = tracer.makeCurrent(span)) {
+				actual.onNext(t);
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			try (ActiveSpan restored = tracer.makeCurrent(span)) {
+				actual.onError(t);
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			try (ActiveSpan restored = tracer.makeCurrent(span)) {
+				actual.onComplete();
+			}
+		}
+
+		@Override
+		public void request(long n) {
+			try (ActiveSpan restored = tracer.makeCurrent(span)) {
+				s.request(n);
+			}
+		}
+
+		@Override
+		public void cancel() {
+			s.cancel();
+		}
+	}
+}
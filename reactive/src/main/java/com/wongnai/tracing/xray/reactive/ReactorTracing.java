@@ -0,0 +1,87 @@
+package com.wongnai.tracing.xray.reactive;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * Propagates active spans through Reactor pipelines in the subscriber {@link Context}.
+ *
+ * Once installed, the span active when a pipeline is subscribed, or the one written into its context with
+ * {@link #withSpan(XRayActiveSpanSource, Span)}, is carried upstream in the context. Each operator's subscriber makes
+ * it current before delivering a signal only if it is not current already, so a request running on one thread pays a
+ * thread local lookup per signal and the recorder's trace entity is only set again after a thread hop. Nothing is
+ * decorated for pipelines subscribed without a span.
+ *
+ * Decorated operators cannot fuse with each other.
+ */
+public final class ReactorTracing {
+	private static final String HOOK_KEY = ReactorTracing.class.getName();
+	private static final Class<SpanScope> CONTEXT_KEY = SpanScope.class;
+
+	private ReactorTracing() {
+	}
+
+	/**
+	 * Installs hook decorating every operator assembled from now on.
+	 *
+	 * @param source
+	 *            active span source, usually the tracer
+	 */
+	public static void install(XRayActiveSpanSource source) {
+		Hooks.onEachOperator(HOOK_KEY,
+				Operators.<Object, Object>lift((scannable, subscriber) -> decorate(source, subscriber)));
+	}
+
+	/**
+	 * Removes hook installed by {@link #install(XRayActiveSpanSource)}.
+	 */
+	public static void uninstall() {
+		Hooks.resetOnEachOperator(HOOK_KEY);
+	}
+
+	/**
+	 * Creates context carrying span, to write into a pipeline subscribed on a thread where span is not active.
+	 *
+	 * @param source
+	 *            active span source, usually the tracer
+	 * @param span
+	 *            span
+	 * @return context
+	 */
+	public static Context withSpan(XRayActiveSpanSource source, Span span) {
+		return Context.of(CONTEXT_KEY, new SpanScope(source, span));
+	}
+
+	/**
+	 * Gets context of span carried by a pipeline.
+	 *
+	 * @param context
+	 *            subscriber context
+	 * @return span context or {@code null} if pipeline carries no span
+	 */
+	public static SpanContext getSpanContext(ContextView context) {
+		SpanScope scope = context.getOrDefault(CONTEXT_KEY, null);
+		return scope != null ? scope.getSpan().context() : null;
+	}
+
+	private static CoreSubscriber<? super Object> decorate(XRayActiveSpanSource source,
+			CoreSubscriber<? super Object> subscriber) {
+		Context context = subscriber.currentContext();
+		SpanScope scope = context.getOrDefault(CONTEXT_KEY, null);
+		if (scope == null) {
+			scope = SpanScope.capture(source);
+			if (scope == null) {
+				return subscriber;
+			}
+			context = context.put(CONTEXT_KEY, scope);
+		}
+		return new TracingSubscriber<>(subscriber, context, scope);
+	}
+}
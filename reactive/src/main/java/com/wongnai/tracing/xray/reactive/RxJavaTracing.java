@@ -0,0 +1,93 @@
+package com.wongnai.tracing.xray.reactive;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Propagates active spans through RxJava 2 pipelines with assembly hooks.
+ *
+ * Once installed, every {@link Observable}, {@link Flowable}, {@link Single}, {@link Maybe} and {@link Completable}
+ * assembled from now on carries the span active when it is subscribed, so a pipeline assembled once and subscribed by
+ * many requests runs in the span of each. Its observer makes that span current before delivering a signal only if it
+ * is not current already, see {@link ReactorTracing}. Assembly hooks installed before are applied first, and restored
+ * by {@link #uninstall()}.
+ */
+public final class RxJavaTracing {
+	@SuppressWarnings("rawtypes")
+	private static Function<? super Observable, ? extends Observable> previousObservable;
+	@SuppressWarnings("rawtypes")
+	private static Function<? super Flowable, ? extends Flowable> previousFlowable;
+	@SuppressWarnings("rawtypes")
+	private static Function<? super Single, ? extends Single> previousSingle;
+	@SuppressWarnings("rawtypes")
+	private static Function<? super Maybe, ? extends Maybe> previousMaybe;
+	@SuppressWarnings("rawtypes")
+	private static Function<? super Completable, ? extends Completable> previousCompletable;
+	private static XRayActiveSpanSource installed;
+
+	private RxJavaTracing() {
+	}
+
+	/**
+	 * Installs assembly hooks, replacing ones installed before for another source and doing nothing if already
+	 * installed for this one.
+	 *
+	 * @param source
+	 *            active span source, usually the tracer
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static synchronized void install(XRayActiveSpanSource source) {
+		if (installed == source) {
+			return;
+		}
+		uninstall();
+		Function<? super Observable, ? extends Observable> observable = RxJavaPlugins.getOnObservableAssembly();
+		RxJavaPlugins.setOnObservableAssembly(o -> new TracingObservable(apply(observable, o), source));
+		Function<? super Flowable, ? extends Flowable> flowable = RxJavaPlugins.getOnFlowableAssembly();
+		RxJavaPlugins.setOnFlowableAssembly(f -> new TracingFlowable(apply(flowable, f), source));
+		Function<? super Single, ? extends Single> single = RxJavaPlugins.getOnSingleAssembly();
+		RxJavaPlugins.setOnSingleAssembly(s -> new TracingSingle(apply(single, s), source));
+		Function<? super Maybe, ? extends Maybe> maybe = RxJavaPlugins.getOnMaybeAssembly();
+		RxJavaPlugins.setOnMaybeAssembly(m -> new TracingMaybe(apply(maybe, m), source));
+		Function<? super Completable, ? extends Completable> completable = RxJavaPlugins.getOnCompletableAssembly();
+		RxJavaPlugins.setOnCompletableAssembly(c -> new TracingCompletable(apply(completable, c), source));
+		previousObservable = observable;
+		previousFlowable = flowable;
+		previousSingle = single;
+		previousMaybe = maybe;
+		previousCompletable = completable;
+		installed = source;
+	}
+
+	/**
+	 * Removes assembly hooks installed by {@link #install(XRayActiveSpanSource)}, restoring the ones installed before.
+	 * Pipelines already assembled keep propagating spans.
+	 */
+	public static synchronized void uninstall() {
+		if (installed == null) {
+			return;
+		}
+		RxJavaPlugins.setOnObservableAssembly(previousObservable);
+		RxJavaPlugins.setOnFlowableAssembly(previousFlowable);
+		RxJavaPlugins.setOnSingleAssembly(previousSingle);
+		RxJavaPlugins.setOnMaybeAssembly(previousMaybe);
+		RxJavaPlugins.setOnCompletableAssembly(previousCompletable);
+		previousObservable = null;
+		previousFlowable = null;
+		previousSingle = null;
+		previousMaybe = null;
+		previousCompletable = null;
+		installed = null;
+	}
+
+	private static <T> T apply(Function<? super T, ? extends T> previous, T assembled) throws Exception {
+		return previous != null ? previous.apply(assembled) : assembled;
+	}
+}
@@ -0,0 +1,73 @@
+package com.wongnai.tracing.xray.reactive;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+
+/**
+ * Span of a pipeline, restored on the thread a signal is delivered on only if it is not already active there.
+ */
+final class SpanScope {
+	private final XRayActiveSpanSource source;
+	private final Span span;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param source
+	 *            active span source
+	 * @param span
+	 *            span of pipeline
+	 */
+	SpanScope(XRayActiveSpanSource source, Span span) {
+		this.source = source;
+		this.span = span;
+	}
+
+	/**
+	 * Captures span active on current thread.
+	 *
+	 * @param source
+	 *            active span source
+	 * @return scope or {@code null} if there is no active span
+	 */
+	static SpanScope capture(XRayActiveSpanSource source) {
+		Span span = source.currentSpan();
+		return span != null ? new SpanScope(source, span) : null;
+	}
+
+	/**
+	 * Makes span current unless it already is, which is the case for every signal but the first one after a thread
+	 * hop.
+	 *
+	 * @return active span to deactivate once signal is delivered, or {@code null} if span was already active
+	 */
+	ActiveSpan restore() {
+		if (source.currentSpan() == span) {
+			return null;
+		}
+		return source.makeCurrent(span);
+	}
+
+	/**
+	 * Deactivates span restored by {@link #restore()}.
+	 *
+	 * @param restored
+	 *            active span or {@code null}
+	 */
+	static void close(ActiveSpan restored) {
+		if (restored != null) {
+			restored.deactivate();
+		}
+	}
+
+	/**
+	 * Gets span.
+	 *
+	 * @return span
+	 */
+	Span getSpan() {
+		return span;
+	}
+}
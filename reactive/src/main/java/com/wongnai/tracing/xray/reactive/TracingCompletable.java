@@ -0,0 +1,80 @@
+package com.wongnai.tracing.xray.reactive;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.opentracing.ActiveSpan;
+import io.reactivex.Completable;
+import io.reactivex.CompletableObserver;
+import io.reactivex.CompletableSource;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Completable restoring span of pipeline around each signal, see {@link RxJavaTracing}.
+ */
+final class TracingCompletable extends Completable {
+	private final CompletableSource source;
+	private final XRayActiveSpanSource spanSource;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param source
+	 *            completable assembled
+	 * @param spanSource
+	 *            active span source
+	 */
+	TracingCompletable(CompletableSource source, XRayActiveSpanSource spanSource) {
+		this.source = source;
+		this.spanSource = spanSource;
+	}
+
+	@Override
+	protected void subscribeActual(CompletableObserver observer) {
+		SpanScope scope = SpanScope.capture(spanSource);
+		if (scope == null) {
+			source.subscribe(observer);
+		} else {
+			source.subscribe(new TracingCompletableObserver(observer, scope));
+		}
+	}
+
+	private static final class TracingCompletableObserver implements CompletableObserver {
+		private final CompletableObserver actual;
+		private final SpanScope scope;
+
+		private TracingCompletableObserver(CompletableObserver actual, SpanScope scope) {
+			this.actual = actual;
+			this.scope = scope;
+		}
+
+		@Override
+		public void onSubscribe(Disposable d) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onSubscribe(d);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onComplete();
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onError(Throwable e) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onError(e);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+	}
+}
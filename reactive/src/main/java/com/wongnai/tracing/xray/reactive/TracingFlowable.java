@@ -0,0 +1,94 @@
+package com.wongnai.tracing.xray.reactive;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.opentracing.ActiveSpan;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableSubscriber;
+
+/**
+ * Flowable restoring span of pipeline around each signal, see {@link RxJavaTracing}.
+ *
+ * @param <T>
+ *            type of element
+ */
+final class TracingFlowable<T> extends Flowable<T> {
+	private final Flowable<T> source;
+	private final XRayActiveSpanSource spanSource;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param source
+	 *            flowable assembled
+	 * @param spanSource
+	 *            active span source
+	 */
+	TracingFlowable(Flowable<T> source, XRayActiveSpanSource spanSource) {
+		this.source = source;
+		this.spanSource = spanSource;
+	}
+
+	@Override
+	protected void subscribeActual(Subscriber<? super T> subscriber) {
+		SpanScope scope = SpanScope.capture(spanSource);
+		if (scope == null) {
+			source.subscribe(subscriber);
+		} else {
+			source.subscribe(new TracingFlowableSubscriber<>(subscriber, scope));
+		}
+	}
+
+	private static final class TracingFlowableSubscriber<T> implements FlowableSubscriber<T> {
+		private final Subscriber<? super T> actual;
+		private final SpanScope scope;
+
+		private TracingFlowableSubscriber(Subscriber<? super T> actual, SpanScope scope) {
+			this.actual = actual;
+			this.scope = scope;
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onSubscribe(s);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onNext(t);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onError(t);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onComplete();
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+	}
+}
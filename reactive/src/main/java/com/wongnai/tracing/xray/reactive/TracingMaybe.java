@@ -0,0 +1,93 @@
+package com.wongnai.tracing.xray.reactive;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.opentracing.ActiveSpan;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeObserver;
+import io.reactivex.MaybeSource;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Maybe restoring span of pipeline around each signal, see {@link RxJavaTracing}.
+ *
+ * @param <T>
+ *            type of element
+ */
+final class TracingMaybe<T> extends Maybe<T> {
+	private final MaybeSource<T> source;
+	private final XRayActiveSpanSource spanSource;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param source
+	 *            maybe assembled
+	 * @param spanSource
+	 *            active span source
+	 */
+	TracingMaybe(MaybeSource<T> source, XRayActiveSpanSource spanSource) {
+		this.source = source;
+		this.spanSource = spanSource;
+	}
+
+	@Override
+	protected void subscribeActual(MaybeObserver<? super T> observer) {
+		SpanScope scope = SpanScope.capture(spanSource);
+		if (scope == null) {
+			source.subscribe(observer);
+		} else {
+			source.subscribe(new TracingMaybeObserver<>(observer, scope));
+		}
+	}
+
+	private static final class TracingMaybeObserver<T> implements MaybeObserver<T> {
+		private final MaybeObserver<? super T> actual;
+		private final SpanScope scope;
+
+		private TracingMaybeObserver(MaybeObserver<? super T> actual, SpanScope scope) {
+			this.actual = actual;
+			this.scope = scope;
+		}
+
+		@Override
+		public void onSubscribe(Disposable d) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onSubscribe(d);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onSuccess(T t) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onSuccess(t);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onError(Throwable e) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onError(e);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onComplete();
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+	}
+}
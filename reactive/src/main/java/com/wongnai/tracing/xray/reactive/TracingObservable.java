@@ -0,0 +1,93 @@
+package com.wongnai.tracing.xray.reactive;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.opentracing.ActiveSpan;
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Observable restoring span of pipeline around each signal, see {@link RxJavaTracing}.
+ *
+ * @param <T>
+ *            type of element
+ */
+final class TracingObservable<T> extends Observable<T> {
+	private final ObservableSource<T> source;
+	private final XRayActiveSpanSource spanSource;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param source
+	 *            observable assembled
+	 * @param spanSource
+	 *            active span source
+	 */
+	TracingObservable(ObservableSource<T> source, XRayActiveSpanSource spanSource) {
+		this.source = source;
+		this.spanSource = spanSource;
+	}
+
+	@Override
+	protected void subscribeActual(Observer<? super T> observer) {
+		SpanScope scope = SpanScope.capture(spanSource);
+		if (scope == null) {
+			source.subscribe(observer);
+		} else {
+			source.subscribe(new TracingObserver<>(observer, scope));
+		}
+	}
+
+	private static final class TracingObserver<T> implements Observer<T> {
+		private final Observer<? super T> actual;
+		private final SpanScope scope;
+
+		private TracingObserver(Observer<? super T> actual, SpanScope scope) {
+			this.actual = actual;
+			this.scope = scope;
+		}
+
+		@Override
+		public void onSubscribe(Disposable d) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onSubscribe(d);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onNext(T t) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onNext(t);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onError(Throwable e) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onError(e);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onComplete();
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.wongnai.tracing.xray.reactive;
+
+import com.wongnai.tracing.xray.XRayActiveSpanSource;
+
+import io.opentracing.ActiveSpan;
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
+import io.reactivex.SingleSource;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Single restoring span of pipeline around each signal, see {@link RxJavaTracing}.
+ *
+ * @param <T>
+ *            type of element
+ */
+final class TracingSingle<T> extends Single<T> {
+	private final SingleSource<T> source;
+	private final XRayActiveSpanSource spanSource;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param source
+	 *            single assembled
+	 * @param spanSource
+	 *            active span source
+	 */
+	TracingSingle(SingleSource<T> source, XRayActiveSpanSource spanSource) {
+		this.source = source;
+		this.spanSource = spanSource;
+	}
+
+	@Override
+	protected void subscribeActual(SingleObserver<? super T> observer) {
+		SpanScope scope = SpanScope.capture(spanSource);
+		if (scope == null) {
+			source.subscribe(observer);
+		} else {
+			source.subscribe(new TracingSingleObserver<>(observer, scope));
+		}
+	}
+
+	private static final class TracingSingleObserver<T> implements SingleObserver<T> {
+		private final SingleObserver<? super T> actual;
+		private final SpanScope scope;
+
+		private TracingSingleObserver(SingleObserver<? super T> actual, SpanScope scope) {
+			this.actual = actual;
+			this.scope = scope;
+		}
+
+		@Override
+		public void onSubscribe(Disposable d) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onSubscribe(d);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onSuccess(T t) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onSuccess(t);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+
+		@Override
+		public void onError(Throwable e) {
+			ActiveSpan restored = scope.restore();
+			try {
+				actual.onError(e);
+			} finally {
+				SpanScope.close(restored);
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.wongnai.tracing.xray.reactive;
+
+import org.reactivestreams.Subscription;
+
+import io.opentracing.ActiveSpan;
+import reactor.core.CoreSubscriber;
+import reactor.core.Scannable;
+import reactor.util.context.Context;
+
+/**
+ * Subscriber of a Reactor operator restoring span of pipeline around each signal, see {@link ReactorTracing}.
+ *
+ * @param <T>
+ *            type of element
+ */
+final class TracingSubscriber<T> implements CoreSubscriber<T>, Subscription, Scannable {
+	private final CoreSubscriber<? super T> actual;
+	private final Context context;
+	private final SpanScope scope;
+	private Subscription s;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param actual
+	 *            subscriber decorated
+	 * @param context
+	 *            context carrying span
+	 * @param scope
+	 *            span of pipeline
+	 */
+	TracingSubscriber(CoreSubscriber<? super T> actual, Context context, SpanScope scope) {
+		this.actual = actual;
+		this.context = context;
+		this.scope = scope;
+	}
+
+	@Override
+	public Context currentContext() {
+		return context;
+	}
+
+	@Override
+	public void onSubscribe(Subscription s) {
+		this.s = s;
+		ActiveSpan restored = scope.restore();
+		try {
+			actual.onSubscribe(this);
+		} finally {
+			SpanScope.close(restored);
+		}
+	}
+
+	@Override
+	public void onNext(T t) {
+		ActiveSpan restored = scope.restore();
+		try {
+			actual.onNext(t);
+		} finally {
+			SpanScope.close(restored);
+		}
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		ActiveSpan restored = scope.restore();
+		try {
+			actual.onError(t);
+		} finally {
+			SpanScope.close(restored);
+		}
+	}
+
+	@Override
+	public void onComplete() {
+		ActiveSpan restored = scope.restore();
+		try {
+			actual.onComplete();
+		} finally {
+			SpanScope.close(restored);
+		}
+	}
+
+	@Override
+	public void request(long n) {
+		ActiveSpan restored = scope.restore();
+		try {
+			s.request(n);
+		} finally {
+			SpanScope.close(restored);
+		}
+	}
+
+	@Override
+	public void cancel() {
+		s.cancel();
+	}
+
+	@Override
+	public Object scanUnsafe(Attr key) {
+		if (key == Attr.PARENT) {
+			return s;
+		} else if (key == Attr.ACTUAL) {
+			return actual;
+		} else {
+			return null;
+		}
+	}
+}
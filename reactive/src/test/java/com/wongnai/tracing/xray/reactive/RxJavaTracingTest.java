@@ -0,0 +1,73 @@
+package com.wongnai.tracing.xray.reactive;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.wongnai.tracing.xray.XRaySpanContext;
+import com.wongnai.tracing.xray.XRayTracer;
+import com.wongnai.tracing.xray.XRayUnsampledSpan;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Tests propagation of spans by {@link RxJavaTracing}.
+ */
+public class RxJavaTracingTest {
+	private XRayTracer tracer;
+
+	@Before
+	public void setUp() {
+		tracer = new XRayTracer(AWSXRayRecorderBuilder.standard().build());
+		RxJavaTracing.install(tracer);
+	}
+
+	@After
+	public void tearDown() {
+		RxJavaTracing.uninstall();
+	}
+
+	@Test
+	public void runsPipelineInSpanActiveWhenSubscribed() {
+		Single<Span> pipeline = Single.just(1).map(i -> tracer.currentSpan());
+		Span first = new XRayUnsampledSpan(new XRaySpanContext());
+		Span second = new XRayUnsampledSpan(new XRaySpanContext());
+
+		try (ActiveSpan active = tracer.makeActive(first)) {
+			assertSame(first, pipeline.blockingGet());
+		}
+		try (ActiveSpan active = tracer.makeActive(second)) {
+			assertSame(second, pipeline.blockingGet());
+		}
+	}
+
+	@Test
+	public void restoresSpanAfterThreadHop() {
+		Span span = new XRayUnsampledSpan(new XRaySpanContext());
+		Observable<Span> pipeline = Observable.just(1)
+				.observeOn(Schedulers.single())
+				.map(i -> tracer.currentSpan());
+
+		try (ActiveSpan active = tracer.makeActive(span)) {
+			assertSame(span, pipeline.blockingFirst());
+		}
+	}
+
+	@Test
+	public void installsOnce() {
+		RxJavaTracing.install(tracer);
+		RxJavaTracing.uninstall();
+
+		assertNull(RxJavaPlugins.getOnSingleAssembly());
+		assertNull(RxJavaPlugins.getOnObservableAssembly());
+	}
+}
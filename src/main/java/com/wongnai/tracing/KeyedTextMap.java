@@ -0,0 +1,19 @@
+package com.wongnai.tracing;
+
+import io.opentracing.propagation.TextMap;
+
+/**
+ * A {@link TextMap} which can look up a value by key directly e.g. backed by servlet request headers.
+ *
+ * Extracting from such carrier does not need to iterate through all entries.
+ */
+public interface KeyedTextMap extends TextMap {
+	/**
+	 * Gets value of key, ignoring case of key.
+	 *
+	 * @param key
+	 *            key
+	 * @return value or {@code null} if there is no such key
+	 */
+	String get(String key);
+}
@@ -1,6 +1,7 @@
 package com.wongnai.tracing;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import io.opentracing.propagation.TextMap;
@@ -22,4 +23,31 @@ public final class TextMapUtils {
 
 		return map;
 	}
+
+	/**
+	 * Gets value of key from text map, ignoring case of key.
+	 *
+	 * Uses {@link KeyedTextMap#get(String)} if supported, otherwise scans the entries until the first match.
+	 *
+	 * @param textMap
+	 *            text map
+	 * @param key
+	 *            key
+	 * @return value or {@code null} if there is no such key
+	 */
+	public static String get(TextMap textMap, String key) {
+		if (textMap instanceof KeyedTextMap) {
+			return ((KeyedTextMap) textMap).get(key);
+		}
+
+		Iterator<Map.Entry<String, String>> iterator = textMap.iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, String> entry = iterator.next();
+			if (key.equalsIgnoreCase(entry.getKey())) {
+				return entry.getValue();
+			}
+		}
+
+		return null;
+	}
 }
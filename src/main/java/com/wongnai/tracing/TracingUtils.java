@@ -1,7 +1,6 @@
 package com.wongnai.tracing;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
 
 import io.opentracing.ActiveSpan;
 import io.opentracing.Span;
@@ -46,9 +45,7 @@ public final class TracingUtils {
 	 */
 	public static void addException(Span span, Throwable t) {
 		if (t != null) {
-			Map<String, Object> map = new HashMap<>();
-			map.put("error", t);
-			span.log(map);
+			span.log(Collections.singletonMap("error", t));
 		}
 	}
 
@@ -62,9 +59,7 @@ public final class TracingUtils {
 	 */
 	public static void addException(ActiveSpan activeSpan, Throwable t) {
 		if (t != null) {
-			Map<String, Object> map = new HashMap<>();
-			map.put("error", t);
-			activeSpan.log(map);
+			activeSpan.log(Collections.singletonMap("error", t));
 		}
 	}
 
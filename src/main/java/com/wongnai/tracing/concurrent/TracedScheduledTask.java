@@ -0,0 +1,130 @@
+package com.wongnai.tracing.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.opentracing.ActiveSpan;
+
+/**
+ * Delayed task holding a continuation of the span active when it was scheduled, which is also the future of the task
+ * so that cancelling it before it runs releases the span.
+ *
+ * It is pending until it runs or is released, so an executor shut down before running it can release it.
+ *
+ * @param <V>
+ *            type of result
+ */
+class TracedScheduledTask<V> extends TracedTask<V> implements ScheduledFuture<V> {
+	@SuppressWarnings("unchecked")
+	private static final AtomicIntegerFieldUpdater<TracedScheduledTask<?>> CLAIMED = AtomicIntegerFieldUpdater
+			.newUpdater((Class<TracedScheduledTask<?>>) (Class<?>) TracedScheduledTask.class, "claimed");
+
+	private final Collection<TracedScheduledTask<?>> pending;
+	private volatile int claimed;
+	private volatile ScheduledFuture<V> future;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param continuation
+	 *            continuation of active span
+	 * @param runnable
+	 *            runnable task, or {@code null} if callable is given
+	 * @param callable
+	 *            callable task, or {@code null} if runnable is given
+	 * @param pending
+	 *            pending tasks, which task is added to until it runs or is released
+	 */
+	TracedScheduledTask(ActiveSpan.Continuation continuation, Runnable runnable, Callable<V> callable,
+			Collection<TracedScheduledTask<?>> pending) {
+		super(continuation, runnable, callable);
+		this.pending = pending;
+		pending.add(this);
+	}
+
+	/**
+	 * Sets future of task scheduled in executor.
+	 *
+	 * @param future
+	 *            future
+	 */
+	@SuppressWarnings("unchecked")
+	void setFuture(ScheduledFuture<?> future) {
+		this.future = (ScheduledFuture<V>) future;
+	}
+
+	private boolean claim() {
+		if (CLAIMED.compareAndSet(this, 0, 1)) {
+			pending.remove(this);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void run() {
+		if (claim()) {
+			super.run();
+		}
+	}
+
+	@Override
+	public V call() throws Exception {
+		if (claim()) {
+			return super.call();
+		}
+		return null;
+	}
+
+	@Override
+	void release() {
+		if (claim()) {
+			super.release();
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = future.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			release();
+		}
+		return cancelled;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return future.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		return future.get();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		return future.get(timeout, unit);
+	}
+
+	@Override
+	public long getDelay(TimeUnit unit) {
+		return future.getDelay(unit);
+	}
+
+	@Override
+	public int compareTo(Delayed o) {
+		return future.compareTo(o instanceof TracedScheduledTask ? ((TracedScheduledTask<?>) o).future : o);
+	}
+}
@@ -0,0 +1,139 @@
+package com.wongnai.tracing.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * Task holding a continuation of the span active when it was handed off, activated around the task on the thread
+ * running it.
+ *
+ * @param <V>
+ *            type of result
+ */
+class TracedTask<V> implements Runnable, Callable<V> {
+	private final ActiveSpan.Continuation continuation;
+	private final Runnable runnable;
+	private final Callable<V> callable;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param continuation
+	 *            continuation of active span
+	 * @param runnable
+	 *            runnable task, or {@code null} if callable is given, then task can only be called
+	 * @param callable
+	 *            callable task, or {@code null} if runnable is given
+	 */
+	TracedTask(ActiveSpan.Continuation continuation, Runnable runnable, Callable<V> callable) {
+		this.continuation = continuation;
+		this.runnable = runnable;
+		this.callable = callable;
+	}
+
+	/**
+	 * Wraps runnable to run in span active now.
+	 *
+	 * @param source
+	 *            active span source
+	 * @param runnable
+	 *            runnable
+	 * @return wrapped runnable, or same runnable if there is no active span
+	 */
+	static Runnable wrap(ActiveSpanSource source, Runnable runnable) {
+		ActiveSpan activeSpan = source.activeSpan();
+		if (activeSpan == null || runnable instanceof TracedTask) {
+			return runnable;
+		}
+		return new TracedTask<>(activeSpan.capture(), runnable, null);
+	}
+
+	/**
+	 * Wraps callable to run in span active now.
+	 *
+	 * @param source
+	 *            active span source
+	 * @param callable
+	 *            callable
+	 * @param <V>
+	 *            type of result
+	 * @return wrapped callable, or same callable if there is no active span
+	 */
+	static <V> Callable<V> wrap(ActiveSpanSource source, Callable<V> callable) {
+		ActiveSpan activeSpan = source.activeSpan();
+		if (activeSpan == null || callable instanceof TracedTask) {
+			return callable;
+		}
+		return new TracedTask<>(activeSpan.capture(), null, callable);
+	}
+
+	/**
+	 * Executes runnable in span active now, releasing the span if executor rejects it.
+	 *
+	 * @param executor
+	 *            executor
+	 * @param source
+	 *            active span source
+	 * @param runnable
+	 *            runnable
+	 */
+	static void execute(Executor executor, ActiveSpanSource source, Runnable runnable) {
+		Runnable task = wrap(source, runnable);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			if (task != runnable) {
+				((TracedTask<?>) task).release();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets runnable which was wrapped.
+	 *
+	 * @return runnable, or {@code null} if callable was wrapped
+	 */
+	Runnable getRunnable() {
+		return runnable;
+	}
+
+	@Override
+	public void run() {
+		runInSpan();
+	}
+
+	private void runInSpan() {
+		ActiveSpan activeSpan = continuation.activate();
+		try {
+			runnable.run();
+		} finally {
+			activeSpan.deactivate();
+		}
+	}
+
+	@Override
+	public V call() throws Exception {
+		if (callable == null) {
+			runInSpan();
+			return null;
+		}
+		ActiveSpan activeSpan = continuation.activate();
+		try {
+			return callable.call();
+		} finally {
+			activeSpan.deactivate();
+		}
+	}
+
+	/**
+	 * Releases continuation of a task which will never run, so its span can finish.
+	 */
+	void release() {
+		continuation.activate().deactivate();
+	}
+}
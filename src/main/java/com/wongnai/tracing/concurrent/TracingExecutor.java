@@ -0,0 +1,53 @@
+package com.wongnai.tracing.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * An {@link Executor} running each task in the span which was active when the task was handed off.
+ *
+ * A continuation of the active span is captured on {@link #execute(Runnable)} and activated around the task on the
+ * worker thread, restoring the active span and, with {@link com.wongnai.tracing.xray.XRayTracer}, the recorder's trace
+ * entity, then deactivated once the task completes. The span finishes only after all its tasks have completed. A task
+ * handed off while no span is active is passed to the executor as is.
+ *
+ * Pass it to asynchronous stages of {@link java.util.concurrent.CompletableFuture}, e.g.
+ * {@code supplyAsync(supplier, executor)} and {@code thenApplyAsync(function, executor)}, so each stage runs in the span
+ * active when it was triggered, i.e. the span of the stage it depends on or of the thread completing it.
+ */
+public class TracingExecutor implements Executor {
+	private final Executor executor;
+	private final ActiveSpanSource source;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param executor
+	 *            executor running tasks
+	 * @param source
+	 *            active span source, usually the tracer
+	 */
+	public TracingExecutor(Executor executor, ActiveSpanSource source) {
+		this.executor = executor;
+		this.source = source;
+	}
+
+	/**
+	 * Creates an executor running tasks in {@link ForkJoinPool#commonPool()}, the default executor of asynchronous stages
+	 * of {@link java.util.concurrent.CompletableFuture}.
+	 *
+	 * @param source
+	 *            active span source, usually the tracer
+	 * @return new executor
+	 */
+	public static TracingExecutor commonPool(ActiveSpanSource source) {
+		return new TracingExecutor(ForkJoinPool.commonPool(), source);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		TracedTask.execute(executor, source, command);
+	}
+}
@@ -0,0 +1,84 @@
+package com.wongnai.tracing.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * An {@link ExecutorService} running each task in the span which was active when the task was submitted, see
+ * {@link TracingExecutor}.
+ *
+ * Submitted tasks are wrapped into futures before being executed, so a task cancelled before it runs still releases its
+ * span when the executor reaches it. Tasks returned by {@link #shutdownNow()} release their span right away.
+ */
+public class TracingExecutorService extends AbstractExecutorService {
+	private final ExecutorService executor;
+	private final ActiveSpanSource source;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param executor
+	 *            executor service running tasks
+	 * @param source
+	 *            active span source, usually the tracer
+	 */
+	public TracingExecutorService(ExecutorService executor, ActiveSpanSource source) {
+		this.executor = executor;
+		this.source = source;
+	}
+
+	/**
+	 * Gets active span source.
+	 *
+	 * @return active span source
+	 */
+	protected ActiveSpanSource getSource() {
+		return source;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		TracedTask.execute(executor, source, command);
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> tasks = executor.shutdownNow();
+		List<Runnable> unwrapped = new ArrayList<>(tasks.size());
+		for (Runnable task : tasks) {
+			if (task instanceof TracedTask) {
+				TracedTask<?> tracedTask = (TracedTask<?>) task;
+				tracedTask.release();
+				unwrapped.add(tracedTask.getRunnable());
+			} else {
+				unwrapped.add(task);
+			}
+		}
+		return unwrapped;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return executor.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+}
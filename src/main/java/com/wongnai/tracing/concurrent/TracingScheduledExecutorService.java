@@ -0,0 +1,106 @@
+package com.wongnai.tracing.concurrent;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * A {@link ScheduledExecutorService} running each task in the span which was active when the task was submitted or
+ * scheduled, see {@link TracingExecutor}.
+ *
+ * Periodic tasks are scheduled as they are, a span cannot be kept open for as long as they repeat. The executor wraps
+ * every task, including executed and submitted ones, into its own future, so traced tasks are tracked until they run
+ * and those still pending release their span on {@link #shutdownNow()}.
+ */
+public class TracingScheduledExecutorService extends TracingExecutorService implements ScheduledExecutorService {
+	private final ScheduledExecutorService executor;
+	private final Set<TracedScheduledTask<?>> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param executor
+	 *            scheduled executor service running tasks
+	 * @param source
+	 *            active span source, usually the tracer
+	 */
+	public TracingScheduledExecutorService(ScheduledExecutorService executor, ActiveSpanSource source) {
+		super(executor, source);
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		ActiveSpan activeSpan = getSource().activeSpan();
+		if (activeSpan == null || command instanceof TracedTask) {
+			executor.execute(command);
+			return;
+		}
+		TracedScheduledTask<?> task = new TracedScheduledTask<>(activeSpan.capture(), command, null, pending);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> tasks = super.shutdownNow();
+		for (TracedScheduledTask<?> task : pending) {
+			task.release();
+		}
+		return tasks;
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		ActiveSpan activeSpan = getSource().activeSpan();
+		if (activeSpan == null) {
+			return executor.schedule(command, delay, unit);
+		}
+		TracedScheduledTask<?> task = new TracedScheduledTask<>(activeSpan.capture(), command, null, pending);
+		try {
+			task.setFuture(executor.schedule((Runnable) task, delay, unit));
+		} catch (RejectedExecutionException e) {
+			task.release();
+			throw e;
+		}
+		return task;
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		ActiveSpan activeSpan = getSource().activeSpan();
+		if (activeSpan == null) {
+			return executor.schedule(callable, delay, unit);
+		}
+		TracedScheduledTask<V> task = new TracedScheduledTask<>(activeSpan.capture(), null, callable, pending);
+		try {
+			task.setFuture(executor.schedule((Callable<V>) task, delay, unit));
+		} catch (RejectedExecutionException e) {
+			task.release();
+			throw e;
+		}
+		return task;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		return executor.scheduleAtFixedRate(command, initialDelay, period, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		return executor.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+	}
+}
@@ -0,0 +1,104 @@
+package com.wongnai.tracing.xray;
+
+import java.util.Arrays;
+
+/**
+ * Array backed stack of active spans of a thread.
+ *
+ * Not thread safe, each instance must be used by one thread only.
+ */
+final class ActiveSpanStack {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int VIRTUAL_THREAD_CAPACITY = 4;
+
+	private final boolean virtualThread;
+	private XRayActiveSpan[] elements;
+	private int size;
+
+	/**
+	 * Constructs an instance for a platform thread.
+	 */
+	ActiveSpanStack() {
+		this(false);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param virtualThread
+	 *            {@code true} if stack belongs to a virtual thread, which starts smaller and should be dropped once
+	 *            empty
+	 */
+	ActiveSpanStack(boolean virtualThread) {
+		this.virtualThread = virtualThread;
+		this.elements = new XRayActiveSpan[virtualThread ? VIRTUAL_THREAD_CAPACITY : INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Creates stack for current thread.
+	 *
+	 * @return new stack
+	 */
+	static ActiveSpanStack create() {
+		return new ActiveSpanStack(VirtualThreads.isCurrentThreadVirtual());
+	}
+
+	/**
+	 * Pushes element to stack.
+	 *
+	 * @param element
+	 *            element
+	 */
+	void push(XRayActiveSpan element) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size << 1);
+		}
+		elements[size++] = element;
+	}
+
+	/**
+	 * Pops top element out from stack.
+	 *
+	 * @return top element or {@code null} if stack is empty
+	 */
+	XRayActiveSpan pop() {
+		if (size > 0) {
+			XRayActiveSpan element = elements[--size];
+			elements[size] = null;
+			return element;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets top of stack.
+	 *
+	 * @return top of stack or {@code null} if stack is empty
+	 */
+	XRayActiveSpan peek() {
+		if (size > 0) {
+			return elements[size - 1];
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if stack is empty or not.
+	 *
+	 * @return {@code true} if stack is empty
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if stack belongs to a virtual thread.
+	 *
+	 * @return {@code true} if stack belongs to a virtual thread
+	 */
+	boolean isVirtualThread() {
+		return virtualThread;
+	}
+}
@@ -0,0 +1,107 @@
+package com.wongnai.tracing.xray;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.xray.entities.Entity;
+
+/**
+ * Tag keys recorded as X-Ray annotations, which are indexed for filter expressions, rather than as metadata.
+ *
+ * Keys are compiled once into the annotation names X-Ray accepts, with characters other than letters, digits and
+ * underscore replaced by underscore e.g. {@code db.type} becomes {@code db_type}. Strings, numbers and booleans keep
+ * their type. An entity records up to a maximum number of annotations, further tags are recorded as metadata.
+ */
+public final class AnnotationAllowlist {
+	/**
+	 * Default maximum number of annotations an entity records.
+	 */
+	public static final int DEFAULT_MAX_PER_ENTITY = 10;
+	/**
+	 * Allowlist recording no tag as annotation.
+	 */
+	public static final AnnotationAllowlist NONE = new AnnotationAllowlist(Collections.emptyList(),
+			DEFAULT_MAX_PER_ENTITY);
+
+	private static final int MAX_STRING_LENGTH = 1000;
+
+	private final Map<String, String> names;
+	private final int maxPerEntity;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param keys
+	 *            tag keys to record as annotations e.g. tenant, db.type, cache.hit
+	 * @param maxPerEntity
+	 *            maximum number of annotations an entity records
+	 */
+	public AnnotationAllowlist(Collection<String> keys, int maxPerEntity) {
+		if (maxPerEntity < 0) {
+			throw new IllegalArgumentException("Maximum number of annotations must not be negative: " + maxPerEntity);
+		}
+		Map<String, String> map = new HashMap<>();
+		for (String key : keys) {
+			if (key == null || key.trim().isEmpty()) {
+				throw new IllegalArgumentException("Annotation tag key must not be blank.");
+			}
+			map.put(key.trim(), toName(key.trim()));
+		}
+		this.names = map;
+		this.maxPerEntity = maxPerEntity;
+	}
+
+	private static String toName(String key) {
+		StringBuilder name = new StringBuilder(key.length());
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			name.append(c < 128 && (Character.isLetterOrDigit(c) || c == '_') ? c : '_');
+		}
+		return name.toString();
+	}
+
+	/**
+	 * Records tag as annotation if its key is allowed and entity has room left.
+	 *
+	 * @param entity
+	 *            entity
+	 * @param key
+	 *            tag key
+	 * @param value
+	 *            string, number or boolean
+	 * @return {@code true} if tag is recorded
+	 */
+	boolean apply(Entity entity, String key, Object value) {
+		if (names.isEmpty()) {
+			return false;
+		}
+		String name = names.get(key);
+		if (name == null || value == null) {
+			return false;
+		}
+		Map<String, Object> annotations = entity.getAnnotations();
+		if (annotations.size() >= maxPerEntity && !annotations.containsKey(name)) {
+			return false;
+		}
+		if (value instanceof Number) {
+			entity.putAnnotation(name, (Number) value);
+		} else if (value instanceof Boolean) {
+			entity.putAnnotation(name, (Boolean) value);
+		} else {
+			String s = value.toString();
+			entity.putAnnotation(name, s.length() > MAX_STRING_LENGTH ? s.substring(0, MAX_STRING_LENGTH) : s);
+		}
+		return true;
+	}
+
+	/**
+	 * Gets maximum number of annotations an entity records.
+	 *
+	 * @return maximum number of annotations
+	 */
+	public int getMaxPerEntity() {
+		return maxPerEntity;
+	}
+}
@@ -0,0 +1,267 @@
+package com.wongnai.tracing.xray;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Baggage of a span context, an immutable map sharing its items with baggage derived from it.
+ *
+ * Setting an item links a new item in front of the items of the baggage it is set on, so a child span adds to the
+ * baggage of its parent without copying it. Items are propagated as extra fields of trace header e.g.
+ * {@code Root=...;Sampled=1;tenant=acme}, and baggage extracted from a header is parsed only when it is read. Items over
+ * {@link #MAX_ITEMS} or {@link #MAX_LENGTH} characters in header, with invalid key or value, or with a key of X-Ray
+ * are ignored.
+ */
+final class Baggage {
+	/**
+	 * Maximum number of items.
+	 */
+	static final int MAX_ITEMS = 16;
+	/**
+	 * Maximum number of characters of items in trace header.
+	 */
+	static final int MAX_LENGTH = 256;
+	/**
+	 * Empty baggage.
+	 */
+	static final Baggage EMPTY = new Baggage(null, 0, 0, 0);
+	private static final String[] RESERVED_KEYS = { "Root", "Parent", "Sampled", "Self", "Lineage" };
+
+	private final Item head;
+	private final int size;
+	private final int length;
+	private final int depth;
+	private final String header;
+	private final int from;
+	private volatile Baggage parsed;
+	private volatile List<Map.Entry<String, String>> items;
+	private volatile String fields;
+
+	private Baggage(Item head, int size, int length, int depth) {
+		this.head = head;
+		this.size = size;
+		this.length = length;
+		this.depth = depth;
+		this.header = null;
+		this.from = 0;
+	}
+
+	private Baggage(String header, int from) {
+		this.head = null;
+		this.size = 0;
+		this.length = 0;
+		this.depth = 0;
+		this.header = header;
+		this.from = from;
+	}
+
+	/**
+	 * Creates baggage of extra fields of trace header, parsed when it is read.
+	 *
+	 * @param header
+	 *            header value
+	 * @param from
+	 *            index of first extra field
+	 * @return baggage
+	 */
+	static Baggage parse(String header, int from) {
+		return new Baggage(header, from);
+	}
+
+	/**
+	 * Gets value of an item.
+	 *
+	 * @param key
+	 *            key
+	 * @return value or {@code null} if none
+	 */
+	String get(String key) {
+		for (Item item = resolve().head; item != null; item = item.next) {
+			if (item.getKey().equals(key)) {
+				return item.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates baggage with an item set.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value, or {@code null} to remove item
+	 * @return new baggage, or this one if item is ignored
+	 */
+	Baggage with(String key, String value) {
+		Baggage baggage = resolve();
+		if (!isValidKey(key) || value != null && !isValidValue(value)) {
+			return baggage;
+		}
+		String old = baggage.get(key);
+		if (old == null && value == null) {
+			return baggage;
+		}
+		int newSize = baggage.size + (old == null ? 1 : 0) - (value == null ? 1 : 0);
+		int newLength = baggage.length - fieldLength(key, old) + fieldLength(key, value);
+		if (newSize > MAX_ITEMS || newLength > MAX_LENGTH) {
+			return baggage;
+		}
+
+		Baggage result = new Baggage(new Item(key, value, baggage.head), newSize, newLength, baggage.depth + 1);
+		// Items replaced or removed are still linked, so chain of a frequently set key is compacted.
+		return result.depth > 2 * MAX_ITEMS ? result.compact() : result;
+	}
+
+	private Baggage compact() {
+		Item item = null;
+		for (Map.Entry<String, String> entry : getItems()) {
+			item = new Item(entry.getKey(), entry.getValue(), item);
+		}
+		return new Baggage(item, size, length, size);
+	}
+
+	/**
+	 * Gets items.
+	 *
+	 * @return items in order they were last set
+	 */
+	List<Map.Entry<String, String>> getItems() {
+		Baggage baggage = resolve();
+		List<Map.Entry<String, String>> list = baggage.items;
+		if (list == null) {
+			if (baggage.size == 0) {
+				list = Collections.emptyList();
+			} else {
+				Item[] array = new Item[baggage.size];
+				int n = array.length;
+				for (Item item = baggage.head; item != null; item = item.next) {
+					if (item.getValue() != null && !isShadowed(baggage.head, item)) {
+						array[--n] = item;
+					}
+				}
+				list = Collections.unmodifiableList(Arrays.<Map.Entry<String, String>>asList(array));
+			}
+			baggage.items = list;
+		}
+		return list;
+	}
+
+	private static boolean isShadowed(Item head, Item item) {
+		for (Item newer = head; newer != item; newer = newer.next) {
+			if (newer.getKey().equals(item.getKey())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets items as extra fields of trace header.
+	 *
+	 * @return fields each prefixed with {@code ;} e.g. {@code ;tenant=acme;region=th}, or empty string if no item
+	 */
+	String toHeaderFields() {
+		if (this == EMPTY) {
+			return "";
+		}
+		Baggage baggage = resolve();
+		String s = baggage.fields;
+		if (s == null) {
+			StringBuilder builder = new StringBuilder(baggage.length);
+			for (Map.Entry<String, String> item : baggage.getItems()) {
+				builder.append(';').append(item.getKey()).append('=').append(item.getValue());
+			}
+			s = builder.toString();
+			baggage.fields = s;
+		}
+		return s;
+	}
+
+	private Baggage resolve() {
+		if (header == null) {
+			return this;
+		}
+		Baggage baggage = parsed;
+		if (baggage == null) {
+			baggage = parseFields(header, from);
+			parsed = baggage;
+		}
+		return baggage;
+	}
+
+	private static Baggage parseFields(String header, int from) {
+		Baggage baggage = EMPTY;
+		int length = header.length();
+		int start = from;
+		while (start < length) {
+			int end = header.indexOf(';', start);
+			if (end < 0) {
+				end = length;
+			}
+			int separator = header.indexOf('=', start);
+			if (separator > start && separator < end) {
+				String key = header.substring(start, separator).trim();
+				if (!isReserved(key)) {
+					baggage = baggage.with(key, header.substring(separator + 1, end).trim());
+				}
+			}
+			start = end + 1;
+		}
+		return baggage;
+	}
+
+	private static int fieldLength(String key, String value) {
+		return value != null ? key.length() + value.length() + 2 : 0;
+	}
+
+	private static boolean isValidKey(String key) {
+		if (key == null || key.isEmpty() || isReserved(key)) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c == ';' || c == '=' || c <= ' ' || c >= 127) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isValidValue(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ';' || c < ' ' || c >= 127) {
+				return false;
+			}
+		}
+		// Fields are trimmed when parsed.
+		return value.isEmpty() || value.charAt(0) != ' ' && value.charAt(value.length() - 1) != ' ';
+	}
+
+	private static boolean isReserved(String key) {
+		for (String reserved : RESERVED_KEYS) {
+			if (reserved.equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Item linked to items set before it, with {@code null} value if it removes an item.
+	 */
+	private static final class Item extends AbstractMap.SimpleImmutableEntry<String, String> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient Item next;
+
+		Item(String key, String value, Item next) {
+			super(key, value);
+			this.next = next;
+		}
+	}
+}
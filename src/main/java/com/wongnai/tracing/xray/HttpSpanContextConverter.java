@@ -1,7 +1,5 @@
 package com.wongnai.tracing.xray;
 
-import java.util.Map;
-
 import com.amazonaws.xray.entities.TraceHeader;
 import com.wongnai.common.StringUtils;
 import com.wongnai.tracing.TextMapUtils;
@@ -20,26 +18,16 @@ public class HttpSpanContextConverter implements XRaySpanContextConverter {
 	public void inject(XRaySpanContext spanContext, Object carrier) {
 		TextMap tm = (TextMap) carrier;
 
-		TraceHeader.SampleDecision d = spanContext.getSampleDecision();
-		if (d == null) {
-			d = TraceHeader.SampleDecision.UNKNOWN;
-		}
-
-		TraceHeader header = new TraceHeader(spanContext.getTraceId(),
-				d == TraceHeader.SampleDecision.SAMPLED ? spanContext.getId() : null, d);
-
-		tm.put(TRACE_ID_HEADER, header.toString());
+		tm.put(TRACE_ID_HEADER, spanContext.getTraceHeader());
 	}
 
 	@Override
 	public XRaySpanContext extract(Object carrier) {
 		TextMap tm = (TextMap) carrier;
 
-		Map<String, String> map = TextMapUtils.toMap(tm);
-
-		String id = map.get(TRACE_ID_HEADER);
+		String id = TextMapUtils.get(tm, TraceHeader.HEADER_KEY);
 		if (!StringUtils.isBlank(id)) {
-			return XRaySpanContext.create(TraceHeader.fromString(id));
+			return TraceHeaders.parse(id);
 		} else {
 			return null;
 		}
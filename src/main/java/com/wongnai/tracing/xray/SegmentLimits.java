@@ -0,0 +1,133 @@
+package com.wongnai.tracing.xray;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits on what spans of a segment record, so that a misbehaving caller cannot grow a segment without bound.
+ *
+ * Spans of a segment share a running account of tags recorded as metadata, of their estimated bytes and of
+ * subsegments. A tag over the count limit is dropped, a string tag over the byte limit is truncated with a marker if
+ * some bytes are left and dropped otherwise, and a span over the subsegment limit records nothing but still
+ * propagates its parent's context. Overflows are summarized in the segment's metadata when its span finishes and
+ * counted here for all segments.
+ */
+public final class SegmentLimits {
+	/**
+	 * Default estimated bytes of tags a segment records as metadata.
+	 */
+	public static final int DEFAULT_MAX_METADATA_BYTES = 16 * 1024;
+	/**
+	 * Default number of tags a segment records as metadata.
+	 */
+	public static final int DEFAULT_MAX_TAGS = 256;
+	/**
+	 * Default number of subsegments a segment records.
+	 */
+	public static final int DEFAULT_MAX_SUBSEGMENTS = 1000;
+	/**
+	 * Default limits.
+	 */
+	public static final SegmentLimits DEFAULT = new SegmentLimits(DEFAULT_MAX_METADATA_BYTES, DEFAULT_MAX_TAGS,
+			DEFAULT_MAX_SUBSEGMENTS);
+
+	private final int maxMetadataBytes;
+	private final int maxTags;
+	private final int maxSubsegments;
+	private final LongAdder droppedTags = new LongAdder();
+	private final LongAdder truncatedTags = new LongAdder();
+	private final LongAdder droppedSubsegments = new LongAdder();
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param maxMetadataBytes
+	 *            estimated bytes of tags a segment records as metadata
+	 * @param maxTags
+	 *            number of tags a segment records as metadata
+	 * @param maxSubsegments
+	 *            number of subsegments a segment records
+	 */
+	public SegmentLimits(int maxMetadataBytes, int maxTags, int maxSubsegments) {
+		if (maxMetadataBytes < 0 || maxTags < 0 || maxSubsegments < 0) {
+			throw new IllegalArgumentException("Segment limits must not be negative.");
+		}
+		this.maxMetadataBytes = maxMetadataBytes;
+		this.maxTags = maxTags;
+		this.maxSubsegments = maxSubsegments;
+	}
+
+	/**
+	 * Gets estimated bytes of tags a segment records as metadata.
+	 *
+	 * @return estimated bytes
+	 */
+	public int getMaxMetadataBytes() {
+		return maxMetadataBytes;
+	}
+
+	/**
+	 * Gets number of tags a segment records as metadata.
+	 *
+	 * @return number of tags
+	 */
+	public int getMaxTags() {
+		return maxTags;
+	}
+
+	/**
+	 * Gets number of subsegments a segment records.
+	 *
+	 * @return number of subsegments
+	 */
+	public int getMaxSubsegments() {
+		return maxSubsegments;
+	}
+
+	/**
+	 * Gets number of tags dropped so far.
+	 *
+	 * @return number of dropped tags
+	 */
+	public long getDroppedTags() {
+		return droppedTags.sum();
+	}
+
+	/**
+	 * Gets number of tags truncated so far.
+	 *
+	 * @return number of truncated tags
+	 */
+	public long getTruncatedTags() {
+		return truncatedTags.sum();
+	}
+
+	/**
+	 * Gets number of subsegments not recorded so far.
+	 *
+	 * @return number of dropped subsegments
+	 */
+	public long getDroppedSubsegments() {
+		return droppedSubsegments.sum();
+	}
+
+	/**
+	 * Counts a dropped tag.
+	 */
+	void tagDropped() {
+		droppedTags.increment();
+	}
+
+	/**
+	 * Counts a truncated tag.
+	 */
+	void tagTruncated() {
+		truncatedTags.increment();
+	}
+
+	/**
+	 * Counts a dropped subsegment.
+	 */
+	void subsegmentDropped() {
+		droppedSubsegments.increment();
+	}
+}
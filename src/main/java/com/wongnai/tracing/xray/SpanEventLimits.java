@@ -0,0 +1,62 @@
+package com.wongnai.tracing.xray;
+
+/**
+ * Limits on events logged to spans, see {@link io.opentracing.Span#log(String)}.
+ *
+ * Each span keeps its latest events in a ring of fixed capacity, and all spans of a trace share a budget of estimated
+ * bytes. Events logged once the budget is spent are only counted.
+ */
+public final class SpanEventLimits {
+	/**
+	 * Default number of events a span keeps.
+	 */
+	public static final int DEFAULT_SPAN_CAPACITY = 32;
+	/**
+	 * Default estimated bytes of events a trace keeps.
+	 */
+	public static final int DEFAULT_TRACE_BYTES = 16 * 1024;
+	/**
+	 * Default limits.
+	 */
+	public static final SpanEventLimits DEFAULT = new SpanEventLimits(DEFAULT_SPAN_CAPACITY, DEFAULT_TRACE_BYTES);
+
+	private final int spanCapacity;
+	private final int traceBytes;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param spanCapacity
+	 *            number of events a span keeps, older ones are overwritten
+	 * @param traceBytes
+	 *            estimated bytes of events a trace keeps, 0 to drop all events
+	 */
+	public SpanEventLimits(int spanCapacity, int traceBytes) {
+		if (spanCapacity <= 0) {
+			throw new IllegalArgumentException("Span event capacity must be positive: " + spanCapacity);
+		}
+		if (traceBytes < 0) {
+			throw new IllegalArgumentException("Trace event bytes must not be negative: " + traceBytes);
+		}
+		this.spanCapacity = spanCapacity;
+		this.traceBytes = traceBytes;
+	}
+
+	/**
+	 * Gets number of events a span keeps.
+	 *
+	 * @return number of events
+	 */
+	public int getSpanCapacity() {
+		return spanCapacity;
+	}
+
+	/**
+	 * Gets estimated bytes of events a trace keeps.
+	 *
+	 * @return estimated bytes
+	 */
+	public int getTraceBytes() {
+		return traceBytes;
+	}
+}
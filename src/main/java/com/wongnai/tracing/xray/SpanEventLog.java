@@ -0,0 +1,186 @@
+package com.wongnai.tracing.xray;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.xray.entities.Entity;
+
+/**
+ * Latest events logged to a span, in a ring of fixed capacity recorded into entity's metadata when span finishes.
+ *
+ * Bytes of an event, as estimated of its JSON, are taken from budget of trace when it is logged and given back if it
+ * is overwritten, so that events of a trace never take more than its budget.
+ */
+final class SpanEventLog {
+	/**
+	 * Metadata key of events.
+	 */
+	static final String EVENTS_KEY = "events";
+	/**
+	 * Metadata key of number of events dropped.
+	 */
+	static final String DROPPED_KEY = "events.dropped";
+	/**
+	 * Estimated bytes of an event without name nor payload.
+	 */
+	static final int MIN_EVENT_BYTES = 40;
+	private static final int MAX_VALUE_CHARS = 256;
+
+	private final long[] timestamps;
+	private final String[] names;
+	private final Object[] payloads;
+	private final int[] sizes;
+	private int next;
+	private int size;
+	private int dropped;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param capacity
+	 *            number of events kept
+	 */
+	SpanEventLog(int capacity) {
+		timestamps = new long[capacity];
+		names = new String[capacity];
+		payloads = new Object[capacity];
+		sizes = new int[capacity];
+	}
+
+	/**
+	 * Adds an event.
+	 *
+	 * @param budget
+	 *            budget of trace
+	 * @param timestampMicros
+	 *            timestamp in microseconds
+	 * @param name
+	 *            name or {@code null}
+	 * @param payload
+	 *            payload or {@code null}
+	 */
+	synchronized void add(TraceBudget budget, long timestampMicros, String name, Object payload) {
+		int bytes = MIN_EVENT_BYTES + length(name) + estimate(payload);
+		if (budget.tryAcquireEventBytes(bytes)) {
+			put(budget, timestampMicros, name, payload, bytes);
+		} else {
+			dropped++;
+		}
+	}
+
+	/**
+	 * Adds an event of fields, named after field {@code event}. Fields are copied only if event fits in budget.
+	 * Throwable fields are left out, they are recorded as exceptions of the entity instead.
+	 *
+	 * @param budget
+	 *            budget of trace
+	 * @param timestampMicros
+	 *            timestamp in microseconds
+	 * @param fields
+	 *            fields
+	 */
+	synchronized void add(TraceBudget budget, long timestampMicros, Map<String, ?> fields) {
+		Object event = fields.get("event");
+		String name = event instanceof String ? (String) event : null;
+		int bytes = MIN_EVENT_BYTES + length(name);
+		for (Map.Entry<String, ?> field : fields.entrySet()) {
+			if (isEventField(field, name)) {
+				bytes += length(field.getKey()) + estimate(field.getValue());
+			}
+		}
+		if (budget.tryAcquireEventBytes(bytes)) {
+			Fields copy = new Fields();
+			for (Map.Entry<String, ?> field : fields.entrySet()) {
+				if (isEventField(field, name)) {
+					copy.put(field.getKey(), field.getValue());
+				}
+			}
+			put(budget, timestampMicros, name, copy, bytes);
+		} else {
+			dropped++;
+		}
+	}
+
+	private void put(TraceBudget budget, long timestampMicros, String name, Object payload, int bytes) {
+		if (size == sizes.length) {
+			budget.releaseEventBytes(sizes[next]);
+			dropped++;
+		} else {
+			size++;
+		}
+		timestamps[next] = timestampMicros;
+		names[next] = name;
+		payloads[next] = payload;
+		sizes[next] = bytes;
+		next = (next + 1) % sizes.length;
+	}
+
+	/**
+	 * Records events, oldest first, into metadata of entity.
+	 *
+	 * @param entity
+	 *            entity
+	 * @return number of events dropped
+	 */
+	synchronized int writeTo(Entity entity) {
+		if (size > 0) {
+			List<Map<String, Object>> events = new ArrayList<>(size);
+			int index = (next - size + sizes.length) % sizes.length;
+			for (int i = 0; i < size; i++) {
+				events.add(toMap(index));
+				index = (index + 1) % sizes.length;
+			}
+			entity.putMetadata(EVENTS_KEY, events);
+		}
+		return dropped;
+	}
+
+	private Map<String, Object> toMap(int index) {
+		Map<String, Object> event = new LinkedHashMap<>();
+		event.put("timestamp", XRaySpan.toSeconds(timestamps[index]));
+		if (names[index] != null) {
+			event.put("event", names[index]);
+		}
+		Object payload = payloads[index];
+		if (payload instanceof Fields) {
+			for (Map.Entry<String, Object> field : ((Fields) payload).entrySet()) {
+				event.put(field.getKey(), toValue(field.getValue()));
+			}
+		} else if (payload != null) {
+			event.put("payload", toValue(payload));
+		}
+		return event;
+	}
+
+	private static Object toValue(Object value) {
+		if (value == null || value instanceof Number || value instanceof Boolean) {
+			return value;
+		}
+		String s = value.toString();
+		return s.length() > MAX_VALUE_CHARS ? s.substring(0, MAX_VALUE_CHARS) : s;
+	}
+
+	private static boolean isEventField(Map.Entry<String, ?> field, String name) {
+		return (!"event".equals(field.getKey()) || name == null) && !(field.getValue() instanceof Throwable);
+	}
+
+	private static int estimate(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return TraceBudget.FIELD_BYTES + Math.min(TraceBudget.estimate(value), MAX_VALUE_CHARS);
+	}
+
+	private static int length(String s) {
+		return s != null ? s.length() : 0;
+	}
+
+	/**
+	 * Copy of fields logged at once.
+	 */
+	private static final class Fields extends LinkedHashMap<String, Object> {
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -0,0 +1,208 @@
+package com.wongnai.tracing.xray;
+
+import java.util.Arrays;
+
+import io.opentracing.Span;
+
+/**
+ * Insertion-ordered buffer of tags given to a span builder before the span exists.
+ *
+ * Keys, types and values are kept in parallel arrays. Booleans are encoded in the type so they are never boxed. Tags
+ * used for sampling are remembered by index so they can be read without searching.
+ *
+ * A key keeps its last value of each type, string, boolean and number, and tags are set to span by type in that order,
+ * each type in insertion order.
+ */
+final class TagBuffer {
+	private static final int INITIAL_CAPACITY = 8;
+	private static final byte STRING = 0;
+	private static final byte NUMBER = 1;
+	private static final byte TRUE = 2;
+	private static final byte FALSE = 3;
+
+	private String[] keys = new String[INITIAL_CAPACITY];
+	private byte[] types = new byte[INITIAL_CAPACITY];
+	private Object[] values = new Object[INITIAL_CAPACITY];
+	private int size;
+	private int spanKindIndex = -1;
+	private int peerServiceIndex = -1;
+	private int peerHostnameIndex = -1;
+	private int httpUrlIndex = -1;
+	private int httpMethodIndex = -1;
+
+	/**
+	 * Puts string tag.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	void putString(String key, String value) {
+		put(key, STRING, value);
+	}
+
+	/**
+	 * Puts boolean tag.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	void putBoolean(String key, boolean value) {
+		put(key, value ? TRUE : FALSE, null);
+	}
+
+	/**
+	 * Puts number tag.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	void putNumber(String key, Number value) {
+		put(key, NUMBER, value);
+	}
+
+	private void put(String key, byte type, Object value) {
+		int index = indexOf(key, typeClass(type));
+		if (index < 0) {
+			if (size == keys.length) {
+				grow();
+			}
+			index = size++;
+			keys[index] = key;
+			if (type == STRING) {
+				index(key, index);
+			}
+		}
+		types[index] = type;
+		values[index] = value;
+	}
+
+	private int indexOf(String key, byte typeClass) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == key && typeClass(types[i]) == typeClass) {
+				return i;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (keys[i].equals(key) && typeClass(types[i]) == typeClass) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static byte typeClass(byte type) {
+		return type == FALSE ? TRUE : type;
+	}
+
+	private void index(String key, int index) {
+		switch (key) {
+			case Taggers.SPAN_KIND:
+				spanKindIndex = index;
+				break;
+			case Taggers.PEER_SERVICE:
+				peerServiceIndex = index;
+				break;
+			case Taggers.PEER_HOSTNAME:
+				peerHostnameIndex = index;
+				break;
+			case Taggers.HTTP_URL:
+				httpUrlIndex = index;
+				break;
+			case Taggers.HTTP_METHOD:
+				httpMethodIndex = index;
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void grow() {
+		int capacity = keys.length << 1;
+		keys = Arrays.copyOf(keys, capacity);
+		types = Arrays.copyOf(types, capacity);
+		values = Arrays.copyOf(values, capacity);
+	}
+
+	private String getString(int index) {
+		if (index >= 0 && types[index] == STRING) {
+			return (String) values[index];
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets value of {@code span.kind} tag.
+	 *
+	 * @return span kind or {@code null}
+	 */
+	String getSpanKind() {
+		return getString(spanKindIndex);
+	}
+
+	/**
+	 * Gets value of {@code peer.service} tag.
+	 *
+	 * @return peer service or {@code null}
+	 */
+	String getPeerService() {
+		return getString(peerServiceIndex);
+	}
+
+	/**
+	 * Gets value of {@code peer.hostname} tag.
+	 *
+	 * @return peer hostname or {@code null}
+	 */
+	String getPeerHostname() {
+		return getString(peerHostnameIndex);
+	}
+
+	/**
+	 * Gets value of {@code http.url} tag.
+	 *
+	 * @return http url or {@code null}
+	 */
+	String getHttpUrl() {
+		return getString(httpUrlIndex);
+	}
+
+	/**
+	 * Gets value of {@code http.method} tag.
+	 *
+	 * @return http method or {@code null}
+	 */
+	String getHttpMethod() {
+		return getString(httpMethodIndex);
+	}
+
+	/**
+	 * Sets all tags to span, string tags first, then boolean tags, then number tags.
+	 *
+	 * @param span
+	 *            span
+	 */
+	void applyTo(Span span) {
+		for (int i = 0; i < size; i++) {
+			if (types[i] == STRING) {
+				span.setTag(keys[i], (String) values[i]);
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (types[i] == TRUE || types[i] == FALSE) {
+				span.setTag(keys[i], types[i] == TRUE);
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (types[i] == NUMBER) {
+				span.setTag(keys[i], (Number) values[i]);
+			}
+		}
+	}
+}
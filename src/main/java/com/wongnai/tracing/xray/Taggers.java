@@ -1,16 +1,14 @@
 package com.wongnai.tracing.xray;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Pattern;
 
 import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.EntityImpl;
 import com.amazonaws.xray.entities.Namespace;
 import com.amazonaws.xray.entities.Segment;
 import com.wongnai.common.ExceptionUtils;
-import com.wongnai.tracing.TracingUtils;
 
 import io.opentracing.tag.Tags;
 
@@ -20,75 +18,95 @@ import io.opentracing.tag.Tags;
  * @author Suparit Krityakien
  */
 public final class Taggers {
-	private static final Field NAME_FIELD = getFieldName();
-	private static final Pattern HTTP_METHOD_PATTERN = Pattern.compile("(GET|POST|get|post|Get|Post)");
-	private static final Tagger HTTP_STATUS_TAGGER = (span, entity, key, value) -> {
-		span.putHttpResponse("status", value);
-		int responseCode = (int) value;
-		if (responseCode >= 400) {
-			if (responseCode == 429) {
-				entity.setError(true);
-				entity.setThrottle(true);
-			} else if (responseCode >= 500) {
-				entity.setFault(true);
-			} else {
-				entity.setError(true);
-			}
-		}
-	};
-	private static final Map<String, Tagger> TAGGERS = createAppliers();
+	/*
+	 * Keys of tags as compile-time constants, so they can be switched on. Each one equals the key of the tag of Tags or
+	 * TracingUtils it is named after, as checked by a test.
+	 */
+	static final String HTTP_URL = "http.url";
+	static final String HTTP_METHOD = "http.method";
+	static final String HTTP_USER_AGENT = "http.user_agent";
+	static final String HTTP_CLIENT_IP = "http.client_ip";
+	static final String HTTP_X_FORWARDED_FOR = "http.x_forwarded_for";
+	static final String HTTP_STATUS = "http.status_code";
+	static final String HTTP_CONTENT_LENGTH = "http.content_length";
+	static final String USER = "user";
+	static final String SPAN_KIND = "span.kind";
+	static final String ERROR = "error";
+	static final String PEER_HOSTNAME = "peer.hostname";
+	static final String PEER_SERVICE = "peer.service";
+
+	private static final MethodHandle NAME_SETTER = getNameSetter();
 
 	private Taggers() {
 	}
 
-	private static Field getFieldName() {
+	private static MethodHandle getNameSetter() {
 		try {
 			Field field = EntityImpl.class.getDeclaredField("name");
 			field.setAccessible(true);
-			return field;
+			return MethodHandles.lookup().unreflectSetter(field);
 		} catch (Exception e) {
 			throw ExceptionUtils.wrap(e);
 		}
 	}
 
-	private static Map<String, Tagger> createAppliers() {
-		Map<String, Tagger> taggers = new HashMap<>();
-
-		taggers.put(Tags.HTTP_URL.getKey(), (span, entity, key, value) -> span.putHttpRequest("url", value));
-		taggers.put(Tags.HTTP_METHOD.getKey(), (span, entity, key, value) -> span.putHttpRequest("method", value));
-		taggers.put(TracingUtils.HTTP_USER_AGENT_TAG.getKey(),
-				(span, entity, key, value) -> span.putHttpRequest("user_agent", value));
-		taggers.put(TracingUtils.HTTP_CLIENT_IP_TAG.getKey(),
-				(span, entity, key, value) -> span.putHttpRequest("client_ip", value));
-		taggers.put(TracingUtils.HTTP_X_FORWARDED_FOR_TAG.getKey(),
-				(span, entity, key, value) -> span.putHttpRequest("x_forwarded_for", value));
-		taggers.put(Tags.HTTP_STATUS.getKey(), HTTP_STATUS_TAGGER);
-		taggers.put(TracingUtils.HTTP_CONTENT_LENGTH_TAG.getKey(),
-				(span, entity, key, value) -> span.putHttpResponse("content_length", value));
-		taggers.put(TracingUtils.USER_TAG.getKey(),
-				(span, entity, key, value) -> ((Segment) entity).setUser(String.valueOf(value)));
-		taggers.put(Tags.SPAN_KIND.getKey(), (span, entity, key, value) -> {
-			if (Tags.SPAN_KIND_CLIENT.equals(value)) {
-				entity.setNamespace(String.valueOf(Namespace.REMOTE.toString()));
+	private static void tagHttpStatus(XRayBaseSpan span, Entity entity, Object value) {
+		span.putHttpResponse("status", value);
+		if (value instanceof Number) {
+			int responseCode = ((Number) value).intValue();
+			if (responseCode >= 400) {
+				if (responseCode == 429) {
+					entity.setError(true);
+					entity.setThrottle(true);
+				} else if (responseCode >= 500) {
+					entity.setFault(true);
+				} else {
+					entity.setError(true);
+				}
 			}
-			entity.putMetadata(Tags.SPAN_KIND.getKey(), value);
-		});
-		taggers.put(Tags.ERROR.getKey(), (span, entity, key, value) -> entity.setError((Boolean) value));
-		taggers.put(Tags.PEER_HOSTNAME.getKey(), (span, entity, key, value) -> {
-			tryChangeName(entity, String.valueOf(value));
-			entity.putMetadata(Tags.PEER_HOSTNAME.getKey(), value);
-		});
+		}
+	}
 
-		return taggers;
+	private static void tagSpanKind(Entity entity, Object value) {
+		if (Tags.SPAN_KIND_CLIENT.equals(value)) {
+			entity.setNamespace(Namespace.REMOTE.toString());
+		}
+		entity.putMetadata(SPAN_KIND, value);
+	}
+
+	private static void tagPeerHostname(Entity entity, Object value) {
+		tryChangeName(entity, String.valueOf(value));
+		entity.putMetadata(PEER_HOSTNAME, value);
 	}
 
 	private static void tryChangeName(Entity entity, String name) {
-		try {
-			if (HTTP_METHOD_PATTERN.matcher(entity.getName()).matches()) {
-				NAME_FIELD.set(entity, name);
+		if (entity instanceof EntityImpl && isHttpMethodName(entity.getName())) {
+			try {
+				NAME_SETTER.invokeExact((EntityImpl) entity, name);
+			} catch (Throwable e) {
+				throw ExceptionUtils.wrap(e);
 			}
-		} catch (IllegalAccessException e) {
-			throw ExceptionUtils.wrap(e);
+		}
+	}
+
+	/**
+	 * Checks if name is GET or POST, in upper, lower or capitalized case.
+	 *
+	 * @param name
+	 *            name
+	 * @return {@code true} if name is http method name
+	 */
+	static boolean isHttpMethodName(String name) {
+		if (name == null) {
+			return false;
+		}
+		switch (name.length()) {
+			case 3:
+				return "GET".equals(name) || "get".equals(name) || "Get".equals(name);
+			case 4:
+				return "POST".equals(name) || "post".equals(name) || "Post".equals(name);
+			default:
+				return false;
 		}
 	}
 
@@ -106,18 +124,45 @@ public final class Taggers {
 	 * @return {@code true} if tag is applied
 	 */
 	public static boolean applyTag(XRayBaseSpan span, Entity entity, String key, Object value) {
-		Tagger tagger = TAGGERS.get(key);
-
-		if (tagger != null) {
-			tagger.tag(span, entity, key, value);
-
-			return true;
-		} else {
+		if (key == null) {
 			return false;
 		}
-	}
-
-	private interface Tagger {
-		void tag(XRayBaseSpan span, Entity entity, String key, Object value);
+		switch (key) {
+			case HTTP_URL:
+				span.putHttpRequest("url", value);
+				return true;
+			case HTTP_METHOD:
+				span.putHttpRequest("method", value);
+				return true;
+			case HTTP_USER_AGENT:
+				span.putHttpRequest("user_agent", value);
+				return true;
+			case HTTP_CLIENT_IP:
+				span.putHttpRequest("client_ip", value);
+				return true;
+			case HTTP_X_FORWARDED_FOR:
+				span.putHttpRequest("x_forwarded_for", value);
+				return true;
+			case HTTP_STATUS:
+				tagHttpStatus(span, entity, value);
+				return true;
+			case HTTP_CONTENT_LENGTH:
+				span.putHttpResponse("content_length", value);
+				return true;
+			case USER:
+				((Segment) entity).setUser(String.valueOf(value));
+				return true;
+			case SPAN_KIND:
+				tagSpanKind(entity, value);
+				return true;
+			case ERROR:
+				entity.setError((Boolean) value);
+				return true;
+			case PEER_HOSTNAME:
+				tagPeerHostname(entity, value);
+				return true;
+			default:
+				return false;
+		}
 	}
 }
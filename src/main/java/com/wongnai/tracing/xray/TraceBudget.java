@@ -0,0 +1,226 @@
+package com.wongnai.tracing.xray;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.amazonaws.xray.entities.Entity;
+
+/**
+ * Running account of what spans of a trace recorded in this process, i.e. of one segment, shared by its spans through
+ * their span contexts.
+ *
+ * Covers estimated bytes of events, see {@link SpanEventLimits}, and estimated bytes and number of tags recorded as
+ * metadata and number of subsegments, see {@link SegmentLimits}. Once a limit is reached, checking it is a single
+ * volatile read.
+ */
+final class TraceBudget {
+	/**
+	 * Metadata key of summary of limits overflowed.
+	 */
+	static final String OVERFLOW_KEY = "segment.overflow";
+	/**
+	 * Suffix of a string tag truncated to fit in budget.
+	 */
+	static final String TRUNCATED_MARKER = "...[truncated]";
+
+	private static final AtomicIntegerFieldUpdater<TraceBudget> EVENT_BYTES = AtomicIntegerFieldUpdater
+			.newUpdater(TraceBudget.class, "eventBytes");
+	private static final AtomicIntegerFieldUpdater<TraceBudget> METADATA_BYTES = AtomicIntegerFieldUpdater
+			.newUpdater(TraceBudget.class, "metadataBytes");
+	private static final AtomicIntegerFieldUpdater<TraceBudget> TAGS = AtomicIntegerFieldUpdater
+			.newUpdater(TraceBudget.class, "tags");
+	private static final AtomicIntegerFieldUpdater<TraceBudget> SUBSEGMENTS = AtomicIntegerFieldUpdater
+			.newUpdater(TraceBudget.class, "subsegments");
+	private static final AtomicIntegerFieldUpdater<TraceBudget> DROPPED_TAGS = AtomicIntegerFieldUpdater
+			.newUpdater(TraceBudget.class, "droppedTags");
+	private static final AtomicIntegerFieldUpdater<TraceBudget> TRUNCATED_TAGS = AtomicIntegerFieldUpdater
+			.newUpdater(TraceBudget.class, "truncatedTags");
+	private static final AtomicIntegerFieldUpdater<TraceBudget> DROPPED_SUBSEGMENTS = AtomicIntegerFieldUpdater
+			.newUpdater(TraceBudget.class, "droppedSubsegments");
+	/**
+	 * Estimated bytes of a field without key nor value.
+	 */
+	static final int FIELD_BYTES = 6;
+	private static final int NUMBER_BYTES = 20;
+	private static final int BOOLEAN_BYTES = 5;
+	private static final int OTHER_BYTES = 256;
+
+	private final int spanEventCapacity;
+	private final SegmentLimits segmentLimits;
+	private volatile int eventBytes;
+	private volatile int metadataBytes;
+	private volatile int tags;
+	private volatile int subsegments;
+	private volatile int droppedTags;
+	private volatile int truncatedTags;
+	private volatile int droppedSubsegments;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param eventLimits
+	 *            limits on events
+	 * @param segmentLimits
+	 *            limits on segment
+	 */
+	TraceBudget(SpanEventLimits eventLimits, SegmentLimits segmentLimits) {
+		this.spanEventCapacity = eventLimits.getSpanCapacity();
+		this.segmentLimits = segmentLimits;
+		this.eventBytes = eventLimits.getTraceBytes();
+		this.metadataBytes = segmentLimits.getMaxMetadataBytes();
+		this.tags = segmentLimits.getMaxTags();
+		this.subsegments = segmentLimits.getMaxSubsegments();
+	}
+
+	/**
+	 * Checks if no event can fit anymore.
+	 *
+	 * @return {@code true} if budget of events is spent
+	 */
+	boolean isEventBytesSpent() {
+		return eventBytes < SpanEventLog.MIN_EVENT_BYTES;
+	}
+
+	/**
+	 * Takes bytes of an event.
+	 *
+	 * @param bytes
+	 *            estimated bytes of an event
+	 * @return {@code true} if there were enough bytes left
+	 */
+	boolean tryAcquireEventBytes(int bytes) {
+		return tryAcquire(EVENT_BYTES, bytes);
+	}
+
+	/**
+	 * Gives back bytes of an event overwritten before being recorded.
+	 *
+	 * @param bytes
+	 *            estimated bytes of event
+	 */
+	void releaseEventBytes(int bytes) {
+		EVENT_BYTES.addAndGet(this, bytes);
+	}
+
+	/**
+	 * Gets number of events a span keeps.
+	 *
+	 * @return number of events
+	 */
+	int getSpanEventCapacity() {
+		return spanEventCapacity;
+	}
+
+	/**
+	 * Accounts a tag about to be recorded as metadata. A tag overwriting one recorded before only takes the difference
+	 * in bytes. If an overwriting tag is dropped, the bytes and room of the tag recorded before are given back, so it
+	 * must be removed rather than left with a value the caller replaced.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 * @param previous
+	 *            value recorded before with same key on same entity, or {@code null}
+	 * @return value to record, truncated if needed, or {@code null} if tag is dropped
+	 */
+	Object acceptTag(String key, Object value, Object previous) {
+		if (previous == null && (tags <= 0 || !tryAcquire(TAGS, 1))) {
+			return dropTag(null, 0);
+		}
+		int previousBytes = previous != null ? FIELD_BYTES + key.length() + estimate(previous) : 0;
+		int bytes = FIELD_BYTES + key.length() + estimate(value) - previousBytes;
+		if (bytes <= 0) {
+			METADATA_BYTES.addAndGet(this, -bytes);
+			return value;
+		} else if (tryAcquire(METADATA_BYTES, bytes)) {
+			return value;
+		} else if (value instanceof String) {
+			int left;
+			int chars;
+			do {
+				left = metadataBytes;
+				chars = left + previousBytes - FIELD_BYTES - key.length() - TRUNCATED_MARKER.length();
+			} while (chars > 0 && !METADATA_BYTES.compareAndSet(this, left, 0));
+			if (chars > 0) {
+				TRUNCATED_TAGS.incrementAndGet(this);
+				segmentLimits.tagTruncated();
+				String s = (String) value;
+				return s.substring(0, Math.min(chars, s.length())) + TRUNCATED_MARKER;
+			}
+		}
+		return dropTag(previous, previousBytes);
+	}
+
+	private Object dropTag(Object previous, int previousBytes) {
+		if (previous != null) {
+			METADATA_BYTES.addAndGet(this, previousBytes);
+			TAGS.incrementAndGet(this);
+		}
+		DROPPED_TAGS.incrementAndGet(this);
+		segmentLimits.tagDropped();
+		return null;
+	}
+
+	/**
+	 * Accounts a subsegment about to be recorded.
+	 *
+	 * @return {@code true} if subsegment may be recorded
+	 */
+	boolean tryAddSubsegment() {
+		if (subsegments > 0 && tryAcquire(SUBSEGMENTS, 1)) {
+			return true;
+		}
+		DROPPED_SUBSEGMENTS.incrementAndGet(this);
+		segmentLimits.subsegmentDropped();
+		return false;
+	}
+
+	/**
+	 * Summarizes limits overflowed into metadata of segment, if any.
+	 *
+	 * @param segment
+	 *            segment
+	 */
+	void writeOverflowTo(Entity segment) {
+		if (droppedTags > 0 || truncatedTags > 0 || droppedSubsegments > 0) {
+			Map<String, Object> overflow = new LinkedHashMap<>();
+			overflow.put("tags.dropped", droppedTags);
+			overflow.put("tags.truncated", truncatedTags);
+			overflow.put("subsegments.dropped", droppedSubsegments);
+			segment.putMetadata(OVERFLOW_KEY, overflow);
+		}
+	}
+
+	private boolean tryAcquire(AtomicIntegerFieldUpdater<TraceBudget> updater, int amount) {
+		while (true) {
+			int current = updater.get(this);
+			if (current < amount) {
+				return false;
+			}
+			if (updater.compareAndSet(this, current, current - amount)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Estimates bytes of a value in metadata.
+	 *
+	 * @param value
+	 *            number, boolean, string or other object written as a string
+	 * @return estimated bytes
+	 */
+	static int estimate(Object value) {
+		if (value instanceof Number) {
+			return NUMBER_BYTES;
+		} else if (value instanceof Boolean) {
+			return BOOLEAN_BYTES;
+		} else if (value instanceof String) {
+			return ((String) value).length();
+		} else {
+			return OTHER_BYTES;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package com.wongnai.tracing.xray;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import com.amazonaws.xray.entities.TraceHeader;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Utilities for working with {@code X-Amzn-Trace-Id} header values.
+ *
+ * Parses without regular expressions or splitting so only the needed values are allocated, and renders into a
+ * reusable per-thread buffer.
+ */
+public final class TraceHeaders {
+	private static final String ROOT_PREFIX = "Root=";
+	private static final String PARENT_PREFIX = "Parent=";
+	private static final String SAMPLED_PREFIX = "Sampled=";
+	private static final String TRACE_ID_VERSION = "1-";
+	private static final int TRACE_ID_NUMBER_DIGITS = 24;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final ThreadLocal<HeaderBuffer> BUFFER = ThreadLocal.withInitial(HeaderBuffer::new);
+
+	private TraceHeaders() {
+	}
+
+	/**
+	 * Parses trace header to span context.
+	 *
+	 * Fields other than root, parent and sampled are kept as baggage, parsed only when it is read.
+	 *
+	 * @param header
+	 *            header value e.g. Root=1-5759e988-bd862e3fe1be46a994272793;Parent=53995c3f42cd8ad8;Sampled=1
+	 * @return span context
+	 */
+	public static XRaySpanContext parse(String header) {
+		String root = null;
+		String parent = null;
+		TraceHeader.SampleDecision sampleDecision = TraceHeader.SampleDecision.UNKNOWN;
+		int baggageFrom = -1;
+
+		int length = header.length();
+		int start = 0;
+		while (start < length) {
+			int end = header.indexOf(';', start);
+			if (end < 0) {
+				end = length;
+			}
+			int from = skipWhitespace(header, start, end);
+			int to = trimWhitespace(header, from, end);
+
+			if (header.startsWith(ROOT_PREFIX, from)) {
+				root = header.substring(from + ROOT_PREFIX.length(), to);
+			} else if (header.startsWith(PARENT_PREFIX, from)) {
+				parent = header.substring(from + PARENT_PREFIX.length(), to);
+			} else if (header.startsWith(SAMPLED_PREFIX, from)) {
+				sampleDecision = parseSampleDecision(header, from + SAMPLED_PREFIX.length(), to);
+			} else if (baggageFrom < 0 && from < to) {
+				baggageFrom = from;
+			}
+
+			start = end + 1;
+		}
+
+		Baggage baggage = baggageFrom < 0 ? Baggage.EMPTY : Baggage.parse(header, baggageFrom);
+		if (root != null && isCanonicalTraceId(root)) {
+			return new XRaySpanContext(root, parent, sampleDecision, baggage);
+		} else {
+			// Parsed, or regenerated if missing or malformed, once so local entities and headers sent downstream agree.
+			return new XRaySpanContext(null, parseTraceId(root), null, parent, sampleDecision, null, baggage);
+		}
+	}
+
+	/**
+	 * Checks if trace id is as rendered by {@link TraceID#toString()}, so it can be sent downstream as it is.
+	 *
+	 * @param s
+	 *            trace id
+	 * @return {@code true} if trace id is version 1 with start time and 24 digit number in lowercase hex
+	 */
+	private static boolean isCanonicalTraceId(String s) {
+		int separator = s.indexOf('-', TRACE_ID_VERSION.length());
+		if (!s.startsWith(TRACE_ID_VERSION) || separator < 0 || s.length() - separator - 1 != TRACE_ID_NUMBER_DIGITS) {
+			return false;
+		}
+		int startDigits = separator - TRACE_ID_VERSION.length();
+		if (startDigits < 1 || startDigits > 16 || startDigits > 1 && s.charAt(TRACE_ID_VERSION.length()) == '0') {
+			return false;
+		}
+		for (int i = TRACE_ID_VERSION.length(); i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (i != separator && !(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int skipWhitespace(String s, int from, int to) {
+		while (from < to && Character.isWhitespace(s.charAt(from))) {
+			from++;
+		}
+		return from;
+	}
+
+	private static int trimWhitespace(String s, int from, int to) {
+		while (to > from && Character.isWhitespace(s.charAt(to - 1))) {
+			to--;
+		}
+		return to;
+	}
+
+	private static TraceHeader.SampleDecision parseSampleDecision(String s, int from, int to) {
+		if (to - from == 1) {
+			switch (s.charAt(from)) {
+				case '1':
+					return TraceHeader.SampleDecision.SAMPLED;
+				case '0':
+					return TraceHeader.SampleDecision.NOT_SAMPLED;
+				case '?':
+					return TraceHeader.SampleDecision.REQUESTED;
+				default:
+					break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Renders span context as trace header.
+	 *
+	 * Parent is included only if span context is sampled. Baggage items follow as extra fields.
+	 *
+	 * @param spanContext
+	 *            span context
+	 * @return header value e.g. Root=1-5759e988-bd862e3fe1be46a994272793;Parent=53995c3f42cd8ad8;Sampled=1
+	 */
+	public static String render(XRaySpanContext spanContext) {
+		HeaderBuffer buffer = BUFFER.get();
+		buffer.clear();
+
+		buffer.append(ROOT_PREFIX);
+		String rootTraceId = spanContext.getRootTraceId();
+		if (rootTraceId != null) {
+			buffer.append(rootTraceId);
+		} else {
+			appendTraceId(buffer, spanContext.getTraceId());
+		}
+
+		TraceHeader.SampleDecision sampleDecision = spanContext.getSampleDecision();
+		if (sampleDecision == TraceHeader.SampleDecision.SAMPLED && spanContext.getId() != null) {
+			buffer.append(';').append(PARENT_PREFIX).append(spanContext.getId());
+		}
+		if (sampleDecision != null && sampleDecision != TraceHeader.SampleDecision.UNKNOWN) {
+			buffer.append(';').append(sampleDecision.toString());
+		}
+		buffer.append(spanContext.getBaggage().toHeaderFields());
+
+		return buffer.toString();
+	}
+
+	private static void appendTraceId(HeaderBuffer buffer, TraceID traceId) {
+		buffer.append(TRACE_ID_VERSION);
+		appendHex(buffer, traceId.getStartTime(), 0);
+		buffer.append('-');
+
+		BigInteger number = traceId.getNumber();
+		if (number.bitLength() <= 96) {
+			appendHex(buffer, number.shiftRight(64).longValue(), TRACE_ID_NUMBER_DIGITS - 16);
+			appendHex(buffer, number.longValue(), 16);
+		} else {
+			buffer.append(number.toString(16));
+		}
+	}
+
+	private static void appendHex(HeaderBuffer buffer, long value, int minDigits) {
+		int digits = Math.max(minDigits, (64 - Long.numberOfLeadingZeros(value) + 3) >> 2);
+		if (digits == 0) {
+			digits = 1;
+		}
+		for (int shift = (digits - 1) << 2; shift >= 0; shift -= 4) {
+			buffer.append(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+		}
+	}
+
+	/**
+	 * Parses trace id.
+	 *
+	 * Creates new trace id if the given value is {@code null} or malformed, the same as
+	 * {@link TraceID#fromString(String)}.
+	 *
+	 * @param s
+	 *            trace id e.g. 1-5759e988-bd862e3fe1be46a994272793
+	 * @return trace id
+	 */
+	public static TraceID parseTraceId(String s) {
+		if (s != null) {
+			int first = s.indexOf('-');
+			int second = first < 0 ? -1 : s.indexOf('-', first + 1);
+			if (second > first + 1 && second < s.length() - 1) {
+				try {
+					TraceID traceId = new TraceID(parseHexLong(s, first + 1, second));
+					traceId.setNumber(new BigInteger(s.substring(second + 1), 16));
+					return traceId;
+				} catch (NumberFormatException e) {
+					// falls back to new trace id
+				}
+			}
+		}
+		return new TraceID();
+	}
+
+	private static long parseHexLong(String s, int from, int to) {
+		if (to - from > 16) {
+			throw new NumberFormatException(s);
+		}
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = Character.digit(s.charAt(i), 16);
+			if (digit < 0) {
+				throw new NumberFormatException(s);
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Growable char buffer reused by a thread for rendering headers.
+	 */
+	private static final class HeaderBuffer {
+		private char[] chars = new char[128];
+		private int length;
+
+		void clear() {
+			length = 0;
+		}
+
+		HeaderBuffer append(char c) {
+			ensureCapacity(length + 1);
+			chars[length++] = c;
+			return this;
+		}
+
+		HeaderBuffer append(String s) {
+			int n = s.length();
+			ensureCapacity(length + n);
+			s.getChars(0, n, chars, length);
+			length += n;
+			return this;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > chars.length) {
+				chars = Arrays.copyOf(chars, Math.max(capacity, chars.length << 1));
+			}
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, 0, length);
+		}
+	}
+}
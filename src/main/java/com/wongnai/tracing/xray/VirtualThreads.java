@@ -0,0 +1,20 @@
+package com.wongnai.tracing.xray;
+
+/**
+ * Detects virtual threads.
+ *
+ * There are no virtual threads before Java 21, the multi-release JAR replaces this class on Java 21 and later.
+ */
+final class VirtualThreads {
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Checks if current thread is a virtual thread.
+	 *
+	 * @return always {@code false}
+	 */
+	static boolean isCurrentThreadVirtual() {
+		return false;
+	}
+}
@@ -1,7 +1,7 @@
 package com.wongnai.tracing.xray;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.function.Consumer;
 
 import io.opentracing.ActiveSpan;
@@ -10,13 +10,18 @@ import io.opentracing.SpanContext;
 
 /**
  * An implementation of {@link ActiveSpan} for AWS X-Ray.
+ *
+ * Its reference count is updated atomically, so continuations may be activated and deactivated on other threads.
  */
 public class XRayActiveSpan implements ActiveSpan {
+	private static final AtomicIntegerFieldUpdater<XRayActiveSpan> COUNT = AtomicIntegerFieldUpdater
+			.newUpdater(XRayActiveSpan.class, "count");
+
 	private final Span span;
-	private int count = 1;
-	private XRayActiveSpan.C c;
-	private Consumer<XRayActiveSpan> activateListener;
-	private Consumer<XRayActiveSpan> deactivateListener;
+	private volatile int count = 1;
+	private volatile XRayActiveSpan.C c;
+	private final Listener listener;
+	private final boolean finishing;
 
 	/**
 	 * Constructs an instance.
@@ -29,18 +34,54 @@ public class XRayActiveSpan implements ActiveSpan {
 	 *            deactivate listener
 	 */
 	public XRayActiveSpan(Span span, Consumer<XRayActiveSpan> activateListener, Consumer<XRayActiveSpan> deactivateListener) {
+		this(span, new Listener() {
+			@Override
+			public void activated(XRayActiveSpan activeSpan) {
+				activateListener.accept(activeSpan);
+			}
+
+			@Override
+			public void deactivated(XRayActiveSpan activeSpan) {
+				deactivateListener.accept(activeSpan);
+			}
+		});
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param span
+	 *            span
+	 * @param listener
+	 *            listener notified on activation and deactivation, usually shared by all active spans
+	 */
+	public XRayActiveSpan(Span span, Listener listener) {
+		this(span, listener, true);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param span
+	 *            span
+	 * @param listener
+	 *            listener notified on activation and deactivation, usually shared by all active spans
+	 * @param finishing
+	 *            {@code true} to finish span once deactivated by all references, {@code false} if span is owned by
+	 *            another active span and is only made current for a while
+	 */
+	public XRayActiveSpan(Span span, Listener listener, boolean finishing) {
 		this.span = span;
-		this.activateListener = activateListener;
-		this.deactivateListener = deactivateListener;
+		this.listener = listener;
+		this.finishing = finishing;
 	}
 
 	@Override
 	public void deactivate() {
-		count--;
-		if (count == 0) {
+		if (COUNT.decrementAndGet(this) == 0 && finishing) {
 			span.finish();
 		}
-		deactivateListener.accept(this);
+		listener.deactivated(this);
 	}
 
 	@Override
@@ -53,7 +94,7 @@ public class XRayActiveSpan implements ActiveSpan {
 		if (c == null) {
 			c = new C();
 		}
-		count++;
+		COUNT.incrementAndGet(this);
 
 		return c;
 	}
@@ -133,21 +174,14 @@ public class XRayActiveSpan implements ActiveSpan {
 
 	@Override
 	public ActiveSpan log(String eventName, Object payload) {
-		span.log(createLogs(eventName, payload));
+		span.log(eventName, payload);
 
 		return this;
 	}
 
-	private HashMap<String, Object> createLogs(String eventName, Object payload) {
-		HashMap<String, Object> map = new HashMap<>();
-		map.put("event", eventName);
-		map.put("payload", payload);
-		return map;
-	}
-
 	@Override
 	public ActiveSpan log(long timestampMicroseconds, String eventName, Object payload) {
-		span.log(timestampMicroseconds, createLogs(eventName, payload));
+		span.log(timestampMicroseconds, eventName, payload);
 
 		return this;
 	}
@@ -170,10 +204,31 @@ public class XRayActiveSpan implements ActiveSpan {
 		return span;
 	}
 
+	/**
+	 * Listener of activation and deactivation of active spans.
+	 */
+	public interface Listener {
+		/**
+		 * Called when active span is activated again from continuation.
+		 *
+		 * @param activeSpan
+		 *            active span
+		 */
+		void activated(XRayActiveSpan activeSpan);
+
+		/**
+		 * Called when active span is deactivated.
+		 *
+		 * @param activeSpan
+		 *            active span
+		 */
+		void deactivated(XRayActiveSpan activeSpan);
+	}
+
 	private class C implements Continuation {
 		@Override
 		public ActiveSpan activate() {
-			activateListener.accept(XRayActiveSpan.this);
+			listener.activated(XRayActiveSpan.this);
 
 			return XRayActiveSpan.this;
 		}
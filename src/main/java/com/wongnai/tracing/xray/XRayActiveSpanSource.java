@@ -1,8 +1,8 @@
 package com.wongnai.tracing.xray;
 
 import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.contexts.SegmentContext;
 import com.amazonaws.xray.entities.Entity;
-import com.wongnai.common.LocalStack;
 
 import io.opentracing.ActiveSpan;
 import io.opentracing.ActiveSpanSource;
@@ -12,11 +12,16 @@ import io.opentracing.SpanContext;
 /**
  * An implementation of {@link ActiveSpanSource} for AWS X-Ray.
  *
+ * Active spans are kept in a stack per thread, created on first activation. The stack of a virtual thread is dropped
+ * as soon as it is empty, so that a million short-lived virtual threads do not each hold one.
+ *
  * @author Suparit Krityakien
  */
 public class XRayActiveSpanSource implements ActiveSpanSource {
 	private final AWSXRayRecorder recorder;
-	private LocalStack<XRayActiveSpan> localStack = new LocalStack<>();
+	private final ThreadLocal<ActiveSpanStack> localStack = new ThreadLocal<>();
+	private final XRayActiveSpan.Listener listener = new StackListener();
+	private volatile SegmentContext segmentContext;
 
 	/**
 	 * Constructs an instance.
@@ -39,14 +44,11 @@ public class XRayActiveSpanSource implements ActiveSpanSource {
 
 	@Override
 	public ActiveSpan activeSpan() {
-		if (!localStack.isEmpty()) {
-			XRayActiveSpan as = localStack.get();
+		ActiveSpanStack stack = localStack.get();
+		XRayActiveSpan as = stack != null ? stack.peek() : null;
 
-			if (as != null && as.isActive()) {
-				return as;
-			} else {
-				return null;
-			}
+		if (as != null && as.isActive()) {
+			return as;
 		} else {
 			return null;
 		}
@@ -54,21 +56,80 @@ public class XRayActiveSpanSource implements ActiveSpanSource {
 
 	@Override
 	public ActiveSpan makeActive(Span span) {
-		XRayActiveSpan as = new XRayActiveSpan(span, (s) -> {
-			localStack.push(s);
-			recorder.setTraceEntity(getTraceEntity(s));
-		}, (s) -> {
-			localStack.pop();
-			recorder.setTraceEntity(localStack.isEmpty() ? null : getTraceEntity(localStack.get()));
-		});
+		XRayActiveSpan as = new XRayActiveSpan(span, listener);
 
-		localStack.push(as);
+		getStack().push(as);
+		if (span instanceof XRayUnsampledSpan) {
+			// Recorder has no entity of its own for span, so give SDK calls a dummy segment to record nothing under.
+			setTraceEntity(((XRayUnsampledSpan) span).getTraceEntity(recorder));
+		}
 
 		return as;
 	}
 
+	/**
+	 * Makes span active on current thread without taking ownership of it, e.g. to restore a span on a thread a request
+	 * has hopped to. Deactivating returned active span restores the previous one but does not finish span.
+	 *
+	 * @param span
+	 *            span owned by another active span
+	 * @return active span
+	 */
+	public XRayActiveSpan makeCurrent(Span span) {
+		XRayActiveSpan as = new XRayActiveSpan(span, listener, false);
+
+		listener.activated(as);
+
+		return as;
+	}
+
+	/**
+	 * Gets span active on current thread.
+	 *
+	 * @return span or {@code null} if there is no active span
+	 */
+	public Span currentSpan() {
+		ActiveSpanStack stack = localStack.get();
+		XRayActiveSpan as = stack != null ? stack.peek() : null;
+
+		return as != null && as.isActive() ? as.getSpan() : null;
+	}
+
+	private ActiveSpanStack getStack() {
+		ActiveSpanStack stack = localStack.get();
+		if (stack == null) {
+			stack = ActiveSpanStack.create();
+			localStack.set(stack);
+		}
+		return stack;
+	}
+
+	/**
+	 * Sets recorder's trace entity of current thread.
+	 *
+	 * The segment context is resolved once, as resolvers only depend on the environment, rather than on every
+	 * activation as the recorder does.
+	 *
+	 * @param entity
+	 *            entity or {@code null}
+	 */
+	private void setTraceEntity(Entity entity) {
+		SegmentContext context = segmentContext;
+		if (context == null) {
+			context = recorder.getSegmentContextResolverChain().resolve();
+			if (context == null) {
+				return;
+			}
+			segmentContext = context;
+		}
+		context.setTraceEntity(entity);
+	}
+
 	private Entity getTraceEntity(XRayActiveSpan xRayActiveSpan) {
 		Span span = xRayActiveSpan.getSpan();
+		if (span instanceof XRayUnsampledSpan) {
+			return ((XRayUnsampledSpan) span).getTraceEntity(recorder);
+		}
 
 		SpanContext c = span.context();
 		if (c instanceof XRaySpanContext) {
@@ -77,4 +138,29 @@ public class XRayActiveSpanSource implements ActiveSpanSource {
 			return null;
 		}
 	}
+
+	/**
+	 * Keeps thread's stack and recorder's trace entity in sync with activation.
+	 */
+	private class StackListener implements XRayActiveSpan.Listener {
+		@Override
+		public void activated(XRayActiveSpan activeSpan) {
+			getStack().push(activeSpan);
+			setTraceEntity(getTraceEntity(activeSpan));
+		}
+
+		@Override
+		public void deactivated(XRayActiveSpan activeSpan) {
+			ActiveSpanStack stack = localStack.get();
+			XRayActiveSpan top = null;
+			if (stack != null) {
+				stack.pop();
+				top = stack.peek();
+				if (top == null && stack.isVirtualThread()) {
+					localStack.remove();
+				}
+			}
+			setTraceEntity(top == null ? null : getTraceEntity(top));
+		}
+	}
 }
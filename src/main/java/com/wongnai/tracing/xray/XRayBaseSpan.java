@@ -5,6 +5,8 @@ import java.util.Map;
 
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.strategy.ThrowableSerializationStrategy;
+import com.wongnai.tracing.xray.strategy.DeduplicatingThrowableSerializationStrategy;
 
 import io.opentracing.BaseSpan;
 import io.opentracing.SpanContext;
@@ -18,11 +20,21 @@ import io.opentracing.SpanContext;
  *            Type of span
  */
 public abstract class XRayBaseSpan<E extends Entity, S extends BaseSpan<S>> implements BaseSpan<S> {
+	/**
+	 * Namespace of metadata tags are recorded into, the one of {@link Entity#putMetadata(String, Object)}.
+	 */
+	private static final String METADATA_NAMESPACE = "default";
+
 	private final AWSXRayRecorder recorder;
 	private E entity;
 	private HashMap<String, Object> httpRequest;
 	private HashMap<String, Object> httpResponse;
 	private XRaySpanContext spanContext;
+	private TraceBudget budget;
+	private AnnotationAllowlist annotations = AnnotationAllowlist.NONE;
+	private Baggage baggage = Baggage.EMPTY;
+	private SpanEventLog events;
+	private int droppedEvents;
 
 	/**
 	 * Constructs an instance.
@@ -90,11 +102,83 @@ public abstract class XRayBaseSpan<E extends Entity, S extends BaseSpan<S>> impl
 	@Override
 	public SpanContext context() {
 		if (spanContext == null) {
-			spanContext = createSpanContext();
+			XRaySpanContext context = createSpanContext();
+			if (baggage != Baggage.EMPTY) {
+				context = context.withBaggage(baggage);
+			}
+			context.setBudget(getBudget());
+			spanContext = context;
 		}
 		return spanContext;
 	}
 
+	/**
+	 * Sets budget of trace, shared with spans built as children of this one.
+	 *
+	 * @param budget
+	 *            budget
+	 */
+	void setBudget(TraceBudget budget) {
+		this.budget = budget;
+		if (spanContext != null) {
+			spanContext.setBudget(budget);
+		}
+	}
+
+	/**
+	 * Gets budget of trace.
+	 *
+	 * @return budget, with default limits if none was set
+	 */
+	TraceBudget getBudget() {
+		if (budget == null) {
+			budget = new TraceBudget(SpanEventLimits.DEFAULT, SegmentLimits.DEFAULT);
+		}
+		return budget;
+	}
+
+	/**
+	 * Sets baggage, shared with spans built as children of this one.
+	 *
+	 * Span context already created is replaced by a copy since span contexts are immutable.
+	 *
+	 * @param baggage
+	 *            baggage
+	 */
+	void setBaggage(Baggage baggage) {
+		this.baggage = baggage;
+		if (spanContext != null) {
+			spanContext = spanContext.withBaggage(baggage);
+		}
+	}
+
+	/**
+	 * Sets tag keys recorded as annotations.
+	 *
+	 * @param annotations
+	 *            allowlist
+	 */
+	void setAnnotations(AnnotationAllowlist annotations) {
+		this.annotations = annotations;
+	}
+
+	/**
+	 * Records events logged so far into metadata of entity.
+	 */
+	protected void recordEvents() {
+		if (entity == null) {
+			return;
+		}
+		int dropped = droppedEvents;
+		if (events != null) {
+			dropped += events.writeTo(entity);
+			events = null;
+		}
+		if (dropped > 0) {
+			entity.putMetadata(SpanEventLog.DROPPED_KEY, dropped);
+		}
+	}
+
 	/**
 	 * Creates span context.
 	 *
@@ -110,8 +194,15 @@ public abstract class XRayBaseSpan<E extends Entity, S extends BaseSpan<S>> impl
 	}
 
 	private void setTagInternal(String key, Object value) {
-		if (!Taggers.applyTag(this, entity, key, value)) {
-			entity.putMetadata(key, value);
+		if (!Taggers.applyTag(this, entity, key, value) && !annotations.apply(entity, key, value)) {
+			Map<String, Object> metadata = entity.getMetadata().get(METADATA_NAMESPACE);
+			Object previous = metadata != null ? metadata.get(key) : null;
+			Object accepted = getBudget().acceptTag(key, value, previous);
+			if (accepted != null) {
+				entity.putMetadata(key, accepted);
+			} else if (previous != null) {
+				metadata.remove(key);
+			}
 		}
 	}
 
@@ -131,40 +222,58 @@ public abstract class XRayBaseSpan<E extends Entity, S extends BaseSpan<S>> impl
 
 	@Override
 	public S log(Map<String, ?> fields) {
+		return log(nowMicros(), fields);
+	}
+
+	@Override
+	public S log(long timestampMicroseconds, Map<String, ?> fields) {
+		boolean hasEventFields = false;
 		for (Map.Entry<String, ?> field : fields.entrySet()) {
 			if (field.getValue() instanceof Throwable) {
-				entity.addException((Throwable) field.getValue());
+				addException((Throwable) field.getValue());
+			} else {
+				hasEventFields = true;
 			}
 		}
+		if (hasEventFields && hasEventRoom()) {
+			getEvents().add(budget, timestampMicroseconds, fields);
+		}
 
 		return (S) this;
 	}
 
-	@Override
-	public S log(long timestampMicroseconds, Map<String, ?> fields) {
-		log(fields);
-
-		return (S) this;
+	private void addException(Throwable throwable) {
+		if (entity == null) {
+			return;
+		}
+		ThrowableSerializationStrategy strategy = recorder.getThrowableSerializationStrategy();
+		if (strategy instanceof DeduplicatingThrowableSerializationStrategy) {
+			((DeduplicatingThrowableSerializationStrategy) strategy).addException(entity, throwable);
+		} else {
+			entity.addException(throwable);
+		}
 	}
 
 	@Override
 	public S log(String event) {
-		return (S) this;
+		return log(nowMicros(), event, null);
 	}
 
 	@Override
 	public S log(long timestampMicroseconds, String event) {
-		return (S) this;
+		return log(timestampMicroseconds, event, null);
 	}
 
 	@Override
 	public S setBaggageItem(String key, String value) {
+		setBaggage(baggage.with(key, value));
+
 		return (S) this;
 	}
 
 	@Override
 	public String getBaggageItem(String key) {
-		return null;
+		return baggage.get(key);
 	}
 
 	@Override
@@ -174,11 +283,44 @@ public abstract class XRayBaseSpan<E extends Entity, S extends BaseSpan<S>> impl
 
 	@Override
 	public S log(String eventName, Object payload) {
-		return (S) this;
+		return log(nowMicros(), eventName, payload);
 	}
 
 	@Override
 	public S log(long timestampMicroseconds, String eventName, Object payload) {
+		if (payload instanceof Throwable) {
+			// Recorded as exception, as with a field of log(Map), and the event is kept without it.
+			addException((Throwable) payload);
+			payload = null;
+		}
+		if (hasEventRoom()) {
+			getEvents().add(budget, timestampMicroseconds, eventName, payload);
+		}
+
 		return (S) this;
 	}
+
+	/**
+	 * Checks if budget of trace has room left for an event, otherwise counts event as dropped.
+	 *
+	 * @return {@code true} if event may be added
+	 */
+	private boolean hasEventRoom() {
+		if (entity == null || getBudget().isEventBytesSpent()) {
+			droppedEvents++;
+			return false;
+		}
+		return true;
+	}
+
+	private SpanEventLog getEvents() {
+		if (events == null) {
+			events = new SpanEventLog(budget.getSpanEventCapacity());
+		}
+		return events;
+	}
+
+	private static long nowMicros() {
+		return System.currentTimeMillis() * 1000;
+	}
 }
@@ -4,6 +4,7 @@ import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
+import com.wongnai.tracing.xray.strategy.TailSampler;
 
 import io.opentracing.Span;
 
@@ -14,6 +15,9 @@ import io.opentracing.Span;
  *            type of entity
  */
 public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> implements Span {
+	private static final double MICROS_PER_SECOND = 1_000_000.0;
+
+	private final boolean detached;
 	private boolean ended;
 
 	/**
@@ -25,7 +29,23 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 	 *            entity
 	 */
 	protected XRaySpan(AWSXRayRecorder recorder, E entity) {
+		this(recorder, entity, false);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param recorder
+	 *            recorder
+	 * @param entity
+	 *            entity
+	 * @param detached
+	 *            {@code true} if entity was never the recorder's trace entity, e.g. it records a past interval, so it is
+	 *            ended and sent without touching the trace entity of current thread
+	 */
+	protected XRaySpan(AWSXRayRecorder recorder, E entity, boolean detached) {
 		super(recorder, entity);
+		this.detached = detached;
 	}
 
 	/**
@@ -47,15 +67,41 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 		}
 	}
 
+	/**
+	 * Converts a timestamp in microseconds to the seconds entities use.
+	 *
+	 * @param micros
+	 *            microseconds since epoch
+	 * @return seconds since epoch
+	 */
+	static double toSeconds(long micros) {
+		return micros / MICROS_PER_SECOND;
+	}
+
+	/**
+	 * Checks if entity is kept out of the recorder's trace entity.
+	 *
+	 * @return {@code true} if span is detached
+	 */
+	public boolean isDetached() {
+		return detached;
+	}
+
 	@Override
-	public void finish(long l) {
-		finish();
+	public void finish(long finishMicros) {
+		if (!ended) {
+			getEntity().setEndTime(toSeconds(finishMicros));
+			finish();
+		}
 	}
 
 	@Override
 	public void finish() {
 		if (!ended) {
-			getRecorder().setTraceEntity(getEntity());
+			recordEvents();
+			if (!detached) {
+				getRecorder().setTraceEntity(getEntity());
+			}
 			finishInternally();
 			ended = true;
 		}
@@ -72,6 +118,8 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 	 * @author Suparit Krityakien
 	 */
 	public static class XRaySegmentSpan extends XRaySpan<Segment> {
+		private final TailSampler tailSampler;
+
 		/**
 		 * Constructs an instance.
 		 *
@@ -81,7 +129,38 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 		 *            segment
 		 */
 		public XRaySegmentSpan(AWSXRayRecorder recorder, Segment segment) {
-			super(recorder, segment);
+			this(recorder, segment, null);
+		}
+
+		/**
+		 * Constructs an instance of a trace buffered until it finishes.
+		 *
+		 * @param recorder
+		 *            recorder
+		 * @param segment
+		 *            unsampled segment
+		 * @param tailSampler
+		 *            tail sampler deciding if segment is sent when span finishes, or {@code null}
+		 */
+		public XRaySegmentSpan(AWSXRayRecorder recorder, Segment segment, TailSampler tailSampler) {
+			this(recorder, segment, tailSampler, false);
+		}
+
+		/**
+		 * Constructs an instance.
+		 *
+		 * @param recorder
+		 *            recorder
+		 * @param segment
+		 *            segment
+		 * @param tailSampler
+		 *            tail sampler deciding if segment is sent when span finishes, or {@code null}
+		 * @param detached
+		 *            {@code true} if segment is not the recorder's trace entity
+		 */
+		public XRaySegmentSpan(AWSXRayRecorder recorder, Segment segment, TailSampler tailSampler, boolean detached) {
+			super(recorder, segment, detached);
+			this.tailSampler = tailSampler;
 		}
 
 		/**
@@ -104,7 +183,18 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 
 		@Override
 		protected void finishInternally() {
-			getRecorder().endSegment();
+			getBudget().writeOverflowTo(getEntity());
+			if (tailSampler != null) {
+				tailSampler.finish(getEntity());
+			}
+			if (isDetached()) {
+				Segment segment = getEntity();
+				if (segment.end()) {
+					getRecorder().sendSegment(segment);
+				}
+			} else {
+				getRecorder().endSegment();
+			}
 		}
 	}
 
@@ -114,6 +204,8 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 	 * @author Suparit Krityakien
 	 */
 	public static class XRaySubsegmentSpan extends XRaySpan<Subsegment> {
+		private final TailSampler tailSampler;
+
 		/**
 		 * Constructs an instance.
 		 *
@@ -123,7 +215,39 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 		 *            subsegment
 		 */
 		public XRaySubsegmentSpan(AWSXRayRecorder recorder, Subsegment subsegment) {
-			super(recorder, subsegment);
+			this(recorder, subsegment, null);
+		}
+
+		/**
+		 * Constructs an instance in a trace buffered until it finishes.
+		 *
+		 * @param recorder
+		 *            recorder
+		 * @param subsegment
+		 *            subsegment of an unsampled segment
+		 * @param tailSampler
+		 *            tail sampler trimming the trace when span finishes, or {@code null}
+		 */
+		public XRaySubsegmentSpan(AWSXRayRecorder recorder, Subsegment subsegment, TailSampler tailSampler) {
+			this(recorder, subsegment, tailSampler, false);
+		}
+
+		/**
+		 * Constructs an instance.
+		 *
+		 * @param recorder
+		 *            recorder
+		 * @param subsegment
+		 *            subsegment
+		 * @param tailSampler
+		 *            tail sampler trimming the trace when span finishes, or {@code null}
+		 * @param detached
+		 *            {@code true} if subsegment is not the recorder's trace entity
+		 */
+		public XRaySubsegmentSpan(AWSXRayRecorder recorder, Subsegment subsegment, TailSampler tailSampler,
+				boolean detached) {
+			super(recorder, subsegment, detached);
+			this.tailSampler = tailSampler;
 		}
 
 		/**
@@ -146,7 +270,24 @@ public abstract class XRaySpan<E extends Entity> extends XRayBaseSpan<E, Span> i
 
 		@Override
 		protected void finishInternally() {
-			getRecorder().endSubsegment();
+			if (isDetached()) {
+				endDetached();
+			} else {
+				getRecorder().endSubsegment();
+			}
+			if (tailSampler != null) {
+				tailSampler.trim(getEntity());
+			}
+		}
+
+		private void endDetached() {
+			AWSXRayRecorder recorder = getRecorder();
+			Segment segment = getEntity().getParentSegment();
+			if (getEntity().end()) {
+				recorder.sendSegment(segment);
+			} else if (recorder.getStreamingStrategy().requiresStreaming(segment)) {
+				recorder.getStreamingStrategy().streamSome(segment, recorder.getEmitter());
+			}
 		}
 	}
 }
@@ -1,13 +1,17 @@
 package com.wongnai.tracing.xray;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
 import com.amazonaws.xray.entities.TraceHeader;
+import com.amazonaws.xray.entities.TraceID;
 import com.amazonaws.xray.strategy.sampling.SamplingRequest;
+import com.amazonaws.xray.strategy.sampling.SamplingStrategy;
+import com.wongnai.tracing.xray.strategy.TailSampler;
+import com.wongnai.tracing.xray.strategy.sampling.CompiledSamplingStrategy;
 
 import io.opentracing.ActiveSpan;
 import io.opentracing.BaseSpan;
@@ -21,17 +25,32 @@ import io.opentracing.tag.Tags;
 /**
  * An implementation of {@link io.opentracing.Tracer.SpanBuilder} for AWS X-Ray.
  *
+ * A span started manually with a start timestamp is detached: its entity never becomes the recorder's trace entity of
+ * current thread, and is ended and sent by the span itself. Timings can thus be recorded cheaply on a latency-critical
+ * path and the spans built afterwards on another thread, e.g. a segment and its subsegments each given start and
+ * finish timestamps. A span started active only takes the timestamp as its start time.
+ *
+ * A subsegment is attached to the entity of its parent span context, and is detached as well if that entity is not
+ * the trace entity of current thread, e.g. a child of a detached span. A child of an entity which has already ended is
+ * recorded as a detached segment of its own under that entity, as the trace it belongs to may have been sent.
+ *
+ * Unless {@link #ignoreActiveSpan()} is called, a span without parent is a child of the active span, whether it is
+ * started active or manually and whether the active span is sampled or not. A span for a new request should thus be
+ * given the span context extracted from it as parent, or ignore the active span.
+ *
  * @author Suparit Krityakien
  */
 public class XRaySpanBuilder implements Tracer.SpanBuilder {
 	private Tracer tracer;
 	private AWSXRayRecorder recorder;
+	private XRayTracerSettings settings;
 	private String name;
 	private SpanContext parentContext;
 	private boolean ignoreActiveSpan;
-	private Map<String, String> stringTags;
-	private Map<String, Number> numberTags;
-	private Map<String, Boolean> booleanTags;
+	private TagBuffer tags;
+	private Boolean unsampledParent;
+	private long startMicros;
+	private boolean detached;
 
 	/**
 	 * Constructs an instance.
@@ -44,14 +63,32 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 	 *            recorder
 	 */
 	public XRaySpanBuilder(String name, Tracer tracer, AWSXRayRecorder recorder) {
+		this(name, tracer, recorder, XRayTracerSettings.DEFAULT);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param name
+	 *            name
+	 * @param tracer
+	 *            tracer
+	 * @param recorder
+	 *            recorder
+	 * @param settings
+	 *            settings of tracer
+	 */
+	public XRaySpanBuilder(String name, Tracer tracer, AWSXRayRecorder recorder, XRayTracerSettings settings) {
 		this.name = name;
 		this.tracer = tracer;
 		this.recorder = recorder;
+		this.settings = settings;
 	}
 
 	@Override
 	public Tracer.SpanBuilder asChildOf(SpanContext sc) {
 		this.parentContext = sc;
+		this.unsampledParent = null;
 
 		return this;
 	}
@@ -59,6 +96,7 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 	@Override
 	public Tracer.SpanBuilder asChildOf(BaseSpan<?> baseSpan) {
 		this.parentContext = baseSpan.context();
+		this.unsampledParent = null;
 
 		return this;
 	}
@@ -67,6 +105,7 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 	public Tracer.SpanBuilder addReference(String s, SpanContext sc) {
 		if (References.CHILD_OF.equals(s) || References.FOLLOWS_FROM.equals(s)) {
 			this.parentContext = sc;
+			this.unsampledParent = null;
 		}
 
 		return this;
@@ -75,58 +114,91 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 	@Override
 	public Tracer.SpanBuilder ignoreActiveSpan() {
 		this.ignoreActiveSpan = true;
+		this.unsampledParent = null;
 
 		return this;
 	}
 
 	@Override
 	public Tracer.SpanBuilder withTag(String s, String s1) {
-		if (stringTags == null) {
-			stringTags = new HashMap<>();
+		if (!isParentUnsampled()) {
+			getTags().putString(s, s1);
 		}
-		stringTags.put(s, s1);
 
 		return this;
 	}
 
 	@Override
 	public Tracer.SpanBuilder withTag(String s, boolean b) {
-		if (booleanTags == null) {
-			booleanTags = new HashMap<>();
+		if (!isParentUnsampled()) {
+			getTags().putBoolean(s, b);
 		}
-		booleanTags.put(s, b);
 
 		return this;
 	}
 
 	@Override
 	public Tracer.SpanBuilder withTag(String s, Number number) {
-		if (numberTags == null) {
-			numberTags = new HashMap<>();
+		if (!isParentUnsampled()) {
+			getTags().putNumber(s, number);
 		}
-		numberTags.put(s, number);
 
 		return this;
 	}
 
+	/**
+	 * Checks if span will continue a trace known not to be sampled, so its tags would be discarded anyway.
+	 *
+	 * @return {@code true} if parent span, or active span if there is no parent, records nothing
+	 */
+	private boolean isParentUnsampled() {
+		if (unsampledParent == null) {
+			SpanContext context = parentContext;
+			if (context == null && !ignoreActiveSpan) {
+				ActiveSpan active = tracer.activeSpan();
+				context = active != null ? active.context() : null;
+			}
+			unsampledParent = XRayUnsampledSpan.isUnsampled(context);
+		}
+		return unsampledParent;
+	}
+
+	private TagBuffer getTags() {
+		if (tags == null) {
+			tags = new TagBuffer();
+		}
+		return tags;
+	}
+
 	@Override
-	public Tracer.SpanBuilder withStartTimestamp(long l) {
+	public Tracer.SpanBuilder withStartTimestamp(long microseconds) {
+		this.startMicros = microseconds;
+
 		return this;
 	}
 
+	private boolean isDetached() {
+		return detached;
+	}
+
 	@Override
 	public ActiveSpan startActive() {
+		return tracer.makeActive(start(false));
+	}
+
+	@Override
+	public Span startManual() {
+		return start(startMicros != 0);
+	}
+
+	private Span start(boolean detach) {
+		this.detached = detach;
 		if (parentContext == null && !ignoreActiveSpan) {
 			ActiveSpan parent = tracer.activeSpan();
 			if (parent != null) {
 				asChildOf(parent);
 			}
 		}
-		return tracer.makeActive(startManual());
-	}
-
-	@Override
-	public Span startManual() {
 		if (parentContext == null || parentContext instanceof XRaySpanContext) {
 			return startManualXray((XRaySpanContext) parentContext);
 		} else {
@@ -138,20 +210,39 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 		Span span;
 
 		if (xrayParentContext == null) {
-			if (stringTags == null || !Tags.SPAN_KIND_SERVER.equals(stringTags.get(Tags.SPAN_KIND.getKey()))) {
+			if (tags == null || !Tags.SPAN_KIND_SERVER.equals(tags.getSpanKind())) {
 				// Don't create a new subsegment to avoid xray's error/warning since we don't have any segment now.
 				span = NoopSpan.INSTANCE;
 			} else {
 				span = createXraySpan(new XRaySpanContext());
+				configure(span, null, Baggage.EMPTY);
 				fillTags(span);
 			}
 		} else {
 			Entity entity = xrayParentContext.getEntity();
-			if (entity != null) {
-				span = new XRaySpan.XRaySubsegmentSpan(recorder, recorder.beginSubsegment(name));
+			TraceBudget budget = xrayParentContext.getBudget();
+			if (XRayUnsampledSpan.isUnsampled(xrayParentContext)) {
+				return XRayUnsampledSpan.create(xrayParentContext);
+			} else if (entity != null && isEnded(entity)) {
+				span = new XRaySpan.XRaySegmentSpan(recorder, beginRerootedSegment(entity), null, true);
+			} else if (budget != null && !budget.tryAddSubsegment()) {
+				// Over the limit of its segment, so record nothing but keep propagating the parent.
+				return new XRayUnsampledSpan(xrayParentContext.withoutEntity());
+			} else if (entity != null) {
+				if (!detached && entity != recorder.getTraceEntity()) {
+					detached = true;
+				}
+				Subsegment subsegment = isDetached() ? beginDetachedSubsegment(entity) : beginSubsegment();
+				TailSampler tailSampler = settings.getTailSampler();
+				if (tailSampler != null && subsegment != null && TailSampler.isBuffered(subsegment.getParentSegment())) {
+					span = new XRaySpan.XRaySubsegmentSpan(recorder, subsegment, tailSampler, isDetached());
+				} else {
+					span = new XRaySpan.XRaySubsegmentSpan(recorder, subsegment, null, isDetached());
+				}
 			} else {
 				span = createXraySpan(xrayParentContext);
 			}
+			configure(span, budget, xrayParentContext.getBaggage());
 			fillTags(span);
 		}
 
@@ -160,24 +251,97 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 
 	private Span createXraySpan(XRaySpanContext xrayParentContext) {
 		TraceHeader.SampleDecision sampleDecision = xrayParentContext.getSampleDecision();
+		boolean decidedHere = false;
 		if (sampleDecision == null || TraceHeader.SampleDecision.REQUESTED.equals(sampleDecision)
 				|| TraceHeader.SampleDecision.UNKNOWN.equals(sampleDecision)) {
 			sampleDecision = this.fromSamplingStrategy();
+			decidedHere = true;
 		}
 
 		Segment segment;
+		TailSampler tailSampler = settings.getTailSampler();
 		if (TraceHeader.SampleDecision.SAMPLED == sampleDecision) {
-			segment = recorder.beginSegment(name, xrayParentContext.getTraceId(), xrayParentContext.getId());
+			segment = beginSegment(xrayParentContext);
+		} else if (decidedHere && tailSampler != null && tailSampler.tryBuffer()) {
+			segment = beginSegment(xrayParentContext);
+			segment.setSampled(false);
+			tailSampler.buffer(segment);
+			return new XRaySpan.XRaySegmentSpan(recorder, segment, tailSampler, isDetached());
 		} else {
-			segment = recorder.beginDummySegment(xrayParentContext.getTraceId());
+			return XRayUnsampledSpan.create(xrayParentContext);
+		}
+		return new XRaySpan.XRaySegmentSpan(recorder, segment, null, isDetached());
+	}
+
+	private Segment beginSegment(XRaySpanContext xrayParentContext) {
+		if (!isDetached()) {
+			Segment segment = recorder.beginSegment(name, xrayParentContext.getTraceId(), xrayParentContext.getId());
+			setStartTime(segment);
+			return segment;
+		}
+		return newSegment(xrayParentContext.getTraceId(), xrayParentContext.getId());
+	}
+
+	/**
+	 * Creates a segment the same way as recorder.beginSegment() but leaving the trace entity of current thread alone.
+	 */
+	private Segment newSegment(TraceID traceId, String parentId) {
+		SegmentImpl segment = new SegmentImpl(recorder, name, traceId);
+		segment.setParentId(parentId);
+		setStartTime(segment);
+		segment.setAws(recorder.getAwsRuntimeContext());
+		if (recorder.getOrigin() != null) {
+			segment.setOrigin(recorder.getOrigin());
+		}
+		segment.putAllService(recorder.getServiceRuntimeContext());
+		return segment;
+	}
+
+	private Segment beginRerootedSegment(Entity parent) {
+		Segment parentSegment = parent.getParentSegment();
+		Segment segment = newSegment(parentSegment.getTraceId(), parent.getId());
+		segment.setSampled(parentSegment.isSampled());
+		return segment;
+	}
+
+	private static boolean isEnded(Entity entity) {
+		return !entity.isInProgress() || entity.isEmitted() || entity.getParentSegment().isEmitted();
+	}
+
+	private Subsegment beginSubsegment() {
+		Subsegment subsegment = recorder.beginSubsegment(name);
+		if (subsegment != null) {
+			setStartTime(subsegment);
+		}
+		return subsegment;
+	}
+
+	private Subsegment beginDetachedSubsegment(Entity parent) {
+		SubsegmentImpl subsegment = new SubsegmentImpl(recorder, name, parent.getParentSegment());
+		subsegment.setParent(parent);
+		setStartTime(subsegment);
+		parent.addSubsegment(subsegment);
+		return subsegment;
+	}
+
+	private void setStartTime(Entity entity) {
+		if (startMicros != 0) {
+			entity.setStartTime(XRaySpan.toSeconds(startMicros));
 		}
-		return new XRaySpan.XRaySegmentSpan(recorder, segment);
 	}
 
 	private TraceHeader.SampleDecision fromSamplingStrategy() {
-		if (recorder.getSamplingStrategy()
-				.shouldTrace(new SamplingRequest(getServiceName(), getHost(), getPath(), getMethod(), getServiceType()))
-				.isSampled()) {
+		SamplingStrategy strategy = recorder.getSamplingStrategy();
+		boolean sampled;
+		if (strategy instanceof CompiledSamplingStrategy) {
+			sampled = ((CompiledSamplingStrategy) strategy).shouldTrace(getServiceName(), getHost(), getPath(),
+					getMethod());
+		} else {
+			sampled = strategy.shouldTrace(
+					new SamplingRequest(getServiceName(), getHost(), getPath(), getMethod(), getServiceType()))
+					.isSampled();
+		}
+		if (sampled) {
 			return TraceHeader.SampleDecision.SAMPLED;
 		} else {
 			return TraceHeader.SampleDecision.NOT_SAMPLED;
@@ -186,8 +350,8 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 
 	private String getServiceName() {
 		String serviceName = null;
-		if (stringTags != null) {
-			serviceName = stringTags.get(Tags.PEER_SERVICE.getKey());
+		if (tags != null) {
+			serviceName = tags.getPeerService();
 		}
 		if (serviceName == null) {
 			serviceName = name;
@@ -196,52 +360,50 @@ public class XRaySpanBuilder implements Tracer.SpanBuilder {
 	}
 
 	private String getPath() {
-		if (stringTags != null) {
-			return stringTags.get(Tags.HTTP_URL.getKey());
+		if (tags != null) {
+			return tags.getHttpUrl();
 		} else {
 			return null;
 		}
 	}
 
 	private String getHost() {
-		if (stringTags != null) {
-			return stringTags.get(Tags.PEER_HOSTNAME.getKey());
+		if (tags != null) {
+			return tags.getPeerHostname();
 		} else {
 			return null;
 		}
 	}
 
 	private String getServiceType() {
-		if (stringTags != null) {
-			return stringTags.get(Tags.SPAN_KIND.getKey());
+		if (tags != null) {
+			return tags.getSpanKind();
 		} else {
 			return null;
 		}
 	}
 
 	private String getMethod() {
-		if (stringTags != null) {
-			return stringTags.get(Tags.HTTP_METHOD.getKey());
+		if (tags != null) {
+			return tags.getHttpMethod();
 		} else {
 			return "GET";
 		}
 	}
 
-	private void fillTags(Span span) {
-		if (stringTags != null) {
-			for (Map.Entry<String, String> entry : stringTags.entrySet()) {
-				span.setTag(entry.getKey(), entry.getValue());
-			}
-		}
-		if (booleanTags != null) {
-			for (Map.Entry<String, Boolean> entry : booleanTags.entrySet()) {
-				span.setTag(entry.getKey(), entry.getValue());
-			}
+	private void configure(Span span, TraceBudget parentBudget, Baggage parentBaggage) {
+		if (span instanceof XRaySpan) {
+			XRaySpan<?> xraySpan = (XRaySpan<?>) span;
+			xraySpan.setBudget(parentBudget != null ? parentBudget : new TraceBudget(settings.getEventLimits(),
+					settings.getSegmentLimits()));
+			xraySpan.setAnnotations(settings.getAnnotations());
+			xraySpan.setBaggage(parentBaggage);
 		}
-		if (numberTags != null) {
-			for (Map.Entry<String, Number> entry : numberTags.entrySet()) {
-				span.setTag(entry.getKey(), entry.getValue());
-			}
+	}
+
+	private void fillTags(Span span) {
+		if (tags != null && !(span instanceof XRayUnsampledSpan)) {
+			tags.applyTo(span);
 		}
 	}
 
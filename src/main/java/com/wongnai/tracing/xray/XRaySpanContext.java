@@ -16,11 +16,15 @@ import io.opentracing.SpanContext;
  * @author Suparit Krityakien
  */
 public class XRaySpanContext implements SpanContext {
-	private final TraceID traceId;
+	private final String rootTraceId;
+	private volatile TraceID traceId;
 	private final String parentId;
 	private final String id;
 	private final TraceHeader.SampleDecision sampleDecision;
 	private final Entity entity;
+	private final Baggage baggage;
+	private volatile String traceHeader;
+	private volatile TraceBudget budget;
 
 	/**
 	 * Constructs an instance.
@@ -45,11 +49,80 @@ public class XRaySpanContext implements SpanContext {
 	 */
 	public XRaySpanContext(TraceID traceId, String parentId, String id, TraceHeader.SampleDecision sampleDecision,
 			Entity entity) {
+		this(null, traceId, parentId, id, sampleDecision, entity, Baggage.EMPTY);
+	}
+
+	/**
+	 * Constructs an instance from values of trace header.
+	 *
+	 * Trace id is parsed only when it is needed.
+	 *
+	 * @param rootTraceId
+	 *            root trace id as in header, well-formed as it is also sent downstream
+	 * @param id
+	 *            id i.e. parent in header
+	 * @param sampleDecision
+	 *            sample decision
+	 * @param baggage
+	 *            baggage
+	 */
+	XRaySpanContext(String rootTraceId, String id, TraceHeader.SampleDecision sampleDecision, Baggage baggage) {
+		this(rootTraceId, null, null, id, sampleDecision, null, baggage);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param rootTraceId
+	 *            root trace id as in header, or {@code null}
+	 * @param traceId
+	 *            trace id, or {@code null} to parse root trace id when it is needed
+	 * @param parentId
+	 *            parent id
+	 * @param id
+	 *            id
+	 * @param sampleDecision
+	 *            sample decision
+	 * @param entity
+	 *            entity
+	 * @param baggage
+	 *            baggage
+	 */
+	XRaySpanContext(String rootTraceId, TraceID traceId, String parentId, String id,
+			TraceHeader.SampleDecision sampleDecision, Entity entity, Baggage baggage) {
+		this.rootTraceId = rootTraceId;
 		this.traceId = traceId;
 		this.parentId = parentId;
 		this.id = id;
 		this.sampleDecision = sampleDecision;
 		this.entity = entity;
+		this.baggage = baggage;
+	}
+
+	/**
+	 * Creates a copy with other baggage.
+	 *
+	 * @param baggage
+	 *            baggage
+	 * @return span context
+	 */
+	XRaySpanContext withBaggage(Baggage baggage) {
+		XRaySpanContext context = new XRaySpanContext(rootTraceId, traceId, parentId, id, sampleDecision, entity,
+				baggage);
+		context.setBudget(budget);
+		return context;
+	}
+
+	/**
+	 * Creates a copy without entity, keeping budget of trace.
+	 *
+	 * @return span context
+	 */
+	XRaySpanContext withoutEntity() {
+		XRaySpanContext context = new XRaySpanContext(rootTraceId, traceId, parentId, id, sampleDecision, null,
+				baggage);
+		context.setBudget(budget);
+		return context;
 	}
 
 	/**
@@ -113,7 +186,16 @@ public class XRaySpanContext implements SpanContext {
 
 	@Override
 	public Iterable<Map.Entry<String, String>> baggageItems() {
-		return null;
+		return baggage.getItems();
+	}
+
+	/**
+	 * Gets baggage.
+	 *
+	 * @return baggage
+	 */
+	Baggage getBaggage() {
+		return baggage;
 	}
 
 	/**
@@ -122,7 +204,37 @@ public class XRaySpanContext implements SpanContext {
 	 * @return tracer id
 	 */
 	public TraceID getTraceId() {
-		return traceId;
+		TraceID id = traceId;
+		if (id == null) {
+			id = TraceHeaders.parseTraceId(rootTraceId);
+			traceId = id;
+		}
+		return id;
+	}
+
+	/**
+	 * Gets root trace id as received in trace header.
+	 *
+	 * @return root trace id or {@code null} if this span context is not from trace header
+	 */
+	String getRootTraceId() {
+		return rootTraceId;
+	}
+
+	/**
+	 * Gets trace header representing this span context.
+	 *
+	 * Rendered once and reused since span context is immutable.
+	 *
+	 * @return trace header value
+	 */
+	public String getTraceHeader() {
+		String header = traceHeader;
+		if (header == null) {
+			header = TraceHeaders.render(this);
+			traceHeader = header;
+		}
+		return header;
 	}
 
 	/**
@@ -151,4 +263,23 @@ public class XRaySpanContext implements SpanContext {
 	public TraceHeader.SampleDecision getSampleDecision() {
 		return sampleDecision;
 	}
+
+	/**
+	 * Gets budget of trace.
+	 *
+	 * @return budget or {@code null} if this span context is not from a span
+	 */
+	TraceBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets budget of trace.
+	 *
+	 * @param budget
+	 *            budget
+	 */
+	void setBudget(TraceBudget budget) {
+		this.budget = budget;
+	}
 }
@@ -16,15 +16,29 @@ import io.opentracing.propagation.Format;
  */
 public class XRayTracer extends XRayActiveSpanSource implements Tracer {
 	private Map<Format<?>, XRaySpanContextConverter> converters;
+	private XRayTracerSettings settings;
 
 	/**
-	 * Constructs an instance.
+	 * Constructs an instance with default settings.
 	 *
 	 * @param recorder
 	 *            recorder
 	 */
 	public XRayTracer(AWSXRayRecorder recorder) {
+		this(recorder, XRayTracerSettings.DEFAULT);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param recorder
+	 *            recorder
+	 * @param settings
+	 *            settings applied to spans built
+	 */
+	public XRayTracer(AWSXRayRecorder recorder, XRayTracerSettings settings) {
 		super(recorder);
+		this.settings = settings;
 
 		converters = new HashMap<>();
 		HttpSpanContextConverter httpSpanContextConverter = new HttpSpanContextConverter();
@@ -34,7 +48,7 @@ public class XRayTracer extends XRayActiveSpanSource implements Tracer {
 
 	@Override
 	public SpanBuilder buildSpan(String s) {
-		return new XRaySpanBuilder(s, this, getRecorder());
+		return new XRaySpanBuilder(s, this, getRecorder(), settings);
 	}
 
 	@Override
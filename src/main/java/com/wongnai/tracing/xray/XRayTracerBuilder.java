@@ -1,15 +1,39 @@
 package com.wongnai.tracing.xray;
 
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import com.amazonaws.util.EC2MetadataUtils;
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.emitters.Emitter;
 import com.amazonaws.xray.plugins.EC2Plugin;
 import com.amazonaws.xray.strategy.LogErrorContextMissingStrategy;
 import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
 import com.amazonaws.xray.strategy.sampling.LocalizedSamplingStrategy;
+import com.wongnai.common.ExceptionUtils;
 import com.wongnai.common.ResourceUtils;
 import com.wongnai.common.StringUtils;
+import com.wongnai.tracing.xray.emitters.AsyncEmitter;
+import com.wongnai.tracing.xray.emitters.DaemonEmitter;
+import com.wongnai.tracing.xray.emitters.DropPolicy;
+import com.wongnai.tracing.xray.emitters.ShardedEmitter;
+import com.wongnai.tracing.xray.strategy.DeduplicatingThrowableSerializationStrategy;
+import com.wongnai.tracing.xray.strategy.TailSampler;
+import com.wongnai.tracing.xray.strategy.ThresholdStreamingStrategy;
+import com.wongnai.tracing.xray.strategy.sampling.AdaptiveSamplingStrategy;
+import com.wongnai.tracing.xray.strategy.sampling.CentralizedSamplingStrategy;
+import com.wongnai.tracing.xray.strategy.sampling.CompiledSamplingStrategy;
+import com.wongnai.tracing.xray.strategy.sampling.HttpSamplingEndpoint;
+import com.wongnai.tracing.xray.strategy.sampling.ReloadingSamplingStrategy;
 
 import io.opentracing.Tracer;
 import io.opentracing.util.GlobalTracer;
@@ -30,12 +54,46 @@ public class XRayTracerBuilder {
 	 */
 	private boolean all;
 	/**
-	 * Sets rules file.
+	 * Sets rules file, a filesystem path if the file exists or a classpath resource.
 	 *
 	 * @param rulesFile
 	 *            rules file e.g. com/wongnai/tracing/xray/default-rules.json
 	 */
 	private String rulesFile;
+	/**
+	 * Sets value indicating if rules file should be matched by {@link CompiledSamplingStrategy} rather than the SDK's
+	 * {@link LocalizedSamplingStrategy}. Compiled rules match {@code url_path} against the path of {@code http.url}
+	 * rather than the whole URL, see {@link CompiledSamplingStrategy}. Always on with {@link #rulesReloadInterval},
+	 * {@link #samplingEndpoint} or {@link #samplingTarget}.
+	 *
+	 * @param compiledSampling
+	 *            value indicating if rules file should be matched by compiled sampling strategy or not
+	 */
+	private boolean compiledSampling;
+	/**
+	 * Sets interval to check rules file for changes, in milliseconds, 0 to read it only once. Not allowed with
+	 * {@link #samplingEndpoint} or {@link #samplingTarget}.
+	 *
+	 * @param rulesReloadInterval
+	 *            interval to check rules file for changes, in milliseconds
+	 */
+	private long rulesReloadInterval;
+	/**
+	 * Sets endpoint to pull sampling rules and quotas from, {@link #rulesFile} is then used until rules are pulled.
+	 * Not allowed with {@link #samplingTarget} or {@link #rulesReloadInterval}.
+	 *
+	 * @param samplingEndpoint
+	 *            sampling endpoint e.g. http://127.0.0.1:2000 for the X-Ray daemon
+	 */
+	private String samplingEndpoint;
+	/**
+	 * Sets traces per second to sample in this JVM, adjusting rates of {@link #rulesFile} to traffic, 0 to use rates
+	 * as they are. Not allowed with {@link #samplingEndpoint} or {@link #rulesReloadInterval}.
+	 *
+	 * @param samplingTarget
+	 *            traces per second to sample in this JVM
+	 */
+	private double samplingTarget;
 	/**
 	 * Sets daemon address.
 	 *
@@ -43,6 +101,16 @@ public class XRayTracerBuilder {
 	 *            daemon address e.g. 127.0.0.1:2000
 	 */
 	private String daemonAddress;
+	/**
+	 * Sets daemon addresses to spread segments over, by trace id.
+	 *
+	 * Takes precedence over {@link #daemonAddress} and does not change system properties. Segments are then always
+	 * sent by a background thread, as if {@link #asyncEmitter} is set, so request threads do not wait on each other.
+	 *
+	 * @param daemonAddresses
+	 *            daemon addresses e.g. 127.0.0.1:2000, 127.0.0.1:2001
+	 */
+	private List<String> daemonAddresses;
 	/**
 	 * Sets context missing strategy.
 	 *
@@ -52,9 +120,178 @@ public class XRayTracerBuilder {
 	 *            context missing strategy
 	 */
 	private String contextMissingStrategy;
+	/**
+	 * Sets value indicating if segments should be serialized and sent by a background thread or not. Always on with
+	 * {@link #daemonAddresses}.
+	 *
+	 * @param asyncEmitter
+	 *            value indicating if segments should be serialized and sent by a background thread or not
+	 */
+	private boolean asyncEmitter;
+	/**
+	 * Sets maximum number of segments waiting to be sent by background thread.
+	 *
+	 * @param emitterQueueCapacity
+	 *            maximum number of segments waiting to be sent by background thread
+	 */
+	private int emitterQueueCapacity = AsyncEmitter.DEFAULT_CAPACITY;
+	/**
+	 * Sets policy to drop segments when background thread cannot keep up.
+	 *
+	 * @param emitterDropPolicy
+	 *            drop policy
+	 */
+	private DropPolicy emitterDropPolicy = DropPolicy.PRIORITIZE_ERRORS;
+	/**
+	 * Sets maximum time to wait for queued segments to be sent on JVM shutdown, in milliseconds.
+	 *
+	 * @param emitterShutdownTimeout
+	 *            maximum time to wait for queued segments to be sent on JVM shutdown, in milliseconds
+	 */
+	private long emitterShutdownTimeout = 5000;
+	/**
+	 * Sets value indicating if completed subtrees of large segments should be streamed by
+	 * {@link ThresholdStreamingStrategy} rather than by the SDK's default streaming strategy.
+	 *
+	 * @param thresholdStreaming
+	 *            value indicating if completed subtrees of large segments should be streamed
+	 */
+	private boolean thresholdStreaming;
+	/**
+	 * Sets maximum number of subsegments a segment keeps before completed ones are streamed, if threshold streaming is
+	 * on.
+	 *
+	 * @param streamingMaxSubsegments
+	 *            maximum number of subsegments a segment keeps before completed ones are streamed
+	 */
+	private int streamingMaxSubsegments = ThresholdStreamingStrategy.DEFAULT_MAX_SUBSEGMENTS;
+	/**
+	 * Sets maximum estimated bytes of completed subsegments a segment keeps before they are streamed, 0 to stream by
+	 * number only, if threshold streaming is on.
+	 *
+	 * @param streamingMaxBytes
+	 *            maximum estimated bytes of completed subsegments a segment keeps before they are streamed
+	 */
+	private int streamingMaxBytes = ThresholdStreamingStrategy.DEFAULT_MAX_BYTES;
+	/**
+	 * Sets value indicating if traces not sampled at start should be buffered and sent if they fail or are slow.
+	 *
+	 * @param tailSampling
+	 *            value indicating if traces not sampled at start should be buffered and sent if they fail or are slow
+	 */
+	private boolean tailSampling;
+	/**
+	 * Sets maximum number of unsampled traces buffered at once.
+	 *
+	 * @param tailSamplingMaxTraces
+	 *            maximum number of unsampled traces buffered at once
+	 */
+	private int tailSamplingMaxTraces = TailSampler.DEFAULT_MAX_TRACES;
+	/**
+	 * Sets maximum number of subsegments a buffered trace keeps before dropping completed ones without flags.
+	 *
+	 * @param tailSamplingMaxSubsegments
+	 *            maximum number of subsegments a buffered trace keeps
+	 */
+	private int tailSamplingMaxSubsegments = TailSampler.DEFAULT_MAX_SUBSEGMENTS;
+	/**
+	 * Sets duration of a buffered trace above which it is sent, in milliseconds.
+	 *
+	 * @param tailSamplingLatency
+	 *            duration of a buffered trace above which it is sent, in milliseconds
+	 */
+	private long tailSamplingLatency = TailSampler.DEFAULT_LATENCY_THRESHOLD;
+	/**
+	 * Sets durations of buffered traces above which they are sent by operation name, in milliseconds.
+	 *
+	 * @param tailSamplingOperationLatencies
+	 *            durations above which buffered traces are sent by operation name e.g. GET /restaurants/{id}
+	 */
+	private Map<String, Long> tailSamplingOperationLatencies = new HashMap<>();
+	/**
+	 * Sets duration after which a buffered trace whose root span has not finished releases its room, in milliseconds.
+	 *
+	 * @param tailSamplingMaxAge
+	 *            duration after which a buffered trace whose root span has not finished releases its room
+	 */
+	private long tailSamplingMaxAge = TailSampler.DEFAULT_MAX_AGE;
+	/**
+	 * Sets maximum number of events a span keeps, older ones are dropped.
+	 *
+	 * @param spanEventCapacity
+	 *            maximum number of events a span keeps
+	 */
+	private int spanEventCapacity = SpanEventLimits.DEFAULT_SPAN_CAPACITY;
+	/**
+	 * Sets maximum estimated bytes of events all spans of a trace keep, 0 to drop all events.
+	 *
+	 * @param traceEventBytes
+	 *            maximum estimated bytes of events all spans of a trace keep
+	 */
+	private int traceEventBytes = SpanEventLimits.DEFAULT_TRACE_BYTES;
+	/**
+	 * Sets maximum estimated bytes of tags a segment records as metadata, longer string tags are truncated.
+	 *
+	 * @param segmentMaxMetadataBytes
+	 *            maximum estimated bytes of tags a segment records as metadata
+	 */
+	private int segmentMaxMetadataBytes = SegmentLimits.DEFAULT_MAX_METADATA_BYTES;
+	/**
+	 * Sets maximum number of tags a segment records as metadata.
+	 *
+	 * @param segmentMaxTags
+	 *            maximum number of tags a segment records as metadata
+	 */
+	private int segmentMaxTags = SegmentLimits.DEFAULT_MAX_TAGS;
+	/**
+	 * Sets maximum number of subsegments a segment records, spans over it record nothing.
+	 *
+	 * @param segmentMaxSubsegments
+	 *            maximum number of subsegments a segment records
+	 */
+	private int segmentMaxSubsegments = SegmentLimits.DEFAULT_MAX_SUBSEGMENTS;
+	/**
+	 * Sets tag keys recorded as annotations, which are indexed for filter expressions, rather than as metadata e.g.
+	 * tenant, db.type, cache.hit.
+	 *
+	 * @param annotationKeys
+	 *            tag keys recorded as annotations
+	 */
+	private List<String> annotationKeys = new ArrayList<>();
+	/**
+	 * Sets maximum number of annotations a segment or subsegment records, further tags are recorded as metadata.
+	 *
+	 * @param maxAnnotationsPerEntity
+	 *            maximum number of annotations a segment or subsegment records
+	 */
+	private int maxAnnotationsPerEntity = AnnotationAllowlist.DEFAULT_MAX_PER_ENTITY;
+	/**
+	 * Sets maximum number of stack frames described of an exception.
+	 *
+	 * @param exceptionMaxStackDepth
+	 *            maximum number of stack frames described of an exception
+	 */
+	private int exceptionMaxStackDepth = DeduplicatingThrowableSerializationStrategy.DEFAULT_MAX_STACK_DEPTH;
+	/**
+	 * Sets maximum number of causes described after an exception.
+	 *
+	 * @param exceptionMaxCauses
+	 *            maximum number of causes described after an exception
+	 */
+	private int exceptionMaxCauses = DeduplicatingThrowableSerializationStrategy.DEFAULT_MAX_CAUSES;
+	/**
+	 * Sets time window in which an exception repeated in another trace refers to the first one instead of being
+	 * described again, in milliseconds, 0, the default, to only refer to ones repeated in the same trace.
+	 *
+	 * @param exceptionWindow
+	 *            time window in which repeated exceptions refer to the first one, in milliseconds
+	 */
+	private long exceptionWindow = DeduplicatingThrowableSerializationStrategy.DEFAULT_WINDOW;
 
 	private AWSXRayRecorder awsXRayRecorder() {
-		if (StringUtils.isBlank(System.getProperty(DAEMON_SYSTEM_PROP_NAME)) && !StringUtils.isBlank(daemonAddress)) {
+		checkSamplingSettings();
+		if (!isSharded() && StringUtils.isBlank(System.getProperty(DAEMON_SYSTEM_PROP_NAME))
+				&& !StringUtils.isBlank(daemonAddress)) {
 			log.info("Using X-Ray Daemon at {}.", daemonAddress);
 			System.setProperty(DAEMON_SYSTEM_PROP_NAME, daemonAddress);
 		}
@@ -64,12 +301,39 @@ public class XRayTracerBuilder {
 			builder.withPlugin(new EC2Plugin());
 		}
 		fillContextMissingStrategy(builder);
+		AsyncEmitter emitter = fillEmitter(builder);
+		if (thresholdStreaming) {
+			log.info("Streaming completed subtrees of segments over {} subsegments or {} bytes.",
+					streamingMaxSubsegments, streamingMaxBytes);
+			builder.withStreamingStrategy(new ThresholdStreamingStrategy(streamingMaxSubsegments, streamingMaxBytes));
+		}
+		builder.withThrowableSerializationStrategy(new DeduplicatingThrowableSerializationStrategy(
+				exceptionMaxStackDepth, exceptionMaxCauses, exceptionWindow));
 		if (all) {
 			log.info("Using all AllSamplingStrategy.");
 			builder.withSamplingStrategy(new AllSamplingStrategy());
 		} else {
-			log.info("Loading sampling strategy from {}.", rulesFile);
-			builder.withSamplingStrategy(new LocalizedSamplingStrategy(ResourceUtils.getURL(rulesFile)));
+			URL location = rulesLocation();
+			if (!StringUtils.isBlank(samplingEndpoint)) {
+				log.info("Pulling sampling rules from {}, falling back to {}.", samplingEndpoint, location);
+				builder.withSamplingStrategy(
+						new CentralizedSamplingStrategy(new HttpSamplingEndpoint(samplingEndpoint), location));
+			} else if (samplingTarget > 0) {
+				log.info("Loading sampling strategy from {}, targeting {} traces per second.", location,
+						samplingTarget);
+				builder.withSamplingStrategy(new AdaptiveSamplingStrategy(location, samplingTarget, emitter));
+			} else if (rulesReloadInterval > 0) {
+				log.info("Loading sampling strategy from {}, checking for changes every {} ms.", location,
+						rulesReloadInterval);
+				builder.withSamplingStrategy(
+						new ReloadingSamplingStrategy(location, rulesReloadInterval, TimeUnit.MILLISECONDS));
+			} else if (compiledSampling) {
+				log.info("Loading compiled sampling strategy from {}.", location);
+				builder.withSamplingStrategy(new CompiledSamplingStrategy(location));
+			} else {
+				log.info("Loading sampling strategy from {}.", location);
+				builder.withSamplingStrategy(new LocalizedSamplingStrategy(location));
+			}
 		}
 
 		AWSXRayRecorder recorder = builder.build();
@@ -78,6 +342,30 @@ public class XRayTracerBuilder {
 		return recorder;
 	}
 
+	private void checkSamplingSettings() {
+		int count = (StringUtils.isBlank(samplingEndpoint) ? 0 : 1) + (samplingTarget > 0 ? 1 : 0)
+				+ (rulesReloadInterval > 0 ? 1 : 0);
+		if (count > 1) {
+			throw new IllegalStateException("Only one of samplingEndpoint, samplingTarget and rulesReloadInterval "
+					+ "can be set, got samplingEndpoint=" + samplingEndpoint + ", samplingTarget=" + samplingTarget
+					+ ", rulesReloadInterval=" + rulesReloadInterval + ".");
+		}
+	}
+
+	private URL rulesLocation() {
+		if (rulesFile != null) {
+			File file = new File(rulesFile);
+			if (file.isFile()) {
+				try {
+					return file.toURI().toURL();
+				} catch (MalformedURLException e) {
+					throw ExceptionUtils.wrap(e);
+				}
+			}
+		}
+		return ResourceUtils.getURL(rulesFile);
+	}
+
 	private void fillContextMissingStrategy(AWSXRayRecorderBuilder builder) {
 		if ("ignored".equals(contextMissingStrategy)) {
 			builder.withContextMissingStrategy((s, aClass) -> {
@@ -87,6 +375,44 @@ public class XRayTracerBuilder {
 		}
 	}
 
+	private boolean isSharded() {
+		return daemonAddresses != null && !daemonAddresses.isEmpty();
+	}
+
+	private AsyncEmitter fillEmitter(AWSXRayRecorderBuilder builder) {
+		Emitter daemonEmitter = null;
+		if (isSharded()) {
+			log.info("Using X-Ray Daemons at {}.", daemonAddresses);
+			List<InetSocketAddress> addresses = new ArrayList<>(daemonAddresses.size());
+			for (String address : daemonAddresses) {
+				addresses.add(toSocketAddress(address));
+			}
+			daemonEmitter = new ShardedEmitter(addresses);
+		}
+
+		if (asyncEmitter || daemonEmitter != null) {
+			log.info("Using asynchronous emitter with queue capacity {}.", emitterQueueCapacity);
+			AsyncEmitter emitter = new AsyncEmitter(daemonEmitter != null ? daemonEmitter : new DaemonEmitter(),
+					emitterQueueCapacity, emitterDropPolicy);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				emitter.shutdown(emitterShutdownTimeout, TimeUnit.MILLISECONDS);
+				log.info("X-Ray emitter stopped, {} emitted, {} dropped.", emitter.getEmitted(), emitter.getDropped());
+			}, "xray-emitter-shutdown"));
+			builder.withEmitter(emitter);
+			return emitter;
+		}
+		return null;
+	}
+
+	private static InetSocketAddress toSocketAddress(String address) {
+		String value = address.trim();
+		int index = value.lastIndexOf(':');
+		if (index <= 0 || index == value.length() - 1) {
+			throw new IllegalArgumentException("Invalid X-Ray daemon address " + address + ", expected host:port.");
+		}
+		return new InetSocketAddress(value.substring(0, index), Integer.parseInt(value.substring(index + 1)));
+	}
+
 	private void registerGlobalRecorder(AWSXRayRecorder recorder) {
 		AWSXRay.setGlobalRecorder(recorder);
 	}
@@ -97,7 +423,19 @@ public class XRayTracerBuilder {
 	 * @return object
 	 */
 	public Tracer build() {
-		XRayTracer tracer = new XRayTracer(awsXRayRecorder());
+		SpanEventLimits eventLimits = new SpanEventLimits(spanEventCapacity, traceEventBytes);
+		SegmentLimits segmentLimits = new SegmentLimits(segmentMaxMetadataBytes, segmentMaxTags,
+				segmentMaxSubsegments);
+		AnnotationAllowlist annotations = new AnnotationAllowlist(annotationKeys, maxAnnotationsPerEntity);
+		TailSampler tailSampler = null;
+		if (tailSampling && !all) {
+			log.info("Buffering up to {} unsampled traces to send failed ones and ones slower than {} ms.",
+					tailSamplingMaxTraces, tailSamplingLatency);
+			tailSampler = new TailSampler(tailSamplingMaxTraces, tailSamplingMaxSubsegments, tailSamplingLatency,
+					tailSamplingOperationLatencies, tailSamplingMaxAge);
+		}
+		XRayTracer tracer = new XRayTracer(awsXRayRecorder(),
+				new XRayTracerSettings(tailSampler, eventLimits, segmentLimits, annotations));
 
 		GlobalTracer.register(tracer);
 
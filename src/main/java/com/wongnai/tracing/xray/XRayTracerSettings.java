@@ -0,0 +1,78 @@
+package com.wongnai.tracing.xray;
+
+import com.wongnai.tracing.xray.strategy.TailSampler;
+
+/**
+ * Settings of {@link XRayTracer} applied to every span it builds, see {@link XRayTracerBuilder}.
+ */
+public final class XRayTracerSettings {
+	/**
+	 * Default settings, with no tail sampler, default limits and no annotation.
+	 */
+	public static final XRayTracerSettings DEFAULT = new XRayTracerSettings(null, SpanEventLimits.DEFAULT,
+			SegmentLimits.DEFAULT, AnnotationAllowlist.NONE);
+
+	private final TailSampler tailSampler;
+	private final SpanEventLimits eventLimits;
+	private final SegmentLimits segmentLimits;
+	private final AnnotationAllowlist annotations;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param tailSampler
+	 *            tail sampler buffering traces not sampled at start, or {@code null}
+	 * @param eventLimits
+	 *            limits on events logged to spans of a new trace
+	 * @param segmentLimits
+	 *            limits on a new segment
+	 * @param annotations
+	 *            tag keys recorded as annotations
+	 */
+	public XRayTracerSettings(TailSampler tailSampler, SpanEventLimits eventLimits, SegmentLimits segmentLimits,
+			AnnotationAllowlist annotations) {
+		if (eventLimits == null || segmentLimits == null || annotations == null) {
+			throw new IllegalArgumentException("Event limits, segment limits and annotations must not be null.");
+		}
+		this.tailSampler = tailSampler;
+		this.eventLimits = eventLimits;
+		this.segmentLimits = segmentLimits;
+		this.annotations = annotations;
+	}
+
+	/**
+	 * Gets tail sampler.
+	 *
+	 * @return tail sampler, or {@code null} if none
+	 */
+	public TailSampler getTailSampler() {
+		return tailSampler;
+	}
+
+	/**
+	 * Gets limits on events logged to spans of a new trace.
+	 *
+	 * @return event limits
+	 */
+	public SpanEventLimits getEventLimits() {
+		return eventLimits;
+	}
+
+	/**
+	 * Gets limits on a new segment.
+	 *
+	 * @return segment limits
+	 */
+	public SegmentLimits getSegmentLimits() {
+		return segmentLimits;
+	}
+
+	/**
+	 * Gets tag keys recorded as annotations.
+	 *
+	 * @return annotation allowlist
+	 */
+	public AnnotationAllowlist getAnnotations() {
+		return annotations;
+	}
+}
@@ -0,0 +1,163 @@
+package com.wongnai.tracing.xray;
+
+import java.util.Map;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.entities.DummySegment;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.TraceHeader;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+
+/**
+ * A span of a trace which is not sampled.
+ *
+ * It records nothing and creates no X-Ray entity, it only carries the trace id, the not sampled decision and baggage so
+ * they are propagated to child spans and to other services. It also stands for a span over the subsegment limit of its
+ * segment, then carrying the context of its parent without its entity but with the budget of the trace, so child spans
+ * are over the limit as well, see {@link SegmentLimits}.
+ *
+ * While it is active, a dummy segment of its trace is the recorder's trace entity, so calls instrumented by the X-Ray
+ * SDK find a segment rather than failing with the context missing strategy. The dummy segment records nothing either
+ * and is only created when the span is first activated.
+ */
+public class XRayUnsampledSpan implements Span {
+	private XRaySpanContext spanContext;
+	private volatile Segment traceEntity;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param spanContext
+	 *            span context without entity and with not sampled decision, or of parent span
+	 */
+	public XRayUnsampledSpan(XRaySpanContext spanContext) {
+		this.spanContext = spanContext;
+	}
+
+	/**
+	 * Creates a span continuing a trace as not sampled.
+	 *
+	 * @param parentContext
+	 *            parent span context
+	 * @return new span
+	 */
+	static XRayUnsampledSpan create(XRaySpanContext parentContext) {
+		if (isUnsampled(parentContext)) {
+			return new XRayUnsampledSpan(parentContext);
+		} else if (parentContext.getRootTraceId() != null) {
+			return new XRayUnsampledSpan(new XRaySpanContext(parentContext.getRootTraceId(), parentContext.getId(),
+					TraceHeader.SampleDecision.NOT_SAMPLED, parentContext.getBaggage()));
+		} else {
+			return new XRayUnsampledSpan(new XRaySpanContext(null, parentContext.getTraceId(), null,
+					parentContext.getId(), TraceHeader.SampleDecision.NOT_SAMPLED, null, parentContext.getBaggage()));
+		}
+	}
+
+	/**
+	 * Checks if span context is of a span which records nothing.
+	 *
+	 * @param spanContext
+	 *            span context
+	 * @return {@code true} if span context has no entity and not sampled decision
+	 */
+	static boolean isUnsampled(SpanContext spanContext) {
+		if (spanContext instanceof XRaySpanContext) {
+			XRaySpanContext context = (XRaySpanContext) spanContext;
+			return context.getEntity() == null && context.getSampleDecision() == TraceHeader.SampleDecision.NOT_SAMPLED;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets dummy segment standing for this span as recorder's trace entity.
+	 *
+	 * @param recorder
+	 *            recorder
+	 * @return dummy segment of trace
+	 */
+	Segment getTraceEntity(AWSXRayRecorder recorder) {
+		Segment entity = traceEntity;
+		if (entity == null) {
+			entity = new DummySegment(recorder, spanContext.getTraceId());
+			traceEntity = entity;
+		}
+		return entity;
+	}
+
+	@Override
+	public SpanContext context() {
+		return spanContext;
+	}
+
+	@Override
+	public Span setTag(String key, String value) {
+		return this;
+	}
+
+	@Override
+	public Span setTag(String key, boolean value) {
+		return this;
+	}
+
+	@Override
+	public Span setTag(String key, Number value) {
+		return this;
+	}
+
+	@Override
+	public Span log(Map<String, ?> fields) {
+		return this;
+	}
+
+	@Override
+	public Span log(long timestampMicroseconds, Map<String, ?> fields) {
+		return this;
+	}
+
+	@Override
+	public Span log(String event) {
+		return this;
+	}
+
+	@Override
+	public Span log(long timestampMicroseconds, String event) {
+		return this;
+	}
+
+	@Override
+	public Span setBaggageItem(String key, String value) {
+		// Span context may be shared with parent, so it is copied rather than changed.
+		spanContext = spanContext.withBaggage(spanContext.getBaggage().with(key, value));
+		return this;
+	}
+
+	@Override
+	public String getBaggageItem(String key) {
+		return spanContext.getBaggage().get(key);
+	}
+
+	@Override
+	public Span setOperationName(String operationName) {
+		return this;
+	}
+
+	@Override
+	public Span log(String eventName, Object payload) {
+		return this;
+	}
+
+	@Override
+	public Span log(long timestampMicroseconds, String eventName, Object payload) {
+		return this;
+	}
+
+	@Override
+	public void finish() {
+	}
+
+	@Override
+	public void finish(long finishMicros) {
+	}
+}
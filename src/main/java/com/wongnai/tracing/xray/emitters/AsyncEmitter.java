@@ -0,0 +1,220 @@
+package com.wongnai.tracing.xray.emitters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An {@link Emitter} which queues completed entities and lets a background thread serialize and send them through
+ * another emitter.
+ *
+ * Request threads only offer to a bounded lock-free queue. When the queue is filling up, entities are dropped
+ * according to {@link DropPolicy} and counted.
+ */
+@Slf4j
+public class AsyncEmitter extends Emitter implements AutoCloseable {
+	/**
+	 * Default queue capacity.
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Emitter delegate;
+	private final DropPolicy dropPolicy;
+	private final MpscArrayQueue<Entity> queue;
+	private final Thread worker;
+	private final LongAdder emitted = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder droppedErrors = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private volatile boolean running = true;
+	private volatile boolean parked;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param delegate
+	 *            emitter which actually sends entities, called from background thread only
+	 */
+	public AsyncEmitter(Emitter delegate) {
+		this(delegate, DEFAULT_CAPACITY, DropPolicy.PRIORITIZE_ERRORS);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param delegate
+	 *            emitter which actually sends entities, called from background thread only
+	 * @param capacity
+	 *            maximum number of queued entities
+	 * @param dropPolicy
+	 *            drop policy
+	 */
+	public AsyncEmitter(Emitter delegate, int capacity, DropPolicy dropPolicy) {
+		this.delegate = delegate;
+		this.dropPolicy = dropPolicy;
+		this.queue = new MpscArrayQueue<>(capacity);
+		this.worker = new Thread(this::drain, "xray-emitter");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	@Override
+	public boolean sendSegment(Segment segment) {
+		return enqueue(segment);
+	}
+
+	@Override
+	public boolean sendSubsegment(Subsegment subsegment) {
+		return enqueue(subsegment);
+	}
+
+	private boolean enqueue(Entity entity) {
+		boolean important = entity.isFault() || entity.isError() || entity.isThrottle();
+		if (running && dropPolicy.admits(queue.size(), queue.capacity(), important) && queue.offer(entity)) {
+			if (parked) {
+				LockSupport.unpark(worker);
+			}
+			return true;
+		} else {
+			dropped.increment();
+			if (important) {
+				droppedErrors.increment();
+			}
+			return false;
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Entity entity = queue.poll();
+			if (entity != null) {
+				emit(entity);
+			} else if (running || !queue.isEmpty()) {
+				parked = true;
+				if (queue.isEmpty() && running) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				parked = false;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void emit(Entity entity) {
+		try {
+			boolean sent;
+			if (entity instanceof Segment) {
+				sent = delegate.sendSegment((Segment) entity);
+			} else {
+				sent = delegate.sendSubsegment((Subsegment) entity);
+			}
+			if (sent) {
+				emitted.increment();
+			} else {
+				failed.increment();
+			}
+		} catch (RuntimeException e) {
+			log.error("Exception while emitting entity named '{}'.", entity.getName(), e);
+			failed.increment();
+		}
+	}
+
+	/**
+	 * Stops accepting entities and waits until queued ones are sent.
+	 *
+	 * @param timeout
+	 *            maximum time to wait
+	 * @param unit
+	 *            unit of timeout
+	 * @return {@code true} if all queued entities are sent within timeout
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) {
+		running = false;
+		LockSupport.unpark(worker);
+		try {
+			worker.join(unit.toMillis(timeout));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (worker.isAlive()) {
+			log.warn("X-Ray emitter did not drain in {} {}, {} entities are left.", timeout, unit, queue.size());
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() {
+		shutdown(5, TimeUnit.SECONDS);
+		if (delegate instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) delegate).close();
+			} catch (Exception e) {
+				log.warn("Exception while closing emitter.", e);
+			}
+		}
+	}
+
+	/**
+	 * Gets number of queued entities.
+	 *
+	 * @return queue size
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * Gets queue capacity.
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return queue.capacity();
+	}
+
+	/**
+	 * Gets number of entities sent by delegate.
+	 *
+	 * @return number of emitted entities
+	 */
+	public long getEmitted() {
+		return emitted.sum();
+	}
+
+	/**
+	 * Gets number of entities dropped because queue was full or emitter was shut down.
+	 *
+	 * @return number of dropped entities
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Gets number of dropped entities which have error, fault or throttle.
+	 *
+	 * @return number of dropped error entities
+	 */
+	public long getDroppedErrors() {
+		return droppedErrors.sum();
+	}
+
+	/**
+	 * Gets number of entities the delegate failed to send.
+	 *
+	 * @return number of failures
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+}
@@ -0,0 +1,150 @@
+package com.wongnai.tracing.xray.emitters;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.wongnai.common.ExceptionUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An {@link Emitter} which sends entities to X-Ray daemon over a reused {@link DatagramChannel}.
+ *
+ * Entities are written into one buffer by {@link SegmentJsonWriter}, so sending is serialized. It is meant to be driven by
+ * {@link AsyncEmitter}'s single thread where the lock is never contended.
+ *
+ * A segment too large for a datagram is sent as several documents by {@link SegmentSplitter}.
+ *
+ * The channel is connected so an unreachable daemon is reported as a send failure on a following datagram rather
+ * than being silently ignored.
+ */
+@Slf4j
+public class DaemonEmitter extends Emitter implements AutoCloseable {
+	static final String HEADER = PROTOCOL_HEADER + PROTOCOL_DELIMITER;
+	/**
+	 * Maximum payload of a UDP datagram, smaller than the daemon's receive buffer.
+	 */
+	static final int DATAGRAM_SIZE = 65507;
+
+	private final InetSocketAddress address;
+	private final DatagramChannel channel;
+	private final SegmentJsonWriter writer = new SegmentJsonWriter();
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * Constructs an instance sending to daemon address from environment, system property or default.
+	 */
+	public DaemonEmitter() {
+		this(new DaemonConfiguration().address);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param address
+	 *            daemon address
+	 */
+	public DaemonEmitter(InetSocketAddress address) {
+		this.address = address;
+		try {
+			this.channel = DatagramChannel.open();
+			this.channel.connect(address);
+		} catch (IOException e) {
+			throw ExceptionUtils.wrap("Unable to open channel to X-Ray daemon.", e);
+		}
+	}
+
+	@Override
+	public synchronized boolean sendSegment(Segment segment) {
+		ByteBuffer datagram = writer.writeSegment(segment);
+		if (datagram == null && SegmentSplitter.canSplit(segment)) {
+			return SegmentSplitter.sendInParts(segment, writer, this::send, this::tooLarge);
+		}
+		return send(segment, datagram);
+	}
+
+	@Override
+	public synchronized boolean sendSubsegment(Subsegment subsegment) {
+		return send(subsegment, writer.writeSubsegment(subsegment));
+	}
+
+	private boolean send(Entity entity, ByteBuffer datagram) {
+		if (datagram == null) {
+			tooLarge(entity);
+			return false;
+		}
+
+		return send(datagram);
+	}
+
+	private void tooLarge(Entity entity) {
+		log.warn("Dropping entity {}, it is larger than a datagram to X-Ray daemon.", entity.getName());
+		failed.increment();
+	}
+
+	/**
+	 * Sends an encoded document.
+	 *
+	 * The datagram is consumed, callers retrying it elsewhere must rewind it first.
+	 *
+	 * @param datagram
+	 *            protocol header and document, ready to be read
+	 * @return {@code true} if sent
+	 */
+	protected boolean send(ByteBuffer datagram) {
+		try {
+			channel.write(datagram);
+			sent.increment();
+			return true;
+		} catch (IOException e) {
+			log.error("Exception while sending entity to X-Ray daemon at {}.", address, e);
+			failed.increment();
+			return false;
+		}
+	}
+
+	/**
+	 * Gets daemon address.
+	 *
+	 * @return daemon address
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Gets number of sent datagrams.
+	 *
+	 * @return number of sent datagrams
+	 */
+	public long getSent() {
+		return sent.sum();
+	}
+
+	/**
+	 * Gets number of entities which could not be sent.
+	 *
+	 * @return number of failures
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Exception while closing channel to X-Ray daemon.", e);
+		}
+	}
+}
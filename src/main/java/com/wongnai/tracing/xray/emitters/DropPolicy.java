@@ -0,0 +1,43 @@
+package com.wongnai.tracing.xray.emitters;
+
+/**
+ * Decides which entities to drop when {@link AsyncEmitter}'s queue is filling up.
+ */
+public enum DropPolicy {
+	/**
+	 * Drops any entity once queue is full.
+	 */
+	DROP_NEWEST {
+		@Override
+		boolean admits(int size, int capacity, boolean important) {
+			return size < capacity;
+		}
+	},
+	/**
+	 * Keeps last quarter of queue for entities with error, fault or throttle so they are still sent when queue is
+	 * filled by successful ones.
+	 */
+	PRIORITIZE_ERRORS {
+		@Override
+		boolean admits(int size, int capacity, boolean important) {
+			if (important) {
+				return size < capacity;
+			} else {
+				return size < capacity - (capacity >> 2);
+			}
+		}
+	};
+
+	/**
+	 * Checks if an entity should be queued.
+	 *
+	 * @param size
+	 *            current queue size
+	 * @param capacity
+	 *            queue capacity
+	 * @param important
+	 *            value indicating if entity has error, fault or throttle
+	 * @return {@code true} if entity should be queued
+	 */
+	abstract boolean admits(int size, int capacity, boolean important);
+}
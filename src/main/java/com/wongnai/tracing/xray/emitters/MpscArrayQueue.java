@@ -0,0 +1,105 @@
+package com.wongnai.tracing.xray.emitters;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ *
+ * Producers claim a slot by CAS on producer index then publish the element into it. The consumer takes elements in
+ * order of claimed slots and is the only one advancing consumer index.
+ *
+ * @param <E>
+ *            type of element
+ */
+final class MpscArrayQueue<E> {
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> buffer;
+	private final AtomicLong producerIndex = new AtomicLong();
+	private final AtomicLong consumerIndex = new AtomicLong();
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param capacity
+	 *            maximum number of elements
+	 */
+	MpscArrayQueue(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+		int length = Integer.highestOneBit(capacity);
+		if (length < capacity) {
+			length <<= 1;
+		}
+		this.capacity = capacity;
+		this.mask = length - 1;
+		this.buffer = new AtomicReferenceArray<>(length);
+	}
+
+	/**
+	 * Offers element, safe to be called from any thread.
+	 *
+	 * @param element
+	 *            element
+	 * @return {@code false} if queue is full
+	 */
+	boolean offer(E element) {
+		long index;
+		do {
+			index = producerIndex.get();
+			if (index - consumerIndex.get() >= capacity) {
+				return false;
+			}
+		} while (!producerIndex.compareAndSet(index, index + 1));
+
+		buffer.lazySet((int) index & mask, element);
+
+		return true;
+	}
+
+	/**
+	 * Polls element, must be called from the consumer thread only.
+	 *
+	 * @return element or {@code null} if there is no published element yet
+	 */
+	E poll() {
+		long index = consumerIndex.get();
+		int offset = (int) index & mask;
+		E element = buffer.get(offset);
+		if (element != null) {
+			buffer.lazySet(offset, null);
+			consumerIndex.lazySet(index + 1);
+		}
+		return element;
+	}
+
+	/**
+	 * Gets number of claimed slots.
+	 *
+	 * @return size
+	 */
+	int size() {
+		long size = producerIndex.get() - consumerIndex.get();
+		return (int) Math.max(0, Math.min(size, capacity));
+	}
+
+	/**
+	 * Checks if queue is empty or not.
+	 *
+	 * @return {@code true} if queue is empty
+	 */
+	boolean isEmpty() {
+		return producerIndex.get() == consumerIndex.get();
+	}
+
+	/**
+	 * Gets capacity.
+	 *
+	 * @return capacity
+	 */
+	int capacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,714 @@
+package com.wongnai.tracing.xray.emitters;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.xray.entities.Cause;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.amazonaws.xray.entities.ThrowableDescription;
+import com.amazonaws.xray.entities.TraceID;
+import com.amazonaws.xray.serializers.CauseSerializer;
+import com.amazonaws.xray.serializers.StackTraceElementSerializer;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.wongnai.common.ExceptionUtils;
+
+/**
+ * Writes segments and subsegments as X-Ray daemon datagrams into one reused direct buffer, which a
+ * {@link java.nio.channels.DatagramChannel} sends without copying it into a temporary direct buffer first.
+ *
+ * Produces the same JSON as {@link Segment#serialize()} and {@link Subsegment#streamSerialize()}, field order and
+ * omitted empty values included, but walks the entity directly instead of building a tree through bean
+ * introspection. Values of types it does not know, e.g. beans in metadata, are written by a mapper configured as the
+ * SDK's own one.
+ *
+ * Stream serialization of the SDK goes through a JSON tree, which widens floats to doubles and strips trailing zeros
+ * of decimals. Subsegments are written with the same conversions.
+ *
+ * Used by {@link DaemonEmitter} and {@link ShardedEmitter}, i.e. only if {@code asyncEmitter} or {@code daemonAddresses}
+ * of {@link com.wongnai.tracing.xray.XRayTracerBuilder} is set. The SDK's default emitter serializes through Jackson.
+ *
+ * Not thread safe, each instance must be used by one thread at a time.
+ */
+public final class SegmentJsonWriter {
+	private static final ObjectMapper MAPPER = createMapper();
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ESCAPE_HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+	private static final int TRACE_ID_NUMBER_DIGITS = 24;
+	private static final int EPOCH_MILLIS_DIGITS = 13;
+	private static final Overflow OVERFLOW = new Overflow();
+
+	private final byte[] header;
+	private final ByteBuffer buffer;
+	private int position;
+	private boolean first;
+	private boolean tree;
+
+	/**
+	 * Constructs an instance writing X-Ray daemon protocol header into datagrams of maximum size the daemon accepts.
+	 */
+	public SegmentJsonWriter() {
+		this(DaemonEmitter.HEADER, DaemonEmitter.DATAGRAM_SIZE);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param header
+	 *            protocol header and delimiter written before every document
+	 * @param capacity
+	 *            maximum datagram size in bytes
+	 */
+	public SegmentJsonWriter(String header, int capacity) {
+		this.header = header.getBytes(StandardCharsets.UTF_8);
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Creates a mapper configured the same as the SDK's one in {@link com.amazonaws.xray.entities.EntityImpl}.
+	 */
+	@SuppressWarnings("unchecked")
+	private static ObjectMapper createMapper() {
+		ObjectMapper mapper = new ObjectMapper()
+				.setPropertyNamingStrategy(PropertyNamingStrategy.CAMEL_CASE_TO_LOWER_CASE_WITH_UNDERSCORES)
+				.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
+		mapper.registerModule(new SimpleModule() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void setupModule(SetupContext context) {
+				super.setupModule(context);
+				context.addBeanSerializerModifier(new BeanSerializerModifier() {
+					@Override
+					public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription description,
+							JsonSerializer<?> serializer) {
+						Class<?> type = description.getBeanClass();
+						if (Cause.class.isAssignableFrom(type)) {
+							return new CauseSerializer((JsonSerializer<Object>) serializer);
+						} else if (StackTraceElement.class.isAssignableFrom(type)) {
+							return new StackTraceElementSerializer();
+						} else {
+							return serializer;
+						}
+					}
+				});
+			}
+		});
+		return mapper;
+	}
+
+	/**
+	 * Writes segment the same as {@link Segment#serialize()}.
+	 *
+	 * The returned buffer is overwritten by the next call.
+	 *
+	 * @param segment
+	 *            segment
+	 * @return datagram ready to be read or {@code null} if segment does not fit in a datagram
+	 */
+	public ByteBuffer writeSegment(Segment segment) {
+		try {
+			start(false);
+			if (segment instanceof SegmentImpl) {
+				writeEntity(segment, null);
+			} else {
+				writeUtf8(segment.serialize());
+			}
+			return finish();
+		} catch (Overflow e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes subsegment the same as {@link Subsegment#streamSerialize()}.
+	 *
+	 * The returned buffer is overwritten by the next call.
+	 *
+	 * @param subsegment
+	 *            subsegment
+	 * @return datagram ready to be read or {@code null} if subsegment does not fit in a datagram
+	 */
+	public ByteBuffer writeSubsegment(Subsegment subsegment) {
+		try {
+			start(true);
+			if (subsegment instanceof SubsegmentImpl) {
+				writeEntity(subsegment, subsegment);
+			} else {
+				writeUtf8(subsegment.streamSerialize());
+			}
+			return finish();
+		} catch (Overflow e) {
+			return null;
+		}
+	}
+
+	private void start(boolean tree) {
+		this.tree = tree;
+		buffer.clear();
+		position = 0;
+		writeBytes(header);
+	}
+
+	private ByteBuffer finish() {
+		buffer.position(0);
+		buffer.limit(position);
+		return buffer;
+	}
+
+	/**
+	 * Writes entity as a bean. If streamed, parent and trace ids of the stream form replace the entity's own ones in
+	 * place, or are appended after type if the entity has none, like {@code ObjectNode.put} does.
+	 */
+	private void writeEntity(Entity entity, Subsegment streamed) {
+		startObject();
+		writeStringField("name", entity.getName());
+		writeStringField("id", entity.getId());
+		boolean hasParentId = isPresent(entity.getParentId());
+		if (hasParentId) {
+			writeName("parent_id");
+			writeString(streamed != null ? streamed.getParent().getId() : entity.getParentId());
+		}
+		writeDoubleField("start_time", entity.getStartTime());
+		if (entity.getTraceId() != null) {
+			writeTraceIdField(streamed != null ? streamed.getParentSegment().getTraceId() : entity.getTraceId());
+		}
+		writeDoubleField("end_time", entity.getEndTime());
+		writeTrueField("fault", entity.isFault());
+		writeTrueField("error", entity.isError());
+		writeTrueField("throttle", entity.isThrottle());
+		writeTrueField("in_progress", entity.isInProgress());
+		writeStringField("namespace", entity.getNamespace());
+		writeSubsegmentsField(entity.getSubsegments());
+		writeCauseField(entity.getCause());
+		writeMapField("http", entity.getHttp());
+		writeMapField("aws", entity.getAws());
+		writeMapField("sql", entity.getSql());
+		writeMapField("metadata", entity.getMetadata());
+		writeMapField("annotations", entity.getAnnotations());
+		if (entity instanceof Segment) {
+			Segment segment = (Segment) entity;
+			writeStringField("resource_arn", segment.getResourceArn());
+			writeStringField("user", segment.getUser());
+			writeStringField("origin", segment.getOrigin());
+			writeMapField("service", segment.getService());
+		} else if (entity instanceof Subsegment) {
+			writeCollectionField("precursor_ids", ((Subsegment) entity).getPrecursorIds());
+		}
+		if (streamed != null) {
+			writeName("type");
+			writeString("subsegment");
+			if (!hasParentId) {
+				writeName("parent_id");
+				writeString(streamed.getParent().getId());
+			}
+			if (entity.getTraceId() == null) {
+				writeTraceIdField(streamed.getParentSegment().getTraceId());
+			}
+		}
+		endObject();
+	}
+
+	private void writeSubsegmentsField(List<Subsegment> subsegments) {
+		if (subsegments != null && !subsegments.isEmpty()) {
+			writeName("subsegments");
+			startArray();
+			for (int i = 0; i < subsegments.size(); i++) {
+				Subsegment subsegment = subsegments.get(i);
+				next();
+				if (subsegment instanceof SubsegmentImpl) {
+					writeEntity(subsegment, null);
+				} else {
+					writeValue(subsegment);
+				}
+			}
+			endArray();
+		}
+	}
+
+	private void writeCauseField(Cause cause) {
+		if (cause == null || cause.getExceptions().isEmpty() && cause.getId() == null && cause.getMessage() == null) {
+			return;
+		}
+		writeName("cause");
+		List<ThrowableDescription> exceptions = cause.getExceptions();
+		if (!exceptions.isEmpty() && exceptions.get(0).getId() == null && exceptions.get(0).getCause() != null) {
+			writeString(exceptions.get(0).getCause());
+			return;
+		}
+
+		startObject();
+		writeStringField("working_directory", cause.getWorkingDirectory());
+		writeStringField("id", cause.getId());
+		writeStringField("message", cause.getMessage());
+		writeCollectionField("paths", cause.getPaths());
+		if (!exceptions.isEmpty()) {
+			writeName("exceptions");
+			startArray();
+			for (int i = 0; i < exceptions.size(); i++) {
+				next();
+				writeThrowableDescription(exceptions.get(i));
+			}
+			endArray();
+		}
+		endObject();
+	}
+
+	private void writeThrowableDescription(ThrowableDescription description) {
+		startObject();
+		writeStringField("id", description.getId());
+		writeStringField("message", description.getMessage());
+		writeStringField("type", description.getType());
+		writeName("remote");
+		writeBoolean(description.isRemote());
+		StackTraceElement[] stack = description.getStack();
+		if (stack != null && stack.length > 0) {
+			writeName("stack");
+			startArray();
+			for (StackTraceElement element : stack) {
+				next();
+				startObject();
+				writeName("path");
+				writeString(element.getFileName());
+				writeName("line");
+				writeLong(element.getLineNumber());
+				writeName("label");
+				writeByte('"');
+				writeStringContent(element.getClassName());
+				writeByte('.');
+				writeStringContent(element.getMethodName());
+				writeByte('"');
+				endObject();
+			}
+			endArray();
+		}
+		if (description.getTruncated() != 0) {
+			writeName("truncated");
+			writeLong(description.getTruncated());
+		}
+		if (description.getSkipped() != 0) {
+			writeName("skipped");
+			writeLong(description.getSkipped());
+		}
+		writeStringField("cause", description.getCause());
+		endObject();
+	}
+
+	private static boolean isPresent(String value) {
+		return value != null && !value.isEmpty();
+	}
+
+	private void writeStringField(String name, String value) {
+		if (isPresent(value)) {
+			writeName(name);
+			writeString(value);
+		}
+	}
+
+	private void writeDoubleField(String name, double value) {
+		if (value != 0.0) {
+			writeName(name);
+			writeDouble(value);
+		}
+	}
+
+	private void writeTrueField(String name, boolean value) {
+		if (value) {
+			writeName(name);
+			writeBytes(TRUE);
+		}
+	}
+
+	private void writeTraceIdField(TraceID traceId) {
+		writeName("trace_id");
+		writeByte('"');
+		writeByte('1');
+		writeByte('-');
+		writeHex(traceId.getStartTime(), 1);
+		writeByte('-');
+		BigInteger number = traceId.getNumber();
+		if (number.signum() >= 0 && number.bitLength() <= 96) {
+			writeHex(number.shiftRight(64).longValue(), TRACE_ID_NUMBER_DIGITS - 16);
+			writeHex(number.longValue(), 16);
+		} else {
+			String digits = number.toString(16);
+			for (int i = digits.length(); i < TRACE_ID_NUMBER_DIGITS; i++) {
+				writeByte('0');
+			}
+			writeStringContent(digits);
+		}
+		writeByte('"');
+	}
+
+	private void writeMapField(String name, Map<String, ?> map) {
+		if (map != null && !map.isEmpty()) {
+			writeName(name);
+			writeMap(map);
+		}
+	}
+
+	private void writeCollectionField(String name, Collection<?> collection) {
+		if (collection != null && !collection.isEmpty()) {
+			writeName(name);
+			writeCollection(collection);
+		}
+	}
+
+	/**
+	 * Writes map, or rewinds and lets the mapper write it if it has a key which is not a string.
+	 */
+	private void writeMap(Map<?, ?> map) {
+		int mark = position;
+		startObject();
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (!(entry.getKey() instanceof String)) {
+				position = mark;
+				writeWithMapper(map);
+				first = false;
+				return;
+			}
+			writeName((String) entry.getKey());
+			writeValue(entry.getValue());
+		}
+		endObject();
+	}
+
+	private void writeCollection(Collection<?> collection) {
+		startArray();
+		for (Object value : collection) {
+			next();
+			writeValue(value);
+		}
+		endArray();
+	}
+
+	private void writeValue(Object value) {
+		if (value == null) {
+			writeBytes(NULL);
+		} else if (value instanceof String) {
+			writeString((String) value);
+		} else if (value instanceof Boolean) {
+			writeBoolean((Boolean) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+				|| value instanceof Byte) {
+			writeLong(((Number) value).longValue());
+		} else if (value instanceof Double) {
+			writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			if (tree) {
+				writeDouble((Float) value);
+			} else {
+				writeFloat((Float) value);
+			}
+		} else if (value instanceof BigDecimal) {
+			writeDecimal((BigDecimal) value);
+		} else if (value instanceof BigInteger) {
+			writeAscii(value.toString());
+		} else if (value instanceof Map) {
+			writeMap((Map<?, ?>) value);
+		} else if (value instanceof Collection) {
+			writeCollection((Collection<?>) value);
+		} else if (value instanceof Object[]) {
+			startArray();
+			for (Object element : (Object[]) value) {
+				next();
+				writeValue(element);
+			}
+			endArray();
+		} else {
+			writeWithMapper(value);
+		}
+	}
+
+	private void writeWithMapper(Object value) {
+		try {
+			writeBytes(MAPPER.writeValueAsBytes(tree ? MAPPER.valueToTree(value) : value));
+		} catch (JsonProcessingException e) {
+			throw ExceptionUtils.wrap(e);
+		}
+	}
+
+	private void writeDouble(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			writeByte('"');
+			writeAscii(Double.toString(value));
+			writeByte('"');
+		} else if (!writeEpochSeconds(value)) {
+			writeAscii(Double.toString(value));
+		}
+	}
+
+	/**
+	 * Writes epoch seconds of millisecond precision the same as {@link Double#toString(double)} does, e.g.
+	 * {@code 1.5E9}, without allocating.
+	 *
+	 * @return {@code false} if value is not epoch seconds of millisecond precision
+	 */
+	private boolean writeEpochSeconds(double value) {
+		if (value < 1e9 || value >= 1e10) {
+			return false;
+		}
+		long millis = Math.round(value * 1000);
+		if (millis / 1000.0 != value) {
+			return false;
+		}
+
+		require(EPOCH_MILLIS_DIGITS + 3);
+		int start = position;
+		for (int i = start + EPOCH_MILLIS_DIGITS; i > start + 1; i--) {
+			buffer.put(i, (byte) ('0' + millis % 10));
+			millis /= 10;
+		}
+		buffer.put(start, (byte) ('0' + millis));
+		buffer.put(start + 1, (byte) '.');
+		int end = start + EPOCH_MILLIS_DIGITS + 1;
+		while (end > start + 3 && buffer.get(end - 1) == '0') {
+			end--;
+		}
+		buffer.put(end++, (byte) 'E');
+		buffer.put(end++, (byte) '9');
+		position = end;
+		return true;
+	}
+
+	private void writeDecimal(BigDecimal value) {
+		if (tree) {
+			writeAscii(value.signum() == 0 ? "0" : value.stripTrailingZeros().toString());
+		} else {
+			writeAscii(value.toString());
+		}
+	}
+
+	private void writeFloat(float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			writeByte('"');
+			writeAscii(Float.toString(value));
+			writeByte('"');
+		} else {
+			writeAscii(Float.toString(value));
+		}
+	}
+
+	private void writeBoolean(boolean value) {
+		writeBytes(value ? TRUE : FALSE);
+	}
+
+	private void writeLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeAscii(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			writeByte('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		require(digits);
+		for (int i = position + digits - 1; i >= position; i--) {
+			buffer.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		position += digits;
+	}
+
+	private void writeHex(long value, int minDigits) {
+		int digits = Math.max(minDigits, (64 - Long.numberOfLeadingZeros(value) + 3) >> 2);
+		require(digits);
+		for (int shift = (digits - 1) << 2; shift >= 0; shift -= 4) {
+			buffer.put(position++, HEX[(int) (value >>> shift) & 0xf]);
+		}
+	}
+
+	private void startObject() {
+		writeByte('{');
+		first = true;
+	}
+
+	private void endObject() {
+		writeByte('}');
+		first = false;
+	}
+
+	private void startArray() {
+		writeByte('[');
+		first = true;
+	}
+
+	private void endArray() {
+		writeByte(']');
+		first = false;
+	}
+
+	private void next() {
+		if (first) {
+			first = false;
+		} else {
+			writeByte(',');
+		}
+	}
+
+	private void writeName(String name) {
+		next();
+		writeString(name);
+		writeByte(':');
+	}
+
+	private void writeString(String value) {
+		if (value == null) {
+			writeBytes(NULL);
+		} else {
+			writeByte('"');
+			writeStringContent(value);
+			writeByte('"');
+		}
+	}
+
+	/**
+	 * Writes string escaped the same as Jackson does: quote, backslash and control characters only.
+	 */
+	private void writeStringContent(String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+				writeByte(c);
+			} else if (c < 0x80) {
+				writeEscaped(c);
+			} else {
+				i = writeNonAscii(value, i, c);
+			}
+		}
+	}
+
+	private void writeEscaped(char c) {
+		require(6);
+		buffer.put(position++, (byte) '\\');
+		switch (c) {
+			case '"':
+			case '\\':
+				buffer.put(position++, (byte) c);
+				break;
+			case '\b':
+				buffer.put(position++, (byte) 'b');
+				break;
+			case '\t':
+				buffer.put(position++, (byte) 't');
+				break;
+			case '\n':
+				buffer.put(position++, (byte) 'n');
+				break;
+			case '\f':
+				buffer.put(position++, (byte) 'f');
+				break;
+			case '\r':
+				buffer.put(position++, (byte) 'r');
+				break;
+			default:
+				buffer.put(position++, (byte) 'u');
+				buffer.put(position++, (byte) '0');
+				buffer.put(position++, (byte) '0');
+				buffer.put(position++, ESCAPE_HEX[c >> 4]);
+				buffer.put(position++, ESCAPE_HEX[c & 0xf]);
+				break;
+		}
+	}
+
+	private void writeUtf8(String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				writeByte(c);
+			} else {
+				i = writeNonAscii(value, i, c);
+			}
+		}
+	}
+
+	/**
+	 * Writes a non ASCII character in UTF-8, replacing unpaired surrogates with {@code ?} like
+	 * {@link String#getBytes(java.nio.charset.Charset)}.
+	 *
+	 * @return index of the last char consumed
+	 */
+	private int writeNonAscii(String value, int index, char c) {
+		require(4);
+		if (c < 0x800) {
+			buffer.put(position++, (byte) (0xc0 | c >> 6));
+			buffer.put(position++, (byte) (0x80 | c & 0x3f));
+		} else if (!Character.isSurrogate(c)) {
+			buffer.put(position++, (byte) (0xe0 | c >> 12));
+			buffer.put(position++, (byte) (0x80 | c >> 6 & 0x3f));
+			buffer.put(position++, (byte) (0x80 | c & 0x3f));
+		} else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+				&& Character.isLowSurrogate(value.charAt(index + 1))) {
+			int codePoint = Character.toCodePoint(c, value.charAt(++index));
+			buffer.put(position++, (byte) (0xf0 | codePoint >> 18));
+			buffer.put(position++, (byte) (0x80 | codePoint >> 12 & 0x3f));
+			buffer.put(position++, (byte) (0x80 | codePoint >> 6 & 0x3f));
+			buffer.put(position++, (byte) (0x80 | codePoint & 0x3f));
+		} else {
+			buffer.put(position++, (byte) '?');
+		}
+		return index;
+	}
+
+	private void writeAscii(String value) {
+		int length = value.length();
+		require(length);
+		for (int i = 0; i < length; i++) {
+			buffer.put(position++, (byte) value.charAt(i));
+		}
+	}
+
+	private void writeBytes(byte[] value) {
+		require(value.length);
+		buffer.position(position);
+		buffer.put(value);
+		position += value.length;
+	}
+
+	private void writeByte(int b) {
+		require(1);
+		buffer.put(position++, (byte) b);
+	}
+
+	private void require(int length) {
+		if (length > buffer.capacity() - position) {
+			throw OVERFLOW;
+		}
+	}
+
+	/**
+	 * Thrown when a document does not fit in a datagram, preallocated without stack trace.
+	 */
+	private static final class Overflow extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Overflow() {
+			super(null, null, false, false);
+		}
+	}
+}
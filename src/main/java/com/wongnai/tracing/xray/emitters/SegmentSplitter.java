@@ -0,0 +1,85 @@
+package com.wongnai.tracing.xray.emitters;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+
+/**
+ * Sends a finished segment which does not fit in a datagram as several documents.
+ *
+ * Subsegments are sent as standalone subsegment documents, each with its completed children nested if it fits or
+ * split further if not, and removed from the segment, then the remaining segment is sent.
+ */
+final class SegmentSplitter {
+	private SegmentSplitter() {
+	}
+
+	/**
+	 * Checks if segment can be split.
+	 *
+	 * @param segment
+	 *            segment
+	 * @return {@code true} if segment has subsegments
+	 */
+	static boolean canSplit(Segment segment) {
+		return !segment.getSubsegments().isEmpty();
+	}
+
+	/**
+	 * Sends segment in parts.
+	 *
+	 * @param segment
+	 *            finished segment
+	 * @param writer
+	 *            writer
+	 * @param sender
+	 *            sends a datagram, returns {@code true} if sent
+	 * @param tooLarge
+	 *            called with an entity which does not fit in a datagram even without subsegments
+	 * @return {@code true} if all parts were sent
+	 */
+	static boolean sendInParts(Segment segment, SegmentJsonWriter writer, Predicate<ByteBuffer> sender,
+			Consumer<Entity> tooLarge) {
+		boolean sent = sendChildren(segment, writer, sender, tooLarge);
+		ByteBuffer datagram = writer.writeSegment(segment);
+		if (datagram == null) {
+			tooLarge.accept(segment);
+			return false;
+		}
+		return sender.test(datagram) && sent;
+	}
+
+	private static boolean sendChildren(Entity parent, SegmentJsonWriter writer, Predicate<ByteBuffer> sender,
+			Consumer<Entity> tooLarge) {
+		boolean sent = true;
+		List<Subsegment> subsegments = new ArrayList<>(parent.getSubsegments());
+		for (Subsegment subsegment : subsegments) {
+			sent &= sendSubsegment(subsegment, writer, sender, tooLarge);
+			parent.removeSubsegment(subsegment);
+		}
+		return sent;
+	}
+
+	private static boolean sendSubsegment(Subsegment subsegment, SegmentJsonWriter writer,
+			Predicate<ByteBuffer> sender, Consumer<Entity> tooLarge) {
+		ByteBuffer datagram = writer.writeSubsegment(subsegment);
+		if (datagram == null && !subsegment.getSubsegments().isEmpty()) {
+			boolean sent = sendChildren(subsegment, writer, sender, tooLarge);
+			datagram = writer.writeSubsegment(subsegment);
+			if (datagram != null) {
+				return sender.test(datagram) && sent;
+			}
+		}
+		if (datagram == null) {
+			tooLarge.accept(subsegment);
+			return false;
+		}
+		return sender.test(datagram);
+	}
+}
@@ -0,0 +1,270 @@
+package com.wongnai.tracing.xray.emitters;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.TraceID;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An {@link Emitter} which spreads entities over several X-Ray daemons.
+ *
+ * Destinations are placed on a consistent hash ring and every entity is routed by its trace id, so all segments of a
+ * trace go to the same daemon and adding or removing a daemon only moves the traces of that daemon. A destination
+ * failing to send is marked down with exponential backoff and its traces fail over to the next destination on the
+ * ring until it is retried.
+ *
+ * Unreachable daemons are detected from ICMP errors reported on a following datagram, so a destination counts as
+ * recovered only after a few sends in a row succeed.
+ *
+ * Entities are written once into one buffer by {@link SegmentJsonWriter}, so sending is serialized like
+ * {@link DaemonEmitter}. It is meant to be driven by {@link AsyncEmitter}'s single thread where the lock is never
+ * contended, which {@link com.wongnai.tracing.xray.XRayTracerBuilder} always does. A segment too large for a datagram
+ * is sent as several documents by {@link SegmentSplitter}.
+ */
+@Slf4j
+public class ShardedEmitter extends Emitter implements AutoCloseable {
+	private static final int VIRTUAL_NODES = 64;
+	private static final long INITIAL_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+	private static final int RECOVERY_SENDS = 2;
+
+	private final List<Shard> shards;
+	private final long[] ringHashes;
+	private final int[] ringShards;
+	private final boolean[] visited;
+	private final SegmentJsonWriter writer = new SegmentJsonWriter();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param addresses
+	 *            daemon addresses
+	 */
+	public ShardedEmitter(List<InetSocketAddress> addresses) {
+		if (addresses.isEmpty()) {
+			throw new IllegalArgumentException("At least one X-Ray daemon address is required.");
+		}
+		List<Shard> list = new ArrayList<>(addresses.size());
+		for (InetSocketAddress address : addresses) {
+			list.add(new Shard(new DaemonEmitter(address)));
+		}
+		this.shards = Collections.unmodifiableList(list);
+
+		int size = shards.size() * VIRTUAL_NODES;
+		long[] points = new long[size];
+		for (int i = 0; i < shards.size(); i++) {
+			long seed = shards.get(i).getAddress().toString().hashCode();
+			for (int j = 0; j < VIRTUAL_NODES; j++) {
+				points[i * VIRTUAL_NODES + j] = (mix(seed * VIRTUAL_NODES + j) & ~0xffffL) | i;
+			}
+		}
+		Arrays.sort(points);
+		this.ringHashes = new long[size];
+		this.ringShards = new int[size];
+		for (int i = 0; i < size; i++) {
+			ringHashes[i] = points[i];
+			ringShards[i] = (int) (points[i] & 0xffff);
+		}
+		this.visited = new boolean[shards.size()];
+	}
+
+	@Override
+	public synchronized boolean sendSegment(Segment segment) {
+		TraceID traceId = segment.getTraceId();
+		ByteBuffer datagram = writer.writeSegment(segment);
+		if (datagram == null && SegmentSplitter.canSplit(segment)) {
+			return SegmentSplitter.sendInParts(segment, writer, d -> route(traceId, d), this::tooLarge);
+		}
+		return send(segment, traceId, datagram);
+	}
+
+	@Override
+	public synchronized boolean sendSubsegment(Subsegment subsegment) {
+		return send(subsegment, subsegment.getParentSegment().getTraceId(), writer.writeSubsegment(subsegment));
+	}
+
+	private boolean send(Entity entity, TraceID traceId, ByteBuffer datagram) {
+		if (datagram == null) {
+			tooLarge(entity);
+			return false;
+		}
+		return route(traceId, datagram);
+	}
+
+	private void tooLarge(Entity entity) {
+		log.warn("Dropping entity {}, it is larger than a datagram to X-Ray daemon.", entity.getName());
+		dropped.increment();
+	}
+
+	private boolean route(TraceID traceId, ByteBuffer datagram) {
+		long now = System.nanoTime();
+		int start = indexOf(hash(traceId));
+		Shard primary = shards.get(ringShards[start]);
+		Arrays.fill(visited, false);
+		int tried = 0;
+		for (int i = 0; i < ringShards.length && tried < visited.length; i++) {
+			int index = ringShards[(start + i) % ringShards.length];
+			if (visited[index]) {
+				continue;
+			}
+			visited[index] = true;
+			tried++;
+			Shard shard = shards.get(index);
+			if (!shard.isHealthy(now)) {
+				continue;
+			}
+			datagram.rewind();
+			if (shard.send(datagram, now)) {
+				if (shard != primary) {
+					primary.failovers.increment();
+				}
+				return true;
+			}
+		}
+
+		dropped.increment();
+		return false;
+	}
+
+	private int indexOf(long hash) {
+		int index = Arrays.binarySearch(ringHashes, hash);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return index == ringHashes.length ? 0 : index;
+	}
+
+	private static long hash(TraceID traceId) {
+		return mix(traceId.getStartTime() * 31 + traceId.getNumber().longValue());
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Gets destinations in the order they were given.
+	 *
+	 * @return destinations
+	 */
+	public List<Shard> getShards() {
+		return shards;
+	}
+
+	/**
+	 * Gets number of entities which could not be sent to any destination.
+	 *
+	 * @return number of dropped entities
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			shard.emitter.close();
+		}
+	}
+
+	/**
+	 * A destination of {@link ShardedEmitter} with its health and counters.
+	 */
+	public static final class Shard {
+		private final DaemonEmitter emitter;
+		private final LongAdder failovers = new LongAdder();
+		private volatile long downUntil;
+		private volatile int consecutiveFailures;
+		private int recoverySends;
+
+		private Shard(DaemonEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		private boolean isHealthy(long now) {
+			return consecutiveFailures == 0 || now - downUntil >= 0;
+		}
+
+		private boolean send(ByteBuffer datagram, long now) {
+			if (emitter.send(datagram)) {
+				if (consecutiveFailures > 0 && ++recoverySends >= RECOVERY_SENDS) {
+					log.info("X-Ray daemon at {} is back after {} failures.", getAddress(), consecutiveFailures);
+					consecutiveFailures = 0;
+					recoverySends = 0;
+				}
+				return true;
+			} else {
+				long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(consecutiveFailures, 20));
+				downUntil = now + backoff;
+				consecutiveFailures++;
+				recoverySends = 0;
+				log.warn("X-Ray daemon at {} is down, retrying in {} ms.", getAddress(),
+						TimeUnit.NANOSECONDS.toMillis(backoff));
+				return false;
+			}
+		}
+
+		/**
+		 * Gets daemon address.
+		 *
+		 * @return daemon address
+		 */
+		public InetSocketAddress getAddress() {
+			return emitter.getAddress();
+		}
+
+		/**
+		 * Checks if destination accepts entities now.
+		 *
+		 * @return {@code false} if destination is waiting to be retried after failures
+		 */
+		public boolean isHealthy() {
+			return isHealthy(System.nanoTime());
+		}
+
+		/**
+		 * Gets number of datagrams sent to this destination.
+		 *
+		 * @return number of sent datagrams
+		 */
+		public long getSent() {
+			return emitter.getSent();
+		}
+
+		/**
+		 * Gets number of datagrams this destination failed to send.
+		 *
+		 * @return number of failures
+		 */
+		public long getFailed() {
+			return emitter.getFailed();
+		}
+
+		/**
+		 * Gets number of entities of this destination sent elsewhere because it was down.
+		 *
+		 * @return number of failovers
+		 */
+		public long getFailovers() {
+			return failovers.sum();
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.wongnai.tracing.xray.strategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.ThrowableDescription;
+import com.amazonaws.xray.entities.TraceID;
+import com.amazonaws.xray.strategy.ThrowableSerializationStrategy;
+
+/**
+ * A {@link ThrowableSerializationStrategy} which describes an exception fully only the first time it is seen.
+ *
+ * Exceptions are fingerprinted by type and stack frames. An exception with the fingerprint of one described earlier
+ * in the same trace, or, if a time window is set, in any trace within it, keeps its type and message but no stack, and
+ * refers to the first one by id as its cause. Only the latest trace of a fingerprint is remembered, and only if its
+ * segment is sampled, so an exception never refers to one of a trace which is not sent. The least recently used
+ * fingerprints are evicted past a maximum number. Stacks are truncated to a maximum depth and cause chains to a maximum
+ * length, and an exception already described by a child subsegment is referred to, as the SDK's default strategy does
+ * but without a parallel stream per exception.
+ *
+ * The trace is only known when exceptions are added through {@link #addException(Entity, Throwable)}, exceptions
+ * added otherwise are not remembered.
+ */
+public class DeduplicatingThrowableSerializationStrategy implements ThrowableSerializationStrategy {
+	/**
+	 * Default maximum number of stack frames described.
+	 */
+	public static final int DEFAULT_MAX_STACK_DEPTH = 32;
+	/**
+	 * Default maximum number of causes described after an exception.
+	 */
+	public static final int DEFAULT_MAX_CAUSES = 4;
+	/**
+	 * Default time window in which exceptions repeated in other traces are referred to, in milliseconds, none.
+	 */
+	public static final long DEFAULT_WINDOW = 0;
+
+	private static final int MAX_FINGERPRINTS = 1024;
+
+	private final int maxStackDepth;
+	private final int maxCauses;
+	private final long window;
+	private final Set<Class<? extends Throwable>> remoteExceptionClasses;
+	private final Map<Long, First> firsts = new LinkedHashMap<Long, First>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, First> eldest) {
+			return size() > MAX_FINGERPRINTS;
+		}
+	};
+	private final LongAdder described = new LongAdder();
+	private final LongAdder suppressed = new LongAdder();
+	private final LongAdder truncatedStacks = new LongAdder();
+	private final LongAdder truncatedCauses = new LongAdder();
+
+	/**
+	 * Constructs an instance with defaults.
+	 */
+	public DeduplicatingThrowableSerializationStrategy() {
+		this(DEFAULT_MAX_STACK_DEPTH, DEFAULT_MAX_CAUSES, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param maxStackDepth
+	 *            maximum number of stack frames described
+	 * @param maxCauses
+	 *            maximum number of causes described after an exception
+	 * @param window
+	 *            time window in which exceptions repeated in other traces are referred to, in milliseconds, 0 to only
+	 *            refer to ones repeated in the same trace
+	 */
+	public DeduplicatingThrowableSerializationStrategy(int maxStackDepth, int maxCauses, long window) {
+		this(maxStackDepth, maxCauses, window, Collections.singleton(AmazonServiceException.class));
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param maxStackDepth
+	 *            maximum number of stack frames described
+	 * @param maxCauses
+	 *            maximum number of causes described after an exception
+	 * @param window
+	 *            time window in which exceptions repeated in other traces are referred to, in milliseconds, 0 to only
+	 *            refer to ones repeated in the same trace
+	 * @param remoteExceptionClasses
+	 *            types of exceptions marked remote
+	 */
+	public DeduplicatingThrowableSerializationStrategy(int maxStackDepth, int maxCauses, long window,
+			Set<Class<? extends Throwable>> remoteExceptionClasses) {
+		if (maxStackDepth < 0 || maxCauses < 0 || window < 0) {
+			throw new IllegalArgumentException("Exception limits must not be negative.");
+		}
+		this.maxStackDepth = maxStackDepth;
+		this.maxCauses = maxCauses;
+		this.window = window;
+		this.remoteExceptionClasses = remoteExceptionClasses;
+	}
+
+	/**
+	 * Adds exception to entity, as {@link Entity#addException(Throwable)} does but referring to exceptions repeated in
+	 * the same trace.
+	 *
+	 * @param entity
+	 *            entity
+	 * @param throwable
+	 *            exception
+	 */
+	public void addException(Entity entity, Throwable throwable) {
+		entity.setFault(true);
+		Segment segment = entity.getParentSegment();
+		TraceID traceId = segment != null ? segment.getTraceId() : null;
+		boolean sampled = segment != null && segment.isSampled();
+		List<Subsegment> subsegments = entity.getSubsegments();
+		synchronized (subsegments) {
+			entity.getCause().addExceptions(describe(throwable, subsegments, traceId, sampled));
+		}
+	}
+
+	@Override
+	public List<ThrowableDescription> describeInContext(Throwable throwable, List<Subsegment> subsegments) {
+		return describe(throwable, subsegments, null, false);
+	}
+
+	private List<ThrowableDescription> describe(Throwable throwable, List<Subsegment> subsegments, TraceID traceId,
+			boolean sampled) {
+		List<ThrowableDescription> result = new ArrayList<>(2);
+		long now = System.currentTimeMillis();
+		ThrowableDescription previous = null;
+		Throwable node = throwable;
+		for (int causes = 0; node != null; causes++, node = node.getCause()) {
+			if (causes > maxCauses) {
+				truncatedCauses.increment();
+				break;
+			}
+			StackTraceElement[] stack = node.getStackTrace();
+			long fingerprint = fingerprint(node, stack);
+			String referenced = referenceInChildren(node, subsegments);
+			if (referenced == null) {
+				referenced = referenceRepeated(fingerprint, traceId, now);
+			}
+			if (referenced != null) {
+				if (previous != null) {
+					previous.setCause(referenced);
+				} else {
+					result.add(describeReference(node, referenced));
+				}
+				break;
+			}
+			ThrowableDescription description = describeThrowable(node, stack, Entity.generateId());
+			if (previous != null) {
+				previous.setCause(description.getId());
+			}
+			if (sampled) {
+				remember(fingerprint, description.getId(), traceId, now);
+			}
+			result.add(description);
+			previous = description;
+		}
+		return result;
+	}
+
+	private static String referenceInChildren(Throwable throwable, List<Subsegment> subsegments) {
+		for (Subsegment subsegment : subsegments) {
+			for (ThrowableDescription description : subsegment.getCause().getExceptions()) {
+				if (throwable.equals(description.getThrowable())) {
+					return description.getId() != null ? description.getId() : description.getCause();
+				}
+			}
+		}
+		return null;
+	}
+
+	private String referenceRepeated(long fingerprint, TraceID traceId, long now) {
+		First first;
+		synchronized (firsts) {
+			first = firsts.get(fingerprint);
+		}
+		if (first != null && (traceId != null && traceId.equals(first.traceId) || now - first.time < window)) {
+			suppressed.increment();
+			return first.id;
+		}
+		return null;
+	}
+
+	private void remember(long fingerprint, String id, TraceID traceId, long now) {
+		synchronized (firsts) {
+			firsts.put(fingerprint, new First(id, traceId, now));
+		}
+	}
+
+	private static long fingerprint(Throwable throwable, StackTraceElement[] stack) {
+		long hash = throwable.getClass().getName().hashCode();
+		for (StackTraceElement frame : stack) {
+			hash = hash * 1_000_003 + frame.hashCode();
+		}
+		return hash;
+	}
+
+	private ThrowableDescription describeReference(Throwable throwable, String id) {
+		ThrowableDescription description = new ThrowableDescription();
+		description.setMessage(throwable.getMessage());
+		description.setType(throwable.getClass().getName());
+		description.setCause(id);
+		description.setThrowable(throwable);
+		return description;
+	}
+
+	private ThrowableDescription describeThrowable(Throwable throwable, StackTraceElement[] stack, String id) {
+		ThrowableDescription description = new ThrowableDescription();
+		description.setId(id);
+		description.setMessage(throwable.getMessage());
+		description.setType(throwable.getClass().getName());
+		if (stack.length > maxStackDepth) {
+			description.setStack(Arrays.copyOf(stack, maxStackDepth));
+			description.setTruncated(stack.length - maxStackDepth);
+			truncatedStacks.increment();
+		} else {
+			description.setStack(stack);
+		}
+		description.setThrowable(throwable);
+		if (isRemote(throwable)) {
+			description.setRemote(true);
+		}
+		described.increment();
+		return description;
+	}
+
+	private boolean isRemote(Throwable throwable) {
+		for (Class<? extends Throwable> type : remoteExceptionClasses) {
+			if (type.isInstance(throwable)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets number of exceptions described with their stack so far.
+	 *
+	 * @return number of exceptions described
+	 */
+	public long getDescribed() {
+		return described.sum();
+	}
+
+	/**
+	 * Gets number of exceptions referring to an earlier one instead of being described so far.
+	 *
+	 * @return number of exceptions suppressed
+	 */
+	public long getSuppressed() {
+		return suppressed.sum();
+	}
+
+	/**
+	 * Gets number of exceptions whose stack was truncated so far.
+	 *
+	 * @return number of truncated stacks
+	 */
+	public long getTruncatedStacks() {
+		return truncatedStacks.sum();
+	}
+
+	/**
+	 * Gets number of cause chains truncated so far.
+	 *
+	 * @return number of truncated cause chains
+	 */
+	public long getTruncatedCauses() {
+		return truncatedCauses.sum();
+	}
+
+	/**
+	 * First exception seen with a fingerprint.
+	 */
+	private static final class First {
+		private final String id;
+		private final TraceID traceId;
+		private final long time;
+
+		First(String id, TraceID traceId, long time) {
+			this.id = id;
+			this.traceId = traceId;
+			this.time = time;
+		}
+	}
+}
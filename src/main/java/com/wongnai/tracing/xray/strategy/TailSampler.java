@@ -0,0 +1,315 @@
+package com.wongnai.tracing.xray.strategy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.xray.entities.DummySegment;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+
+/**
+ * Decides at the end of a trace whether a trace not sampled at its start is sent after all.
+ *
+ * A trace not sampled by the sampling strategy is recorded into an unsampled segment rather than a dummy one, as long
+ * as fewer than a maximum number of such traces are in progress. When its root span finishes, the segment is marked
+ * sampled, and so sent, if it or any subsegment has a fault, error or throttle flag, or if it took longer than the
+ * latency threshold of its operation. Otherwise the segment is never sent and is left to the garbage collector.
+ *
+ * To cap memory, once a buffered trace holds more than a maximum number of subsegments, completed subtrees without
+ * any flag are dropped from it as they end. A trace whose root span has not finished within a maximum age, e.g. one
+ * abandoned by a failed request, is given up when the buffer is full so it releases its room.
+ */
+public class TailSampler {
+	/**
+	 * Default maximum number of unsampled traces buffered at once.
+	 */
+	public static final int DEFAULT_MAX_TRACES = 1000;
+	/**
+	 * Default maximum number of subsegments a buffered trace keeps before dropping completed ones without flags.
+	 */
+	public static final int DEFAULT_MAX_SUBSEGMENTS = 100;
+	/**
+	 * Default latency threshold, in milliseconds.
+	 */
+	public static final long DEFAULT_LATENCY_THRESHOLD = 1000;
+	/**
+	 * Default maximum age of a buffered trace, in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+	private static final long EXPIRY_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+	private final int maxTraces;
+	private final int maxSubsegments;
+	private final long latencyThreshold;
+	private final Map<String, Long> operationLatencyThresholds;
+	private final long maxAge;
+	private final AtomicInteger buffered = new AtomicInteger();
+	private final Map<Segment, Long> deadlines = new ConcurrentHashMap<>();
+	private final AtomicLong nextExpiry = new AtomicLong();
+	private final LongAdder promoted = new LongAdder();
+	private final LongAdder discarded = new LongAdder();
+	private final LongAdder overflowed = new LongAdder();
+	private final LongAdder trimmed = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+
+	/**
+	 * Constructs an instance with defaults.
+	 */
+	public TailSampler() {
+		this(DEFAULT_MAX_TRACES, DEFAULT_MAX_SUBSEGMENTS, DEFAULT_LATENCY_THRESHOLD, Collections.emptyMap());
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param maxTraces
+	 *            maximum number of unsampled traces buffered at once
+	 * @param maxSubsegments
+	 *            maximum number of subsegments a buffered trace keeps before dropping completed ones without flags
+	 * @param latencyThreshold
+	 *            duration of a trace, in milliseconds, above which it is sent
+	 * @param operationLatencyThresholds
+	 *            latency thresholds by operation name, overriding the default one
+	 */
+	public TailSampler(int maxTraces, int maxSubsegments, long latencyThreshold,
+			Map<String, Long> operationLatencyThresholds) {
+		this(maxTraces, maxSubsegments, latencyThreshold, operationLatencyThresholds, DEFAULT_MAX_AGE);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param maxTraces
+	 *            maximum number of unsampled traces buffered at once
+	 * @param maxSubsegments
+	 *            maximum number of subsegments a buffered trace keeps before dropping completed ones without flags
+	 * @param latencyThreshold
+	 *            duration of a trace, in milliseconds, above which it is sent
+	 * @param operationLatencyThresholds
+	 *            latency thresholds by operation name, overriding the default one
+	 * @param maxAge
+	 *            duration, in milliseconds, after which a trace whose root span has not finished releases its room
+	 */
+	public TailSampler(int maxTraces, int maxSubsegments, long latencyThreshold,
+			Map<String, Long> operationLatencyThresholds, long maxAge) {
+		if (maxTraces <= 0 || maxSubsegments < 0 || latencyThreshold < 0 || maxAge <= 0) {
+			throw new IllegalArgumentException("Tail sampling limits must be positive.");
+		}
+		this.maxTraces = maxTraces;
+		this.maxSubsegments = maxSubsegments;
+		this.latencyThreshold = latencyThreshold;
+		this.operationLatencyThresholds = new HashMap<>(operationLatencyThresholds);
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Reserves room for a trace to buffer, giving up traces older than maximum age if buffer is full.
+	 *
+	 * @return {@code true} if trace should be recorded unsampled, {@code false} if buffer is full
+	 */
+	public boolean tryBuffer() {
+		boolean expiredOnce = false;
+		while (true) {
+			int current = buffered.get();
+			if (current >= maxTraces) {
+				if (!expiredOnce && expire(System.currentTimeMillis())) {
+					expiredOnce = true;
+					continue;
+				}
+				overflowed.increment();
+				return false;
+			}
+			if (buffered.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Starts tracking age of a trace room was reserved for by {@link #tryBuffer()}.
+	 *
+	 * @param segment
+	 *            unsampled segment
+	 */
+	public void buffer(Segment segment) {
+		deadlines.put(segment, System.currentTimeMillis() + maxAge);
+	}
+
+	/**
+	 * Releases room of traces past their deadline, at most once an interval.
+	 *
+	 * @param now
+	 *            current time, in milliseconds
+	 * @return {@code true} if any room was released
+	 */
+	private boolean expire(long now) {
+		long next = nextExpiry.get();
+		if (now < next || !nextExpiry.compareAndSet(next, now + EXPIRY_INTERVAL)) {
+			return false;
+		}
+		boolean released = false;
+		for (Map.Entry<Segment, Long> entry : deadlines.entrySet()) {
+			if (entry.getValue() <= now && deadlines.remove(entry.getKey(), entry.getValue())) {
+				buffered.decrementAndGet();
+				expired.increment();
+				released = true;
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * Checks if segment is being buffered, recorded but not sampled yet.
+	 *
+	 * @param segment
+	 *            segment
+	 * @return {@code true} if segment is buffered
+	 */
+	public static boolean isBuffered(Segment segment) {
+		return !segment.isSampled() && !(segment instanceof DummySegment);
+	}
+
+	/**
+	 * Decides if a buffered trace is sent, when its root span finishes, and releases its room.
+	 *
+	 * @param segment
+	 *            segment of root span, before it ends unless its end time was given
+	 * @return {@code true} if segment was marked sampled
+	 */
+	public boolean finish(Segment segment) {
+		try {
+			double end = segment.getEndTime();
+			long endMillis = end >= Double.MIN_NORMAL ? (long) (end * 1000) : System.currentTimeMillis();
+			long duration = endMillis - (long) (segment.getStartTime() * 1000);
+			Long threshold = operationLatencyThresholds.get(segment.getName());
+			if (duration > (threshold != null ? threshold : latencyThreshold) || isFlagged(segment)) {
+				segment.setSampled(true);
+				promoted.increment();
+				return true;
+			}
+			discarded.increment();
+			return false;
+		} finally {
+			// Room of a trace given up for its age was already released.
+			if (deadlines.remove(segment) != null) {
+				buffered.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drops an ended subsegment from a buffered trace holding too many subsegments, unless it or a descendant has a
+	 * flag.
+	 *
+	 * @param subsegment
+	 *            ended subsegment
+	 */
+	public void trim(Subsegment subsegment) {
+		Segment segment = subsegment.getParentSegment();
+		if (!isBuffered(segment) || segment.getTotalSize().intValue() <= maxSubsegments
+				|| subsegment.isInProgress() || isFlagged(subsegment)) {
+			return;
+		}
+		Entity parent = subsegment.getParent();
+		if (parent.getSubsegmentsLock().tryLock()) {
+			try {
+				int descendants = count(subsegment);
+				parent.removeSubsegment(subsegment);
+				if (descendants > 0) {
+					segment.getTotalSize().add(-descendants);
+				}
+				trimmed.increment();
+			} finally {
+				parent.getSubsegmentsLock().unlock();
+			}
+		}
+	}
+
+	private static boolean isFlagged(Entity entity) {
+		if (entity.isFault() || entity.isError() || entity.isThrottle()) {
+			return true;
+		}
+		List<Subsegment> subsegments = entity.getSubsegments();
+		synchronized (subsegments) {
+			for (Subsegment subsegment : subsegments) {
+				if (isFlagged(subsegment)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int count(Entity entity) {
+		int count = 0;
+		List<Subsegment> subsegments = entity.getSubsegments();
+		synchronized (subsegments) {
+			for (Subsegment child : subsegments) {
+				count += 1 + count(child);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets number of traces buffered now.
+	 *
+	 * @return number of buffered traces
+	 */
+	public int getBuffered() {
+		return buffered.get();
+	}
+
+	/**
+	 * Gets number of buffered traces which were sent.
+	 *
+	 * @return number of promoted traces
+	 */
+	public long getPromoted() {
+		return promoted.sum();
+	}
+
+	/**
+	 * Gets number of buffered traces which were discarded.
+	 *
+	 * @return number of discarded traces
+	 */
+	public long getDiscarded() {
+		return discarded.sum();
+	}
+
+	/**
+	 * Gets number of traces not buffered because buffer was full.
+	 *
+	 * @return number of overflowed traces
+	 */
+	public long getOverflowed() {
+		return overflowed.sum();
+	}
+
+	/**
+	 * Gets number of subtrees dropped from buffered traces holding too many subsegments.
+	 *
+	 * @return number of trimmed subtrees
+	 */
+	public long getTrimmed() {
+		return trimmed.sum();
+	}
+
+	/**
+	 * Gets number of buffered traces given up because their root span had not finished within maximum age.
+	 *
+	 * @return number of expired traces
+	 */
+	public long getExpired() {
+		return expired.sum();
+	}
+}
@@ -0,0 +1,196 @@
+package com.wongnai.tracing.xray.strategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Cause;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.ThrowableDescription;
+import com.amazonaws.xray.strategy.StreamingStrategy;
+
+/**
+ * A {@link StreamingStrategy} which streams completed subtrees of a segment once it buffers too many subsegments or
+ * too many bytes.
+ *
+ * Unlike the SDK's default strategy, which streams leaf subsegments one by one, a completed subsegment is sent as one
+ * document with its children nested and released from its parent, so the parent does not keep it in memory until
+ * the segment ends. Subtrees estimated larger than the byte threshold are split into their children.
+ *
+ * Bytes are estimated from the content of completed subsegments without serializing them, every few subsegments as
+ * the estimate walks the buffered tree.
+ */
+public class ThresholdStreamingStrategy implements StreamingStrategy {
+	/**
+	 * Default maximum number of buffered subsegments, the same as the SDK's default strategy.
+	 */
+	public static final int DEFAULT_MAX_SUBSEGMENTS = 100;
+	/**
+	 * Default maximum estimated bytes of buffered subsegments, leaving room under the 64 KB datagram limit.
+	 */
+	public static final int DEFAULT_MAX_BYTES = 48 * 1024;
+
+	private static final int BYTE_CHECK_INTERVAL = 8;
+	private static final int ENTITY_OVERHEAD = 192;
+	private static final int STACK_FRAME_OVERHEAD = 48;
+	private static final int VALUE_OVERHEAD = 8;
+
+	private final int maxSubsegments;
+	private final int maxBytes;
+
+	/**
+	 * Constructs an instance with default thresholds.
+	 */
+	public ThresholdStreamingStrategy() {
+		this(DEFAULT_MAX_SUBSEGMENTS, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param maxSubsegments
+	 *            maximum number of subsegments a segment buffers before streaming
+	 * @param maxBytes
+	 *            maximum estimated bytes of completed subsegments a segment buffers before streaming, or {@code 0} to
+	 *            stream by number only
+	 */
+	public ThresholdStreamingStrategy(int maxSubsegments, int maxBytes) {
+		if (maxSubsegments < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException("Streaming thresholds must not be negative.");
+		}
+		this.maxSubsegments = maxSubsegments;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public boolean requiresStreaming(Segment segment) {
+		if (!segment.isSampled() || segment.getTotalSize() == null) {
+			return false;
+		}
+		int count = segment.getTotalSize().intValue();
+		if (count > maxSubsegments) {
+			return true;
+		}
+		return maxBytes > 0 && count % BYTE_CHECK_INTERVAL == 0 && estimateCompleted(segment) > maxBytes;
+	}
+
+	@Override
+	public void streamSome(Entity entity, Emitter emitter) {
+		if (entity.getSubsegmentsLock().tryLock()) {
+			try {
+				Segment segment = entity instanceof Segment ? (Segment) entity : entity.getParentSegment();
+				streamCompleted(entity, segment, emitter);
+			} finally {
+				entity.getSubsegmentsLock().unlock();
+			}
+		}
+	}
+
+	private void streamCompleted(Entity parent, Segment segment, Emitter emitter) {
+		List<Subsegment> subsegments = new ArrayList<>(parent.getSubsegments());
+		for (Subsegment subsegment : subsegments) {
+			if (!isCompleted(subsegment)) {
+				streamCompleted(subsegment, segment, emitter);
+			} else if (maxBytes > 0 && !subsegment.getSubsegments().isEmpty() && estimate(subsegment) > maxBytes) {
+				streamCompleted(subsegment, segment, emitter);
+				release(parent, subsegment, segment, emitter);
+			} else {
+				release(parent, subsegment, segment, emitter);
+			}
+		}
+	}
+
+	/**
+	 * Detaches subsegment from its parent, then sends it. Nothing changes it once it is handed to emitter, which may
+	 * serialize it later on another thread.
+	 */
+	private static void release(Entity parent, Subsegment subsegment, Segment segment, Emitter emitter) {
+		int descendants = count(subsegment);
+		subsegment.setEmitted(true);
+		parent.removeSubsegment(subsegment);
+		if (descendants > 0) {
+			segment.getTotalSize().add(-descendants);
+		}
+		emitter.sendSubsegment(subsegment);
+	}
+
+	private static boolean isCompleted(Subsegment subsegment) {
+		if (subsegment.isInProgress() || subsegment.getEndTime() == 0) {
+			return false;
+		}
+		for (Subsegment child : subsegment.getSubsegments()) {
+			if (!isCompleted(child)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int count(Entity entity) {
+		int count = 0;
+		for (Subsegment child : entity.getSubsegments()) {
+			count += 1 + count(child);
+		}
+		return count;
+	}
+
+	private static long estimateCompleted(Entity parent) {
+		long bytes = 0;
+		for (Subsegment subsegment : parent.getSubsegments()) {
+			bytes += isCompleted(subsegment) ? estimate(subsegment) : estimateCompleted(subsegment);
+		}
+		return bytes;
+	}
+
+	private static long estimate(Entity entity) {
+		long bytes = ENTITY_OVERHEAD + length(entity.getName()) + length(entity.getNamespace());
+		bytes += estimate(entity.getHttp()) + estimate(entity.getAws()) + estimate(entity.getSql());
+		bytes += estimate(entity.getMetadata()) + estimate(entity.getAnnotations());
+		bytes += estimate(entity.getCause());
+		for (Subsegment child : entity.getSubsegments()) {
+			bytes += estimate(child);
+		}
+		return bytes;
+	}
+
+	private static long estimate(Cause cause) {
+		long bytes = 0;
+		if (cause != null) {
+			for (ThrowableDescription exception : cause.getExceptions()) {
+				bytes += ENTITY_OVERHEAD + length(exception.getMessage()) + length(exception.getType());
+				if (exception.getStack() != null) {
+					bytes += (long) exception.getStack().length * STACK_FRAME_OVERHEAD;
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private static long estimate(Object value) {
+		if (value instanceof String) {
+			return VALUE_OVERHEAD + ((String) value).length();
+		} else if (value instanceof Map) {
+			long bytes = VALUE_OVERHEAD;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				bytes += estimate(entry.getKey()) + estimate(entry.getValue());
+			}
+			return bytes;
+		} else if (value instanceof Collection) {
+			long bytes = VALUE_OVERHEAD;
+			for (Object element : (Collection<?>) value) {
+				bytes += estimate(element);
+			}
+			return bytes;
+		} else {
+			return VALUE_OVERHEAD;
+		}
+	}
+
+	private static int length(String s) {
+		return s == null ? 0 : s.length();
+	}
+}
@@ -0,0 +1,203 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.wongnai.tracing.xray.emitters.AsyncEmitter;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link CompiledSamplingStrategy} which adjusts the rate of every rule each second to sample a target number of
+ * traces per second, whatever the traffic.
+ *
+ * Requests matching each rule are counted with lock-free counters and smoothed into an exponentially weighted moving
+ * average of requests per second. A rule other than the default one with a {@code fixed_target} aims at that many
+ * traces per second, the other rules share what is left of the target of the JVM at one rate, and all rules are
+ * scaled down together if their targets add up to more than the target of the JVM. The {@code rate} of a rule is only
+ * used in the first second.
+ *
+ * Within a second, a rule samples at most twice its target and all rules together at most twice the target of the
+ * JVM, so a spike is cut before the averages catch up.
+ *
+ * Given an {@link AsyncEmitter}, targets are halved every second entities are dropped and reduced while its queue is
+ * more than half full, then recover gradually.
+ */
+@Slf4j
+public class AdaptiveSamplingStrategy extends CompiledSamplingStrategy implements AutoCloseable {
+	private static final double SMOOTHING = 0.3;
+	private static final double MIN_PRESSURE = 0.01;
+	private static final double RECOVERY = 1.25;
+	private static final double QUEUE_BACKOFF = 0.8;
+	private static final double HIGH_QUEUE_FILL = 0.5;
+	private static final int BURST = 2;
+
+	private final double target;
+	private final AsyncEmitter emitter;
+	private final State[] states;
+	private final State defaultState;
+	private final State[] all;
+	private final AtomicLong allowance = new AtomicLong();
+	private final ScheduledExecutorService scheduler;
+	private double pressure = 1;
+	private long lastDropped;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param ruleLocation
+	 *            location of rules file, falls back to the SDK's default rules if {@code null} or not readable
+	 * @param target
+	 *            traces per second to sample in this JVM
+	 * @param emitter
+	 *            emitter to watch for backpressure, or {@code null}
+	 */
+	public AdaptiveSamplingStrategy(URL ruleLocation, double target, AsyncEmitter emitter) {
+		super(ruleLocation);
+		if (target <= 0) {
+			throw new IllegalArgumentException("Target traces per second must be positive.");
+		}
+		this.target = target;
+		this.emitter = emitter;
+		this.lastDropped = emitter != null ? emitter.getDropped() : 0;
+		this.allowance.set((long) Math.ceil(target * BURST));
+		CompiledRules rules = getRules();
+		this.states = new State[rules.getRules().length];
+		for (int i = 0; i < states.length; i++) {
+			states[i] = new State(rules.getRules()[i], target);
+		}
+		this.defaultState = new State(rules.getDefaultRule(), target);
+		this.all = Arrays.copyOf(states, states.length + 1);
+		all[states.length] = defaultState;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "xray-sampling-controller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(this::adjust, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public boolean shouldTrace(String serviceName, String host, String url, String method) {
+		CompiledRules.Rule rule = getRules().match(serviceName, host, url, method);
+		return (rule.getIndex() < 0 ? defaultState : states[rule.getIndex()]).sample(allowance);
+	}
+
+	/**
+	 * Updates averages and rates from requests of the last second.
+	 */
+	synchronized void adjust() {
+		try {
+			pressure = nextPressure();
+			double budget = target * pressure;
+			allowance.set((long) Math.ceil(budget * BURST));
+			double ownTargets = 0;
+			double sharedRequests = 0;
+			for (State state : all) {
+				state.observe();
+				if (state.ownTarget > 0) {
+					ownTargets += Math.min(state.ownTarget * pressure, state.requests);
+				} else {
+					sharedRequests += state.requests;
+				}
+			}
+			double scale = ownTargets > budget ? budget / ownTargets : 1;
+			double shared = Math.max(0, budget - ownTargets);
+			for (State state : all) {
+				double desired;
+				if (state.ownTarget > 0) {
+					desired = state.ownTarget * pressure * scale;
+				} else {
+					desired = sharedRequests > 0 ? shared * state.requests / sharedRequests : shared;
+				}
+				state.update(desired);
+			}
+		} catch (RuntimeException e) {
+			log.warn("Unable to adjust sampling rates.", e);
+		}
+	}
+
+	private double nextPressure() {
+		if (emitter == null) {
+			return 1;
+		}
+		long dropped = emitter.getDropped();
+		long newlyDropped = dropped - lastDropped;
+		lastDropped = dropped;
+		if (newlyDropped > 0) {
+			return Math.max(MIN_PRESSURE, pressure / 2);
+		} else if (emitter.getQueueSize() > emitter.getCapacity() * HIGH_QUEUE_FILL) {
+			return Math.max(MIN_PRESSURE, pressure * QUEUE_BACKOFF);
+		} else {
+			return Math.min(1, pressure * RECOVERY);
+		}
+	}
+
+	/**
+	 * Gets rates currently applied, by rule.
+	 *
+	 * @return rates by rule in matching order, the default rule last
+	 */
+	public Map<String, Double> getEffectiveRates() {
+		Map<String, Double> rates = new LinkedHashMap<>();
+		for (State state : all) {
+			rates.put(state.rule.toString(), (double) state.rate);
+		}
+		return Collections.unmodifiableMap(rates);
+	}
+
+	/**
+	 * Gets factor targets are currently scaled by because of emitter backpressure.
+	 *
+	 * @return factor from 0.01 to 1
+	 */
+	public synchronized double getPressure() {
+		return pressure;
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	private static final class State {
+		private final CompiledRules.Rule rule;
+		private final int ownTarget;
+		private final LongAdder counter = new LongAdder();
+		private final AtomicLong allowance = new AtomicLong();
+		private double requests = -1;
+		private volatile float rate;
+
+		private State(CompiledRules.Rule rule, double target) {
+			this.rule = rule;
+			this.ownTarget = rule.getIndex() < 0 ? 0 : rule.getFixedTarget();
+			this.rate = rule.getRate();
+			this.allowance.set((long) Math.ceil(target * BURST));
+		}
+
+		private boolean sample(AtomicLong jvmAllowance) {
+			counter.increment();
+			return ThreadLocalRandom.current().nextFloat() < rate && allowance.getAndDecrement() > 0
+					&& jvmAllowance.getAndDecrement() > 0;
+		}
+
+		private void observe() {
+			long count = counter.sumThenReset();
+			requests = requests < 0 ? count : SMOOTHING * count + (1 - SMOOTHING) * requests;
+		}
+
+		private void update(double desired) {
+			rate = (float) Math.min(1, desired / Math.max(1, requests));
+			allowance.set((long) Math.ceil(desired * BURST));
+		}
+	}
+}
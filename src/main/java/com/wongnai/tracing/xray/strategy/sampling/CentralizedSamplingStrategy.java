@@ -0,0 +1,282 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.xray.strategy.sampling.manifest.SamplingRuleManifest;
+import com.amazonaws.xray.strategy.sampling.rule.SamplingRule;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link CompiledSamplingStrategy} which pulls its rules and reservoir quotas from a {@link SamplingEndpoint}, so a
+ * fleet samples a fixed number of traces per second in total rather than per instance.
+ *
+ * Rules are pulled every few minutes, or as soon as the endpoint reports they were modified, and compiled like a rules
+ * file in priority order. Sampling statistics of each rule are reported every few seconds in exchange for its quota
+ * and rate. Until a quota is assigned, or once it expires, a rule borrows one trace per second locally. Until rules
+ * are first pulled, the fallback rules file is used.
+ *
+ * Rules which match on a resource ARN, a service type or attributes are skipped, spans have none of them.
+ */
+@Slf4j
+public class CentralizedSamplingStrategy extends CompiledSamplingStrategy implements AutoCloseable {
+	/**
+	 * Default interval to pull rules, in milliseconds.
+	 */
+	public static final long DEFAULT_RULES_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+	/**
+	 * Default interval to report statistics and pull quotas, in milliseconds.
+	 */
+	public static final long DEFAULT_TARGETS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+	private static final String DEFAULT_RULE_NAME = "Default";
+	private static final String ANY = "*";
+	private static final int SUPPORTED_VERSION = 1;
+
+	private final SamplingEndpoint endpoint;
+	private final long targetsInterval;
+	private final String clientId;
+	private final ScheduledExecutorService scheduler;
+	private volatile Snapshot snapshot;
+	private long rulesPulledAt;
+
+	/**
+	 * Constructs an instance with default intervals.
+	 *
+	 * @param endpoint
+	 *            endpoint
+	 * @param fallbackRules
+	 *            location of rules file used until rules are pulled
+	 */
+	public CentralizedSamplingStrategy(SamplingEndpoint endpoint, URL fallbackRules) {
+		this(endpoint, fallbackRules, DEFAULT_RULES_INTERVAL, DEFAULT_TARGETS_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param endpoint
+	 *            endpoint
+	 * @param fallbackRules
+	 *            location of rules file used until rules are pulled
+	 * @param rulesInterval
+	 *            interval to pull rules
+	 * @param targetsInterval
+	 *            interval to report statistics and pull quotas, unless endpoint asks for another one
+	 * @param unit
+	 *            unit of intervals
+	 */
+	public CentralizedSamplingStrategy(SamplingEndpoint endpoint, URL fallbackRules, long rulesInterval,
+			long targetsInterval, TimeUnit unit) {
+		super(fallbackRules);
+		if (rulesInterval <= 0 || targetsInterval <= 0) {
+			throw new IllegalArgumentException("Polling intervals must be positive.");
+		}
+		this.endpoint = endpoint;
+		this.targetsInterval = unit.toMillis(targetsInterval);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		this.clientId = String.format("%016x%08x", random.nextLong(), random.nextInt());
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "xray-sampling-poller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::pollRules, 0, rulesInterval, unit);
+		scheduler.schedule(this::pollTargets, this.targetsInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public boolean shouldTrace(String serviceName, String host, String url, String method) {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot == null) {
+			return super.shouldTrace(serviceName, host, url, method);
+		}
+		return snapshot.target(snapshot.rules.match(serviceName, host, url, method)).sample();
+	}
+
+	private void pollRules() {
+		try {
+			refreshRules();
+		} catch (IOException | RuntimeException e) {
+			log.warn("Unable to pull sampling rules from {}.", endpoint, e);
+		}
+	}
+
+	private void pollTargets() {
+		long delay = targetsInterval;
+		try {
+			delay = refreshTargets();
+		} catch (IOException | RuntimeException e) {
+			log.warn("Unable to pull sampling targets from {}.", endpoint, e);
+		} finally {
+			if (!scheduler.isShutdown()) {
+				scheduler.schedule(this::pollTargets, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Pulls rules and swaps them in, keeping quotas and statistics of rules with the same name.
+	 *
+	 * @throws IOException
+	 *             if rules cannot be pulled
+	 */
+	public synchronized void refreshRules() throws IOException {
+		List<JsonNode> records = new ArrayList<>();
+		String nextToken = null;
+		do {
+			ObjectNode request = JsonNodeFactory.instance.objectNode();
+			if (nextToken != null) {
+				request.put("NextToken", nextToken);
+			}
+			JsonNode response = endpoint.call(SamplingEndpoint.GET_SAMPLING_RULES, request);
+			for (JsonNode record : response.path("SamplingRuleRecords")) {
+				JsonNode rule = record.path("SamplingRule");
+				if (isApplicable(rule)) {
+					records.add(rule);
+				}
+			}
+			nextToken = response.path("NextToken").textValue();
+		} while (nextToken != null && !nextToken.isEmpty());
+		records.sort(Comparator.comparingInt((JsonNode rule) -> rule.path("Priority").asInt())
+				.thenComparing(rule -> rule.path("RuleName").asText()));
+
+		Snapshot previous = this.snapshot;
+		SamplingRuleManifest manifest = new SamplingRuleManifest();
+		manifest.setVersion(2);
+		manifest.setRules(new ArrayList<>());
+		Map<String, RuleTarget> targets = new HashMap<>();
+		List<RuleTarget> ruleTargets = new ArrayList<>();
+		RuleTarget defaultTarget = null;
+		for (JsonNode record : records) {
+			String name = record.path("RuleName").asText();
+			float rate = (float) record.path("FixedRate").asDouble();
+			int fixedTarget = record.path("ReservoirSize").asInt();
+			RuleTarget target = previous != null ? previous.targets.get(name) : null;
+			if (target == null) {
+				target = new RuleTarget(name, rate);
+			} else {
+				target.setDefaultRate(rate);
+			}
+			targets.put(name, target);
+			if (DEFAULT_RULE_NAME.equals(name)) {
+				SamplingRule rule = new SamplingRule();
+				rule.setFixedTarget(fixedTarget);
+				rule.setRate(rate);
+				manifest.setDefaultRule(rule);
+				defaultTarget = target;
+			} else {
+				manifest.getRules().add(new SamplingRule(text(record, "Host"), text(record, "ServiceName"),
+						text(record, "HTTPMethod"), text(record, "URLPath"), fixedTarget, rate));
+				ruleTargets.add(target);
+			}
+		}
+		if (defaultTarget == null) {
+			throw new IOException("Sampling endpoint " + endpoint + " returned no " + DEFAULT_RULE_NAME + " rule.");
+		}
+
+		CompiledRules rules = CompiledRules.compile(manifest, previous != null ? previous.rules : null);
+		this.snapshot = new Snapshot(rules, ruleTargets.toArray(new RuleTarget[0]), defaultTarget, targets);
+		this.rulesPulledAt = System.currentTimeMillis();
+		log.debug("Pulled {} sampling rules from {}.", records.size(), endpoint);
+	}
+
+	private static boolean isApplicable(JsonNode rule) {
+		return rule.path("Version").asInt(SUPPORTED_VERSION) == SUPPORTED_VERSION
+				&& ANY.equals(rule.path("ResourceARN").asText(ANY)) && ANY.equals(rule.path("ServiceType").asText(ANY))
+				&& rule.path("Attributes").size() == 0;
+	}
+
+	private static String text(JsonNode rule, String field) {
+		return rule.path(field).asText(ANY);
+	}
+
+	/**
+	 * Reports statistics and assigns quotas and rates returned, pulling rules again if endpoint reports they were
+	 * modified.
+	 *
+	 * @return milliseconds until statistics should be reported again
+	 * @throws IOException
+	 *             if statistics cannot be reported
+	 */
+	public synchronized long refreshTargets() throws IOException {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot == null) {
+			return targetsInterval;
+		}
+		long now = System.currentTimeMillis();
+		ArrayNode statistics = JsonNodeFactory.instance.arrayNode();
+		for (RuleTarget target : snapshot.targets.values()) {
+			statistics.addObject()
+					.put("RuleName", target.getName())
+					.put("ClientID", clientId)
+					.put("Timestamp", now / 1000)
+					.put("RequestCount", target.takeRequestCount())
+					.put("SampledCount", target.takeSampledCount())
+					.put("BorrowCount", target.takeBorrowCount());
+		}
+		ObjectNode request = JsonNodeFactory.instance.objectNode();
+		request.set("SamplingStatisticsDocuments", statistics);
+		JsonNode response = endpoint.call(SamplingEndpoint.GET_SAMPLING_TARGETS, request);
+
+		long delay = targetsInterval;
+		for (JsonNode document : response.path("SamplingTargetDocuments")) {
+			RuleTarget target = snapshot.targets.get(document.path("RuleName").asText());
+			if (target == null) {
+				continue;
+			}
+			JsonNode quota = document.path("ReservoirQuota");
+			JsonNode ttl = document.path("ReservoirQuotaTTL");
+			target.assign(quota.isNumber() ? quota.asInt() : -1,
+					ttl.isNumber() ? (long) (ttl.asDouble() * 1000) : now + targetsInterval,
+					(float) document.path("FixedRate").asDouble());
+			if (document.path("Interval").isNumber()) {
+				delay = Math.min(delay, TimeUnit.SECONDS.toMillis(document.path("Interval").asLong()));
+			}
+		}
+
+		JsonNode modified = response.path("LastRuleModification");
+		if (modified.isNumber() && (long) (modified.asDouble() * 1000) > rulesPulledAt) {
+			refreshRules();
+		}
+		return Math.max(delay, 1000);
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	private static final class Snapshot {
+		private final CompiledRules rules;
+		private final RuleTarget[] ruleTargets;
+		private final RuleTarget defaultTarget;
+		private final Map<String, RuleTarget> targets;
+
+		private Snapshot(CompiledRules rules, RuleTarget[] ruleTargets, RuleTarget defaultTarget,
+				Map<String, RuleTarget> targets) {
+			this.rules = rules;
+			this.ruleTargets = ruleTargets;
+			this.defaultTarget = defaultTarget;
+			this.targets = targets;
+		}
+
+		private RuleTarget target(CompiledRules.Rule rule) {
+			return rule.getIndex() < 0 ? defaultTarget : ruleTargets[rule.getIndex()];
+		}
+	}
+}
@@ -0,0 +1,404 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.xray.strategy.sampling.manifest.SamplingRuleManifest;
+import com.amazonaws.xray.strategy.sampling.rule.SamplingRule;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+
+/**
+ * An immutable set of sampling rules compiled from a rules manifest in the format of the SDK's
+ * {@code LocalizedSamplingStrategy}.
+ *
+ * Rules are placed on a trie by the literal prefix of their {@code url_path}, lower cased, so matching a request walks
+ * the path once and only checks rules whose prefix it has. The first matching rule in manifest order wins, as with the
+ * SDK. Rules of version 1 match {@code service_name} against the host of a request, as the SDK copies it to
+ * {@code host}. Rules of version 2 match {@code host} against its host and {@code service_name}, which only centralized
+ * rules give, against its service name.
+ *
+ * Unlike the SDK, which matches {@code url_path} against the whole URL it is given, rules match the path of the URL,
+ * so a rule of {@code /api/*} also applies to {@code https://www.wongnai.com/api/1}. Both match a URL which is only a
+ * path the same way. A request value which is {@code null} matches only a pattern of {@code *}, where the SDK fails.
+ *
+ * Rules compiled as a new version of another set keep the reservoirs of rules which did not change.
+ */
+final class CompiledRules {
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.setPropertyNamingStrategy(PropertyNamingStrategy.CAMEL_CASE_TO_LOWER_CASE_WITH_UNDERSCORES)
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+			.configure(JsonParser.Feature.ALLOW_COMMENTS, true);
+	private static final List<Integer> SUPPORTED_VERSIONS = Arrays.asList(1, 2);
+	private static final String ROOT_PATH = "/";
+
+	private final Rule[] rules;
+	private final Rule defaultRule;
+	private final Node root = new Node();
+
+	private CompiledRules(SamplingRuleManifest manifest, CompiledRules previous) {
+		if (!SUPPORTED_VERSIONS.contains(manifest.getVersion())) {
+			throw invalid("Manifest version: " + manifest.getVersion() + " is not supported.");
+		}
+		SamplingRule defaultRule = manifest.getDefaultRule();
+		if (defaultRule == null) {
+			throw invalid("A default rule must be provided.");
+		} else if (defaultRule.getUrlPath() != null || defaultRule.getHost() != null
+				|| defaultRule.getHttpMethod() != null) {
+			throw invalid("The default rule must not specify values for url_path, host, or http_method.");
+		} else if (defaultRule.getFixedTarget() < 0 || defaultRule.getRate() < 0) {
+			throw invalid("The default rule must specify non-negative values for fixed_target and rate.");
+		}
+		Map<String, RuleReservoir> reservoirs = previous != null ? previous.reservoirs() : new HashMap<>();
+		this.defaultRule = new Rule(-1, null, null, null, "*", defaultRule.getFixedTarget(), defaultRule.getRate(),
+				reservoirs);
+
+		List<SamplingRule> list = manifest.getRules() != null ? manifest.getRules() : Collections.emptyList();
+		this.rules = new Rule[list.size()];
+		for (int i = 0; i < rules.length; i++) {
+			SamplingRule rule = list.get(i);
+			boolean version1 = manifest.getVersion() == 1;
+			String host = version1 ? rule.getServiceName() : rule.getHost();
+			if (rule.getUrlPath() == null || rule.getHttpMethod() == null || host == null) {
+				throw invalid("All rules must have values for url_path, host, and http_method.");
+			} else if (rule.getFixedTarget() < 0 || rule.getRate() < 0) {
+				throw invalid("All rules must have non-negative values for fixed_target and rate.");
+			}
+			rules[i] = new Rule(i, version1 ? null : rule.getServiceName(), host, rule.getHttpMethod(),
+					rule.getUrlPath(), rule.getFixedTarget(), rule.getRate(), reservoirs);
+			root.add(rules[i].urlPath, rules[i].prefixLength, i);
+		}
+	}
+
+	private static IllegalArgumentException invalid(String detail) {
+		return new IllegalArgumentException("Invalid sampling rule manifest provided. " + detail);
+	}
+
+	/**
+	 * Reads and compiles a rules manifest.
+	 *
+	 * @param location
+	 *            location of rules manifest
+	 * @return compiled rules
+	 * @throws IOException
+	 *             if manifest cannot be read or parsed
+	 */
+	static CompiledRules read(URL location) throws IOException {
+		return new CompiledRules(MAPPER.readValue(location, SamplingRuleManifest.class), null);
+	}
+
+	/**
+	 * Compiles a new version of rules.
+	 *
+	 * @param manifest
+	 *            rules manifest
+	 * @param previous
+	 *            rules to keep reservoirs of unchanged rules from, or {@code null}
+	 * @return compiled rules
+	 */
+	static CompiledRules compile(SamplingRuleManifest manifest, CompiledRules previous) {
+		return new CompiledRules(manifest, previous);
+	}
+
+	/**
+	 * Parses and compiles a new version of rules.
+	 *
+	 * @param content
+	 *            content of rules manifest
+	 * @param previous
+	 *            rules to keep reservoirs of unchanged rules from, or {@code null}
+	 * @return compiled rules
+	 * @throws IOException
+	 *             if manifest cannot be parsed
+	 */
+	static CompiledRules parse(byte[] content, CompiledRules previous) throws IOException {
+		return new CompiledRules(MAPPER.readValue(content, SamplingRuleManifest.class), previous);
+	}
+
+	private Map<String, RuleReservoir> reservoirs() {
+		Map<String, RuleReservoir> reservoirs = new HashMap<>();
+		for (Rule rule : rules) {
+			reservoirs.putIfAbsent(rule.key, rule.reservoir);
+		}
+		reservoirs.putIfAbsent(defaultRule.key, defaultRule.reservoir);
+		return reservoirs;
+	}
+
+	/**
+	 * Finds the first rule applying to a request, or the default rule.
+	 *
+	 * @param serviceName
+	 *            service name
+	 * @param host
+	 *            host
+	 * @param url
+	 *            URL or path
+	 * @param method
+	 *            HTTP method
+	 * @return applying rule
+	 */
+	Rule match(String serviceName, String host, String url, String method) {
+		if (url == null) {
+			for (Rule rule : rules) {
+				if (rule.matchesAnyPath() && rule.matches(serviceName, host, method)) {
+					return rule;
+				}
+			}
+			return defaultRule;
+		}
+
+		String path = url;
+		int start = pathStart(url);
+		int end = pathEnd(url, start);
+		if (start == end) {
+			path = ROOT_PATH;
+			start = 0;
+			end = 1;
+		}
+
+		int best = rules.length;
+		Node node = root;
+		int position = start;
+		while (true) {
+			for (int index : node.rules) {
+				if (index >= best) {
+					break;
+				}
+				Rule rule = rules[index];
+				if (rule.matchesRest(path, position, end) && rule.matches(serviceName, host, method)) {
+					best = index;
+					break;
+				}
+			}
+			if (position == end || (node = node.child(Character.toLowerCase(path.charAt(position)))) == null) {
+				break;
+			}
+			position++;
+		}
+		return best < rules.length ? rules[best] : defaultRule;
+	}
+
+	/**
+	 * Finds where the path of a URL starts, after its scheme and authority if it has them.
+	 *
+	 * @param url
+	 *            absolute URL, protocol relative URL or path
+	 * @return index of path
+	 */
+	static int pathStart(String url) {
+		int authority = -1;
+		if (url.startsWith("//")) {
+			authority = 2;
+		} else {
+			for (int i = 0; i < url.length(); i++) {
+				char c = url.charAt(i);
+				if (c == ':') {
+					if (i > 0 && url.startsWith("//", i + 1)) {
+						authority = i + 3;
+					}
+					break;
+				} else if (!(Character.isLetterOrDigit(c) || c == '+' || c == '-' || c == '.')) {
+					break;
+				}
+			}
+		}
+		if (authority == -1) {
+			return 0;
+		}
+		for (int i = authority; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if (c == '/' || c == '?' || c == '#') {
+				return i;
+			}
+		}
+		return url.length();
+	}
+
+	/**
+	 * Finds where the path of a URL ends, before its query or fragment.
+	 *
+	 * @param url
+	 *            URL
+	 * @param start
+	 *            index of path
+	 * @return index after path
+	 */
+	static int pathEnd(String url, int start) {
+		for (int i = start; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if (c == '?' || c == '#') {
+				return i;
+			}
+		}
+		return url.length();
+	}
+
+	/**
+	 * Gets rules in manifest order.
+	 *
+	 * @return rules
+	 */
+	Rule[] getRules() {
+		return rules;
+	}
+
+	/**
+	 * Gets default rule.
+	 *
+	 * @return default rule
+	 */
+	Rule getDefaultRule() {
+		return defaultRule;
+	}
+
+	/**
+	 * A compiled sampling rule with its reservoir.
+	 */
+	static final class Rule {
+		private final int index;
+		private final String key;
+		private final String label;
+		private final GlobPattern serviceName;
+		private final GlobPattern host;
+		private final GlobPattern method;
+		private final String urlPath;
+		private final int prefixLength;
+		private final boolean anyRest;
+		private final float rate;
+		private final RuleReservoir reservoir;
+
+		private Rule(int index, String serviceName, String host, String method, String urlPath, int fixedTarget,
+				float rate, Map<String, RuleReservoir> reservoirs) {
+			this.index = index;
+			this.key = serviceName + '\n' + host + '\n' + method + '\n' + urlPath + '\n' + fixedTarget + '\n' + rate;
+			this.label = index < 0 ? "default" : (host != null ? host : serviceName) + " " + method + " " + urlPath;
+			this.serviceName = serviceName != null ? GlobPattern.compile(serviceName) : null;
+			this.host = host != null ? GlobPattern.compile(host) : null;
+			this.method = method != null ? GlobPattern.compile(method) : null;
+			this.urlPath = urlPath.toLowerCase();
+			int glob = GlobPattern.indexOfGlob(this.urlPath, 0);
+			this.prefixLength = glob == -1 ? this.urlPath.length() : glob;
+			this.anyRest = glob != -1 && this.urlPath.length() == glob + 1 && this.urlPath.charAt(glob) == '*';
+			this.rate = rate;
+			RuleReservoir reservoir = reservoirs.remove(key);
+			this.reservoir = reservoir != null ? reservoir : new RuleReservoir(fixedTarget);
+		}
+
+		private boolean matches(String serviceName, String host, String method) {
+			return matches(this.serviceName, serviceName) && matches(this.host, host) && matches(this.method, method);
+		}
+
+		private static boolean matches(GlobPattern pattern, String value) {
+			if (pattern == null) {
+				return true;
+			} else if (value == null) {
+				return pattern.isAny();
+			} else {
+				return pattern.matches(value);
+			}
+		}
+
+		private boolean matchesAnyPath() {
+			return anyRest && prefixLength == 0;
+		}
+
+		private boolean matchesRest(String path, int position, int end) {
+			if (prefixLength == urlPath.length()) {
+				return position == end;
+			}
+			return anyRest || GlobPattern.globMatches(urlPath, prefixLength, path, position, end);
+		}
+
+		/**
+		 * Gets index of rule in manifest order.
+		 *
+		 * @return index of rule, or {@code -1} for the default rule
+		 */
+		int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets fixed target.
+		 *
+		 * @return traces per second taken before rate applies
+		 */
+		int getFixedTarget() {
+			return reservoir.getTracesPerSecond();
+		}
+
+		/**
+		 * Gets rate.
+		 *
+		 * @return rate
+		 */
+		float getRate() {
+			return rate;
+		}
+
+		/**
+		 * Decides if a request should be traced, taking from reservoir first.
+		 *
+		 * @return {@code true} if request should be traced
+		 */
+		boolean sample() {
+			return reservoir.take() || ThreadLocalRandom.current().nextFloat() < rate;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	private static final class Node {
+		private static final char[] NO_KEYS = new char[0];
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		private char[] keys = NO_KEYS;
+		private Node[] children = NO_CHILDREN;
+		private int[] rules = new int[0];
+
+		private void add(String prefix, int length, int rule) {
+			Node node = this;
+			for (int i = 0; i < length; i++) {
+				node = node.getOrAddChild(prefix.charAt(i));
+			}
+			node.rules = Arrays.copyOf(node.rules, node.rules.length + 1);
+			node.rules[node.rules.length - 1] = rule;
+		}
+
+		private Node getOrAddChild(char key) {
+			int index = Arrays.binarySearch(keys, key);
+			if (index >= 0) {
+				return children[index];
+			}
+			index = -index - 1;
+			Node child = new Node();
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			newKeys[index] = key;
+			newChildren[index] = child;
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+
+		private Node child(char key) {
+			int index = Arrays.binarySearch(keys, key);
+			return index >= 0 ? children[index] : null;
+		}
+	}
+}
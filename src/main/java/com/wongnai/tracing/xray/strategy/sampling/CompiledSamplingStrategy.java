@@ -0,0 +1,117 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.io.IOException;
+import java.net.URL;
+
+import com.amazonaws.xray.strategy.sampling.LocalizedSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.SamplingRequest;
+import com.amazonaws.xray.strategy.sampling.SamplingResponse;
+import com.amazonaws.xray.strategy.sampling.SamplingStrategy;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link SamplingStrategy} reading the same rules file as {@link LocalizedSamplingStrategy}, with its rules compiled
+ * for matching.
+ *
+ * Rules are looked up on a trie by the path of the request URL rather than glob-matched one by one against the whole
+ * URL, and {@code service_name}, {@code host} and {@code http_method} are pre-compiled to exact, prefix or glob
+ * checks. Reservoirs are lock-free. Rules match the path of the URL rather than the whole URL as the SDK does, so
+ * rules written for full URLs may apply differently.
+ *
+ * @see CompiledRules
+ */
+@Slf4j
+public class CompiledSamplingStrategy implements SamplingStrategy {
+	private static final URL DEFAULT_RULES = LocalizedSamplingStrategy.class
+			.getResource("/com/amazonaws/xray/strategy/sampling/DefaultSamplingRules.json");
+
+	private volatile CompiledRules rules;
+
+	/**
+	 * Constructs an instance with the SDK's default rules.
+	 */
+	public CompiledSamplingStrategy() {
+		this(DEFAULT_RULES);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param ruleLocation
+	 *            location of rules file, falls back to the SDK's default rules if {@code null} or not readable
+	 */
+	public CompiledSamplingStrategy(URL ruleLocation) {
+		this.rules = read(ruleLocation);
+	}
+
+	/**
+	 * Gets compiled rules.
+	 *
+	 * @return compiled rules
+	 */
+	CompiledRules getRules() {
+		return rules;
+	}
+
+	/**
+	 * Replaces compiled rules, calls in progress finish with the rules they started with.
+	 *
+	 * @param rules
+	 *            compiled rules
+	 */
+	void setRules(CompiledRules rules) {
+		this.rules = rules;
+	}
+
+	private static CompiledRules read(URL ruleLocation) {
+		if (ruleLocation == null) {
+			log.error("Unable to parse null URL. Falling back to default rule set: {}", DEFAULT_RULES.getPath());
+			return readDefault();
+		}
+		try {
+			return CompiledRules.read(ruleLocation);
+		} catch (IOException e) {
+			log.error("Unable to parse " + ruleLocation.getPath() + ". Falling back to default rule set: "
+					+ DEFAULT_RULES.getPath(), e);
+			return readDefault();
+		}
+	}
+
+	private static CompiledRules readDefault() {
+		try {
+			return CompiledRules.read(DEFAULT_RULES);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to parse " + DEFAULT_RULES + ".", e);
+		}
+	}
+
+	@Override
+	public SamplingResponse shouldTrace(SamplingRequest samplingRequest) {
+		return new SamplingResponse(shouldTrace(samplingRequest.getService().orElse(null),
+				samplingRequest.getHost().orElse(null), samplingRequest.getUrl().orElse(null),
+				samplingRequest.getMethod().orElse(null)));
+	}
+
+	/**
+	 * Decides if a request should be traced without building a {@link SamplingRequest}.
+	 *
+	 * @param serviceName
+	 *            service name, or {@code null}
+	 * @param host
+	 *            host, or {@code null}
+	 * @param url
+	 *            URL or path, or {@code null}
+	 * @param method
+	 *            HTTP method, or {@code null}
+	 * @return {@code true} if request should be traced
+	 */
+	public boolean shouldTrace(String serviceName, String host, String url, String method) {
+		return rules.match(serviceName, host, url, method).sample();
+	}
+
+	@Override
+	public boolean isForcedSamplingSupported() {
+		return false;
+	}
+}
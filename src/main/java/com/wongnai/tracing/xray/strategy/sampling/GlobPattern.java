@@ -0,0 +1,159 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+/**
+ * A case-insensitive glob pattern of a sampling rule, with {@code *} matching any characters and {@code ?} matching
+ * one character, compiled to the cheapest check its shape allows.
+ *
+ * Matches the same text as the SDK's {@code SearchPattern.wildcardMatch} without lower casing or allocating.
+ */
+final class GlobPattern {
+	private static final GlobPattern ANY = new GlobPattern(Kind.ANY, "");
+
+	private enum Kind {
+		ANY, EXACT, PREFIX, GLOB
+	}
+
+	private final Kind kind;
+	private final String pattern;
+
+	private GlobPattern(Kind kind, String pattern) {
+		this.kind = kind;
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Compiles pattern.
+	 *
+	 * @param pattern
+	 *            glob pattern
+	 * @return compiled pattern
+	 */
+	static GlobPattern compile(String pattern) {
+		if ("*".equals(pattern)) {
+			return ANY;
+		}
+		String lower = pattern.toLowerCase();
+		int glob = indexOfGlob(lower, 0);
+		if (glob == -1) {
+			return new GlobPattern(Kind.EXACT, lower);
+		} else if (glob == lower.length() - 1 && lower.charAt(glob) == '*') {
+			return new GlobPattern(Kind.PREFIX, lower.substring(0, glob));
+		} else {
+			return new GlobPattern(Kind.GLOB, lower);
+		}
+	}
+
+	/**
+	 * Finds first {@code *} or {@code ?}.
+	 *
+	 * @param pattern
+	 *            pattern
+	 * @param from
+	 *            index to search from
+	 * @return index of first wildcard or {@code -1}
+	 */
+	static int indexOfGlob(String pattern, int from) {
+		for (int i = from; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' || c == '?') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if pattern is {@code *}.
+	 *
+	 * @return {@code true} if pattern matches any text
+	 */
+	boolean isAny() {
+		return kind == Kind.ANY;
+	}
+
+	/**
+	 * Checks if pattern matches all of text.
+	 *
+	 * @param text
+	 *            text
+	 * @return {@code true} if pattern matches
+	 */
+	boolean matches(String text) {
+		return matches(text, 0, text.length());
+	}
+
+	/**
+	 * Checks if pattern matches a region of text.
+	 *
+	 * @param text
+	 *            text
+	 * @param start
+	 *            start of region
+	 * @param end
+	 *            end of region, exclusive
+	 * @return {@code true} if pattern matches the whole region
+	 */
+	boolean matches(String text, int start, int end) {
+		switch (kind) {
+			case ANY:
+				return true;
+			case EXACT:
+				return end - start == pattern.length() && regionMatches(text, start, pattern, 0, pattern.length());
+			case PREFIX:
+				return end - start >= pattern.length() && regionMatches(text, start, pattern, 0, pattern.length());
+			default:
+				return globMatches(pattern, 0, text, start, end);
+		}
+	}
+
+	/**
+	 * Matches a glob pattern, already in lower case, from an index against a region of text.
+	 *
+	 * @param pattern
+	 *            lower case pattern
+	 * @param from
+	 *            index of pattern to match from
+	 * @param text
+	 *            text
+	 * @param start
+	 *            start of region
+	 * @param end
+	 *            end of region, exclusive
+	 * @return {@code true} if the rest of pattern matches the whole region
+	 */
+	static boolean globMatches(String pattern, int from, String text, int start, int end) {
+		int p = from;
+		int t = start;
+		int star = -1;
+		int retry = 0;
+		int length = pattern.length();
+		while (t < end) {
+			char c = p < length ? pattern.charAt(p) : 0;
+			if (p < length && c == '*') {
+				star = p++;
+				retry = t;
+			} else if (p < length && (c == '?' || c == Character.toLowerCase(text.charAt(t)))) {
+				p++;
+				t++;
+			} else if (star != -1) {
+				p = star + 1;
+				t = ++retry;
+			} else {
+				return false;
+			}
+		}
+		while (p < length && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == length;
+	}
+
+	private static boolean regionMatches(String text, int start, String lower, int from, int length) {
+		for (int i = 0; i < length; i++) {
+			if (Character.toLowerCase(text.charAt(start + i)) != lower.charAt(from + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
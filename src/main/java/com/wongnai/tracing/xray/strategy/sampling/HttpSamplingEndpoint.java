@@ -0,0 +1,83 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wongnai.common.ExceptionUtils;
+
+/**
+ * A {@link SamplingEndpoint} posting to {@code <base URL>/<operation>}, such as the sampling proxy of the X-Ray daemon
+ * at {@value #DEFAULT_URL}.
+ */
+public class HttpSamplingEndpoint implements SamplingEndpoint {
+	/**
+	 * Sampling proxy of a local X-Ray daemon.
+	 */
+	public static final String DEFAULT_URL = "http://127.0.0.1:2000";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final int TIMEOUT = 2000;
+
+	private final String baseUrl;
+
+	/**
+	 * Constructs an instance calling a local X-Ray daemon.
+	 */
+	public HttpSamplingEndpoint() {
+		this(DEFAULT_URL);
+	}
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param baseUrl
+	 *            base URL e.g. http://127.0.0.1:2000
+	 */
+	public HttpSamplingEndpoint(String baseUrl) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+		toURL(GET_SAMPLING_RULES);
+	}
+
+	private URL toURL(String operation) {
+		try {
+			return new URL(baseUrl + "/" + operation);
+		} catch (MalformedURLException e) {
+			throw ExceptionUtils.wrap("Invalid sampling endpoint " + baseUrl + ".", e);
+		}
+	}
+
+	@Override
+	public JsonNode call(String operation, JsonNode request) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) toURL(operation).openConnection();
+		try {
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				MAPPER.writeValue(out, request);
+			}
+			int status = connection.getResponseCode();
+			if (status / 100 != 2) {
+				throw new IOException("Sampling endpoint " + baseUrl + " returned " + status + " for " + operation + ".");
+			}
+			try (InputStream in = connection.getInputStream()) {
+				return MAPPER.readTree(in);
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return baseUrl;
+	}
+}
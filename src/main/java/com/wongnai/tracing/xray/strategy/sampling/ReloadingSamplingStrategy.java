@@ -0,0 +1,107 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link CompiledSamplingStrategy} which checks its rules file for changes in background and recompiles it.
+ *
+ * The file is read again every interval, from the filesystem or from the classpath without caches, and compiled only
+ * if its content changed. The compiled rules are then swapped in with one volatile write, so deciding never blocks or
+ * sees rules half built. Rules which did not change keep their reservoirs. A file which cannot be read or compiled is
+ * logged and the current rules are kept.
+ */
+@Slf4j
+public class ReloadingSamplingStrategy extends CompiledSamplingStrategy implements AutoCloseable {
+	private final URL ruleLocation;
+	private final ScheduledExecutorService scheduler;
+	private byte[] content;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param ruleLocation
+	 *            location of rules file, falls back to the SDK's default rules until readable if {@code null} or not
+	 *            readable
+	 * @param interval
+	 *            interval to check rules file
+	 * @param unit
+	 *            unit of interval
+	 */
+	public ReloadingSamplingStrategy(URL ruleLocation, long interval, TimeUnit unit) {
+		super(ruleLocation);
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Reload interval must be positive.");
+		}
+		this.ruleLocation = ruleLocation;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "xray-sampling-rules");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (ruleLocation != null) {
+			try {
+				content = read(ruleLocation);
+			} catch (IOException e) {
+				log.warn("Unable to read sampling rules from {}, retrying in background.", ruleLocation, e);
+			}
+			scheduler.scheduleWithFixedDelay(this::reload, interval, interval, unit);
+		}
+	}
+
+	/**
+	 * Reads rules file and swaps in its rules if it changed.
+	 *
+	 * @return {@code true} if rules were replaced
+	 */
+	public synchronized boolean reload() {
+		byte[] read;
+		try {
+			read = read(ruleLocation);
+		} catch (IOException e) {
+			log.warn("Unable to read sampling rules from {}, keeping current rules.", ruleLocation, e);
+			return false;
+		}
+		if (Arrays.equals(read, content)) {
+			return false;
+		}
+		try {
+			setRules(CompiledRules.parse(read, getRules()));
+			log.info("Reloaded sampling rules from {}.", ruleLocation);
+			return true;
+		} catch (IOException | RuntimeException e) {
+			log.warn("Unable to compile sampling rules from {}, keeping current rules.", ruleLocation, e);
+			return false;
+		} finally {
+			content = read;
+		}
+	}
+
+	private static byte[] read(URL location) throws IOException {
+		URLConnection connection = location.openConnection();
+		connection.setUseCaches(false);
+		try (InputStream in = connection.getInputStream()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+}
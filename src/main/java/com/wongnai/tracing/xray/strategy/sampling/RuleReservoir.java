@@ -0,0 +1,60 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free reservoir taking up to a fixed number of traces per second.
+ *
+ * The current second and the number of traces taken in it are packed into one {@link AtomicLong}, so a new second
+ * resets the count in the same compare-and-set which takes the first trace, unlike the SDK's reservoir which resets
+ * its counter unsynchronized.
+ */
+final class RuleReservoir {
+	private final int tracesPerSecond;
+	private final AtomicLong state = new AtomicLong();
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param tracesPerSecond
+	 *            traces per second
+	 */
+	RuleReservoir(int tracesPerSecond) {
+		this.tracesPerSecond = tracesPerSecond;
+	}
+
+	/**
+	 * Takes a trace if the reservoir is not used up in current second.
+	 *
+	 * @return {@code true} if a trace was taken
+	 */
+	boolean take() {
+		if (tracesPerSecond <= 0) {
+			return false;
+		}
+		long second = System.currentTimeMillis() / 1000;
+		while (true) {
+			long current = state.get();
+			long next;
+			if (current >>> 32 != second) {
+				next = second << 32 | 1;
+			} else if ((int) current >= tracesPerSecond) {
+				return false;
+			} else {
+				next = current + 1;
+			}
+			if (state.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gets traces per second.
+	 *
+	 * @return traces per second
+	 */
+	int getTracesPerSecond() {
+		return tracesPerSecond;
+	}
+}
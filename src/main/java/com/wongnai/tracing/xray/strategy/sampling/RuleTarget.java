@@ -0,0 +1,138 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sampling state of a centralized rule: the quota and rate assigned by the endpoint and statistics to report back.
+ *
+ * Without a quota, or once it expires, one trace per second is borrowed from a local reservoir, as the SDK's
+ * centralized rules do.
+ */
+final class RuleTarget {
+	private final String name;
+	private final RuleReservoir borrowed = new RuleReservoir(1);
+	private final LongAdder requestCount = new LongAdder();
+	private final LongAdder sampledCount = new LongAdder();
+	private final LongAdder borrowCount = new LongAdder();
+	private volatile float defaultRate;
+	private volatile Quota quota;
+
+	/**
+	 * Constructs an instance.
+	 *
+	 * @param name
+	 *            rule name
+	 * @param defaultRate
+	 *            rate of rule until endpoint assigns one
+	 */
+	RuleTarget(String name, float defaultRate) {
+		this.name = name;
+		this.defaultRate = defaultRate;
+	}
+
+	/**
+	 * Sets rate used until endpoint assigns one, for a new version of the rule.
+	 *
+	 * @param defaultRate
+	 *            rate of rule until endpoint assigns one
+	 */
+	void setDefaultRate(float defaultRate) {
+		this.defaultRate = defaultRate;
+	}
+
+	/**
+	 * Decides if a request should be traced.
+	 *
+	 * @return {@code true} if request should be traced
+	 */
+	boolean sample() {
+		requestCount.increment();
+		Quota quota = this.quota;
+		boolean sampled;
+		if (quota != null && System.currentTimeMillis() < quota.expiresAt) {
+			sampled = quota.reservoir.take() || ThreadLocalRandom.current().nextFloat() < quota.rate;
+		} else if (borrowed.take()) {
+			borrowCount.increment();
+			sampled = true;
+		} else {
+			sampled = ThreadLocalRandom.current().nextFloat() < (quota != null ? quota.rate : defaultRate);
+		}
+		if (sampled) {
+			sampledCount.increment();
+		}
+		return sampled;
+	}
+
+	/**
+	 * Assigns a quota.
+	 *
+	 * @param tracesPerSecond
+	 *            traces per second to sample before rate applies, or {@code -1} to keep current quota and its expiry
+	 * @param expiresAt
+	 *            time quota expires at, in epoch milliseconds
+	 * @param rate
+	 *            rate
+	 */
+	void assign(int tracesPerSecond, long expiresAt, float rate) {
+		Quota current = this.quota;
+		RuleReservoir reservoir;
+		if (tracesPerSecond < 0) {
+			reservoir = current != null ? current.reservoir : new RuleReservoir(0);
+			expiresAt = current != null ? current.expiresAt : 0;
+		} else if (current != null && current.reservoir.getTracesPerSecond() == tracesPerSecond) {
+			reservoir = current.reservoir;
+		} else {
+			reservoir = new RuleReservoir(tracesPerSecond);
+		}
+		this.quota = new Quota(reservoir, expiresAt, rate);
+	}
+
+	/**
+	 * Gets rule name.
+	 *
+	 * @return rule name
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets requests since last report and starts counting again.
+	 *
+	 * @return number of requests
+	 */
+	long takeRequestCount() {
+		return requestCount.sumThenReset();
+	}
+
+	/**
+	 * Gets sampled requests since last report and starts counting again.
+	 *
+	 * @return number of sampled requests
+	 */
+	long takeSampledCount() {
+		return sampledCount.sumThenReset();
+	}
+
+	/**
+	 * Gets requests sampled from borrowed reservoir since last report and starts counting again.
+	 *
+	 * @return number of borrowed requests
+	 */
+	long takeBorrowCount() {
+		return borrowCount.sumThenReset();
+	}
+
+	private static final class Quota {
+		private final RuleReservoir reservoir;
+		private final long expiresAt;
+		private final float rate;
+
+		private Quota(RuleReservoir reservoir, long expiresAt, float rate) {
+			this.reservoir = reservoir;
+			this.expiresAt = expiresAt;
+			this.rate = rate;
+		}
+	}
+}
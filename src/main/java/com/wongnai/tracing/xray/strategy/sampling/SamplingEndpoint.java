@@ -0,0 +1,35 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * An endpoint serving sampling rules and targets to {@link CentralizedSamplingStrategy}, in the JSON format of the
+ * X-Ray {@code GetSamplingRules} and {@code GetSamplingTargets} APIs.
+ *
+ * @see HttpSamplingEndpoint
+ */
+public interface SamplingEndpoint {
+	/**
+	 * Operation returning sampling rules.
+	 */
+	String GET_SAMPLING_RULES = "GetSamplingRules";
+	/**
+	 * Operation reporting sampling statistics and returning sampling targets.
+	 */
+	String GET_SAMPLING_TARGETS = "SamplingTargets";
+
+	/**
+	 * Calls an operation.
+	 *
+	 * @param operation
+	 *            operation e.g. {@link #GET_SAMPLING_RULES}
+	 * @param request
+	 *            request document
+	 * @return response document
+	 * @throws IOException
+	 *             if endpoint cannot be called or returns an error
+	 */
+	JsonNode call(String operation, JsonNode request) throws IOException;
+}
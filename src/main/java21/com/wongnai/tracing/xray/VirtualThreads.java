@@ -0,0 +1,18 @@
+package com.wongnai.tracing.xray;
+
+/**
+ * Detects virtual threads, on Java 21 and later.
+ */
+final class VirtualThreads {
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Checks if current thread is a virtual thread.
+	 *
+	 * @return {@code true} if current thread is a virtual thread
+	 */
+	static boolean isCurrentThreadVirtual() {
+		return Thread.currentThread().isVirtual();
+	}
+}
@@ -0,0 +1,96 @@
+package com.wongnai.tracing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.wongnai.tracing.xray.XRaySpanContext;
+import com.wongnai.tracing.xray.XRayTracer;
+import com.wongnai.tracing.xray.XRayUnsampledSpan;
+
+import io.opentracing.ActiveSpan;
+
+/**
+ * Tests release of spans by {@link TracingScheduledExecutorService}.
+ */
+public class TracingScheduledExecutorServiceTest {
+	private XRayTracer tracer;
+	private TracingScheduledExecutorService executor;
+
+	@Before
+	public void setUp() {
+		tracer = new XRayTracer(AWSXRayRecorderBuilder.standard().build());
+		executor = new TracingScheduledExecutorService(Executors.newSingleThreadScheduledExecutor(), tracer);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void releasesPendingTasksOnShutdownNow() {
+		FinishedSpan span = new FinishedSpan();
+		try (ActiveSpan active = tracer.makeActive(span)) {
+			executor.schedule(() -> {
+			}, 1, TimeUnit.HOURS);
+			executor.schedule(() -> "result", 1, TimeUnit.HOURS);
+			executor.submit(() -> {
+			});
+		}
+
+		List<Runnable> tasks = executor.shutdownNow();
+
+		assertTrue(tasks.size() >= 2);
+		assertTrue(span.finished);
+	}
+
+	@Test
+	public void keepsSpanOpenUntilScheduledTaskRuns() throws Exception {
+		FinishedSpan span = new FinishedSpan();
+		String result;
+		try (ActiveSpan active = tracer.makeActive(span)) {
+			result = executor.schedule(() -> "result", 10, TimeUnit.MILLISECONDS).get();
+		}
+
+		assertEquals("result", result);
+		assertTrue(span.finished);
+	}
+
+	@Test
+	public void releasesCancelledTask() {
+		FinishedSpan span = new FinishedSpan();
+		try (ActiveSpan active = tracer.makeActive(span)) {
+			assertTrue(executor.schedule(() -> {
+			}, 1, TimeUnit.HOURS).cancel(false));
+			assertFalse(span.finished);
+		}
+
+		assertTrue(span.finished);
+	}
+
+	/**
+	 * Span recording that it finished.
+	 */
+	private static class FinishedSpan extends XRayUnsampledSpan {
+		private volatile boolean finished;
+
+		FinishedSpan() {
+			super(new XRaySpanContext());
+		}
+
+		@Override
+		public void finish() {
+			finished = true;
+		}
+	}
+}
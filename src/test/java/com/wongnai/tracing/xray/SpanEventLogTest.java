@@ -0,0 +1,86 @@
+package com.wongnai.tracing.xray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Tests events recorded by {@link SpanEventLog}.
+ */
+public class SpanEventLogTest {
+	private AWSXRayRecorder recorder;
+	private Segment segment;
+
+	@Before
+	public void setUp() {
+		recorder = AWSXRayRecorderBuilder.standard().build();
+		segment = new SegmentImpl(recorder, "segment", new TraceID());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> events(Entity entity) {
+		Map<String, Object> metadata = entity.getMetadata().get("default");
+		return metadata != null ? (List<Map<String, Object>>) metadata.get(SpanEventLog.EVENTS_KEY) : null;
+	}
+
+	@Test
+	public void leavesThrowableFieldsOut() {
+		TraceBudget budget = new TraceBudget(SpanEventLimits.DEFAULT, SegmentLimits.DEFAULT);
+		SpanEventLog log = new SpanEventLog(4);
+		Map<String, Object> fields = new LinkedHashMap<>();
+		fields.put("event", "error");
+		fields.put("error.object", new IllegalStateException("failed"));
+		fields.put("message", "failed");
+
+		log.add(budget, 1000, fields);
+		log.writeTo(segment);
+
+		List<Map<String, Object>> events = events(segment);
+		assertEquals(1, events.size());
+		assertEquals("error", events.get(0).get("event"));
+		assertEquals("failed", events.get(0).get("message"));
+		assertEquals(3, events.get(0).size());
+	}
+
+	@Test
+	public void recordsThrowableOnlyAsException() {
+		XRaySpan<Segment> span = XRaySpan.XRaySegmentSpan.create(recorder, segment);
+		span.setBudget(new TraceBudget(SpanEventLimits.DEFAULT, SegmentLimits.DEFAULT));
+		Map<String, Object> fields = new LinkedHashMap<>();
+		fields.put("error.object", new IllegalStateException("failed"));
+
+		span.log(1000, fields);
+		span.recordEvents();
+
+		assertEquals(1, segment.getCause().getExceptions().size());
+		assertNull(events(segment));
+	}
+
+	@Test
+	public void recordsThrowablePayloadAsException() {
+		XRaySpan<Segment> span = XRaySpan.XRaySegmentSpan.create(recorder, segment);
+		span.setBudget(new TraceBudget(SpanEventLimits.DEFAULT, SegmentLimits.DEFAULT));
+
+		span.log(1000, "error", new IllegalStateException("failed"));
+		span.recordEvents();
+
+		assertEquals(1, segment.getCause().getExceptions().size());
+		List<Map<String, Object>> events = events(segment);
+		assertEquals(1, events.size());
+		assertEquals("error", events.get(0).get("event"));
+		assertNull(events.get(0).get("payload"));
+	}
+}
@@ -0,0 +1,52 @@
+package com.wongnai.tracing.xray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.TraceID;
+import com.wongnai.tracing.TracingUtils;
+
+import io.opentracing.tag.Tags;
+
+/**
+ * Tests dispatch of {@link Taggers}.
+ */
+public class TaggersTest {
+	@Test
+	public void keysEqualTagConstants() {
+		assertEquals(Tags.HTTP_URL.getKey(), Taggers.HTTP_URL);
+		assertEquals(Tags.HTTP_METHOD.getKey(), Taggers.HTTP_METHOD);
+		assertEquals(TracingUtils.HTTP_USER_AGENT_TAG.getKey(), Taggers.HTTP_USER_AGENT);
+		assertEquals(TracingUtils.HTTP_CLIENT_IP_TAG.getKey(), Taggers.HTTP_CLIENT_IP);
+		assertEquals(TracingUtils.HTTP_X_FORWARDED_FOR_TAG.getKey(), Taggers.HTTP_X_FORWARDED_FOR);
+		assertEquals(Tags.HTTP_STATUS.getKey(), Taggers.HTTP_STATUS);
+		assertEquals(TracingUtils.HTTP_CONTENT_LENGTH_TAG.getKey(), Taggers.HTTP_CONTENT_LENGTH);
+		assertEquals(TracingUtils.USER_TAG.getKey(), Taggers.USER);
+		assertEquals(Tags.SPAN_KIND.getKey(), Taggers.SPAN_KIND);
+		assertEquals(Tags.ERROR.getKey(), Taggers.ERROR);
+		assertEquals(Tags.PEER_HOSTNAME.getKey(), Taggers.PEER_HOSTNAME);
+		assertEquals(Tags.PEER_SERVICE.getKey(), Taggers.PEER_SERVICE);
+	}
+
+	@Test
+	public void appliesTagsByConstantKey() {
+		Segment segment = new SegmentImpl(AWSXRayRecorderBuilder.standard().build(), "GET", new TraceID());
+		XRaySpan<Segment> span = XRaySpan.XRaySegmentSpan.create(segment.getCreator(), segment);
+
+		assertTrue(Taggers.applyTag(span, segment, Tags.HTTP_STATUS.getKey(), 503L));
+		assertTrue(Taggers.applyTag(span, segment, Tags.PEER_HOSTNAME.getKey(), "www.wongnai.com"));
+		assertTrue(Taggers.applyTag(span, segment, TracingUtils.USER_TAG.getKey(), "user-1"));
+		assertFalse(Taggers.applyTag(span, segment, "other", "value"));
+		assertFalse(Taggers.applyTag(span, segment, null, "value"));
+
+		assertTrue(segment.isFault());
+		assertEquals("www.wongnai.com", segment.getName());
+		assertEquals("user-1", segment.getUser());
+	}
+}
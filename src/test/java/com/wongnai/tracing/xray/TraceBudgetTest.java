@@ -0,0 +1,59 @@
+package com.wongnai.tracing.xray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Tests accounting of {@link TraceBudget}.
+ */
+public class TraceBudgetTest {
+	@Test
+	public void chargesOverwrittenTagOnce() {
+		TraceBudget budget = new TraceBudget(SpanEventLimits.DEFAULT, new SegmentLimits(1000, 1, 10));
+
+		assertEquals("a", budget.acceptTag("key", "a", null));
+		assertEquals("b", budget.acceptTag("key", "b", "a"));
+		assertNull(budget.acceptTag("other", "c", null));
+	}
+
+	@Test
+	public void chargesDifferenceOfOverwrittenTag() {
+		TraceBudget budget = new TraceBudget(SpanEventLimits.DEFAULT, new SegmentLimits(30, 10, 10));
+
+		assertEquals("0123456789", budget.acceptTag("key", "0123456789", null));
+		for (int i = 0; i < 10; i++) {
+			assertEquals("9876543210", budget.acceptTag("key", "9876543210", "0123456789"));
+		}
+		assertEquals("0123", budget.acceptTag("k", "0123", null));
+	}
+
+	@Test
+	public void keepsBytesLeftIfTagCannotBeTruncated() {
+		TraceBudget budget = new TraceBudget(SpanEventLimits.DEFAULT, new SegmentLimits(30, 10, 10));
+
+		assertEquals("0123456789", budget.acceptTag("key", "0123456789", null));
+		assertNull(budget.acceptTag("a.rather.long.key", "abcdefghijklmnopqrstuvwxyz", null));
+		assertEquals("ab", budget.acceptTag("k", "ab", null));
+	}
+
+	@Test
+	public void removesOverwrittenTagIfNewValueIsDropped() {
+		Segment segment = new SegmentImpl(AWSXRayRecorderBuilder.standard().build(), "segment", new TraceID());
+		XRaySpan<Segment> span = XRaySpan.XRaySegmentSpan.create(segment.getCreator(), segment);
+		span.setBudget(new TraceBudget(SpanEventLimits.DEFAULT, new SegmentLimits(20, 1, 10)));
+
+		span.setTag("key", true);
+		span.setTag("key", 1);
+
+		assertFalse(segment.getMetadata().get("default").containsKey("key"));
+		assertEquals("b", span.getBudget().acceptTag("other", "b", null));
+	}
+}
@@ -0,0 +1,206 @@
+package com.wongnai.tracing.xray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.NoSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.SamplingStrategy;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+
+/**
+ * Tests spans started by {@link XRaySpanBuilder}.
+ */
+public class XRaySpanBuilderTest {
+	private static final long START = 1500000000000000L;
+
+	private final List<Segment> sent = new CopyOnWriteArrayList<>();
+	private AWSXRayRecorder recorder;
+	private XRayTracer tracer;
+
+	@Before
+	public void setUp() {
+		recorder = recorder(new AllSamplingStrategy());
+		tracer = new XRayTracer(recorder);
+	}
+
+	private AWSXRayRecorder recorder(SamplingStrategy samplingStrategy) {
+		return AWSXRayRecorderBuilder.standard().withSamplingStrategy(samplingStrategy)
+				.withEmitter(new Emitter() {
+					@Override
+					public boolean sendSegment(Segment segment) {
+						sent.add(segment);
+						return true;
+					}
+
+					@Override
+					public boolean sendSubsegment(Subsegment subsegment) {
+						return true;
+					}
+				}).build();
+	}
+
+	@After
+	public void tearDown() {
+		recorder.clearTraceEntity();
+	}
+
+	private static Entity entity(Span span) {
+		return ((XRaySpanContext) span.context()).getEntity();
+	}
+
+	private Span startDetachedRoot() {
+		return tracer.buildSpan("root").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.withStartTimestamp(START).startManual();
+	}
+
+	@Test
+	public void startsActiveSpanWithTimestampAsTraceEntity() {
+		try (ActiveSpan active = tracer.buildSpan("root").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.withStartTimestamp(START).startActive()) {
+			Entity entity = ((XRaySpanContext) active.context()).getEntity();
+
+			assertSame(entity, recorder.getTraceEntity());
+			assertEquals(START / 1e6, entity.getStartTime(), 1e-6);
+		}
+		assertEquals(1, sent.size());
+	}
+
+	@Test
+	public void attachesChildOfDetachedSpanToItsEntity() {
+		Span parent = startDetachedRoot();
+		Span child = tracer.buildSpan("child").asChildOf(parent).startManual();
+
+		assertSame(entity(parent), ((Subsegment) entity(child)).getParent());
+		assertNull(recorder.getTraceEntity());
+
+		child.finish();
+		assertTrue(sent.isEmpty());
+		parent.finish();
+		assertEquals(1, sent.size());
+		assertSame(entity(child), sent.get(0).getSubsegments().get(0));
+	}
+
+	@Test
+	public void recordsNoEntityOverSubsegmentLimit() {
+		XRayTracer limited = new XRayTracer(recorder, new XRayTracerSettings(null, SpanEventLimits.DEFAULT,
+				new SegmentLimits(1000, 10, 1), AnnotationAllowlist.NONE));
+		Span root = limited.buildSpan("root").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.withStartTimestamp(START).startManual();
+		Span first = limited.buildSpan("first").asChildOf(root).startManual();
+		Span over = limited.buildSpan("over").asChildOf(root).startManual();
+		Span overChild = limited.buildSpan("child").asChildOf(over).startManual();
+
+		assertTrue(first instanceof XRaySpan);
+		assertTrue(over instanceof XRayUnsampledSpan);
+		assertNull(entity(over));
+		assertEquals(entity(root).getId(), ((XRaySpanContext) over.context()).getId());
+		assertTrue(overChild instanceof XRayUnsampledSpan);
+		assertNull(entity(overChild));
+		assertEquals(1, entity(root).getSubsegments().size());
+	}
+
+	@Test
+	public void recordsChildOfEndedSpanAsSegmentOfItsOwn() {
+		Span parent = startDetachedRoot();
+		parent.finish(START + 1000);
+		Span child = tracer.buildSpan("child").asChildOf(parent).withStartTimestamp(START + 2000).startManual();
+		child.finish(START + 3000);
+
+		assertEquals(2, sent.size());
+		Segment segment = sent.get(1);
+		assertSame(entity(child), segment);
+		assertEquals(entity(parent).getParentSegment().getTraceId(), segment.getTraceId());
+		assertEquals(entity(parent).getId(), segment.getParentId());
+		assertFalse(entity(parent).getParentSegment().getSubsegments().contains(segment));
+	}
+
+	@Test
+	public void continuesUnsampledActiveSpanWithoutTags() {
+		XRayUnsampledSpan parent = XRayUnsampledSpan.create(new XRaySpanContext());
+		try (ActiveSpan active = tracer.makeActive(parent)) {
+			Span span = tracer.buildSpan("child").startManual();
+
+			assertTrue(span instanceof XRayUnsampledSpan);
+			assertSame(((XRaySpanContext) parent.context()).getTraceId(), ((XRaySpanContext) span.context()).getTraceId());
+		}
+	}
+
+	@Test
+	public void continuesUnsampledActiveSpanWithTags() {
+		XRayUnsampledSpan parent = XRayUnsampledSpan.create(new XRaySpanContext());
+		try (ActiveSpan active = tracer.makeActive(parent)) {
+			Span span = tracer.buildSpan("child").withTag("key", "value").startManual();
+
+			assertTrue(span instanceof XRayUnsampledSpan);
+			assertSame(((XRaySpanContext) parent.context()).getTraceId(), ((XRaySpanContext) span.context()).getTraceId());
+		}
+	}
+
+	@Test
+	public void keepsTraceEntityForSdkCallsInUnsampledRequest() {
+		AWSXRayRecorder unsampledRecorder = recorder(new NoSamplingStrategy());
+		XRayTracer unsampledTracer = new XRayTracer(unsampledRecorder);
+		try (ActiveSpan active = unsampledTracer.buildSpan("root")
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).startActive()) {
+			Entity entity = unsampledRecorder.getTraceEntity();
+
+			assertNotNull(entity);
+			assertEquals(((XRaySpanContext) active.context()).getTraceId(), entity.getParentSegment().getTraceId());
+			Subsegment subsegment = unsampledRecorder.beginSubsegment("sdk-call");
+			assertNotNull(subsegment);
+			unsampledRecorder.endSubsegment();
+			assertSame(entity, unsampledRecorder.getTraceEntity());
+		} finally {
+			unsampledRecorder.clearTraceEntity();
+		}
+		assertNull(unsampledRecorder.getTraceEntity());
+		assertTrue(sent.isEmpty());
+	}
+
+	@Test
+	public void startsManualSpanAsChildOfSampledActiveSpan() {
+		try (ActiveSpan active = tracer.buildSpan("root").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.startActive()) {
+			Span child = tracer.buildSpan("child").startManual();
+
+			assertSame(((XRaySpanContext) active.context()).getEntity(), ((Subsegment) entity(child)).getParent());
+			child.finish();
+		}
+		assertEquals(1, sent.size());
+		assertEquals(1, sent.get(0).getSubsegments().size());
+	}
+
+	@Test
+	public void startsNewTraceIgnoringActiveSpan() {
+		XRayUnsampledSpan leftover = XRayUnsampledSpan.create(new XRaySpanContext());
+		try (ActiveSpan active = tracer.makeActive(leftover)) {
+			Span root = tracer.buildSpan("root").ignoreActiveSpan()
+					.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).withStartTimestamp(START).startManual();
+
+			assertTrue(root instanceof XRaySpan);
+			root.finish(START + 1000);
+		}
+		assertEquals(1, sent.size());
+	}
+}
@@ -0,0 +1,142 @@
+package com.wongnai.tracing.xray.emitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Tests admission and draining of {@link AsyncEmitter} with a delegate which holds the background thread.
+ */
+public class AsyncEmitterTest {
+	private static final int CAPACITY = 8;
+
+	private final BlockingEmitter delegate = new BlockingEmitter();
+	private AWSXRayRecorder recorder;
+	private AsyncEmitter emitter;
+
+	@Before
+	public void setUp() {
+		recorder = AWSXRayRecorderBuilder.standard().build();
+	}
+
+	@After
+	public void tearDown() {
+		delegate.release.countDown();
+		if (emitter != null) {
+			emitter.close();
+		}
+	}
+
+	private Segment segment(boolean fault) {
+		Segment segment = new SegmentImpl(recorder, "segment", new TraceID());
+		segment.setFault(fault);
+		return segment;
+	}
+
+	/**
+	 * Starts emitter and waits until its background thread is held by delegate, so queue only fills from now on.
+	 */
+	private void startHeld(DropPolicy dropPolicy) throws InterruptedException {
+		emitter = new AsyncEmitter(delegate, CAPACITY, dropPolicy);
+		assertTrue(emitter.sendSegment(segment(false)));
+		assertTrue(delegate.entered.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void keepsLastQuarterForErrors() throws Exception {
+		startHeld(DropPolicy.PRIORITIZE_ERRORS);
+		for (int i = 0; i < 6; i++) {
+			assertTrue(emitter.sendSegment(segment(false)));
+		}
+
+		assertFalse(emitter.sendSegment(segment(false)));
+		assertTrue(emitter.sendSegment(segment(true)));
+		assertTrue(emitter.sendSegment(segment(true)));
+		assertFalse(emitter.sendSegment(segment(true)));
+		assertEquals(CAPACITY, emitter.getQueueSize());
+		assertEquals(2, emitter.getDropped());
+		assertEquals(1, emitter.getDroppedErrors());
+	}
+
+	@Test
+	public void dropsAnyEntityWhenFull() throws Exception {
+		startHeld(DropPolicy.DROP_NEWEST);
+		for (int i = 0; i < CAPACITY; i++) {
+			assertTrue(emitter.sendSegment(segment(false)));
+		}
+
+		assertFalse(emitter.sendSegment(segment(true)));
+		assertEquals(CAPACITY, emitter.getQueueSize());
+		assertEquals(1, emitter.getDropped());
+		assertEquals(1, emitter.getDroppedErrors());
+	}
+
+	@Test
+	public void drainsQueueOnShutdown() throws Exception {
+		startHeld(DropPolicy.PRIORITIZE_ERRORS);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(emitter.sendSegment(segment(i % 2 == 0)));
+		}
+
+		assertFalse(emitter.shutdown(50, TimeUnit.MILLISECONDS));
+		assertEquals(5, emitter.getQueueSize());
+		assertFalse(emitter.sendSegment(segment(false)));
+
+		delegate.release.countDown();
+
+		assertTrue(emitter.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(0, emitter.getQueueSize());
+		assertEquals(6, emitter.getEmitted());
+		assertEquals(6, delegate.sent.size());
+		assertEquals(1, emitter.getDropped());
+	}
+
+	/**
+	 * Records sent entities, holding the caller on the first one until released.
+	 */
+	private static class BlockingEmitter extends Emitter {
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final List<Entity> sent = new CopyOnWriteArrayList<>();
+
+		private boolean send(Entity entity) {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			sent.add(entity);
+			return true;
+		}
+
+		@Override
+		public boolean sendSegment(Segment segment) {
+			return send(segment);
+		}
+
+		@Override
+		public boolean sendSubsegment(Subsegment subsegment) {
+			return send(subsegment);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.wongnai.tracing.xray.emitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MpscArrayQueue} with concurrent producers.
+ */
+public class MpscArrayQueueTest {
+	private static final int PRODUCERS = 4;
+	private static final int ELEMENTS = 100000;
+
+	private static List<Thread> start(int count, Runnable task) {
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Thread thread = new Thread(task);
+			thread.start();
+			threads.add(thread);
+		}
+		return threads;
+	}
+
+	private static void join(List<Thread> threads) throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	@Test
+	public void rejectsOfferWhenFull() {
+		MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(5);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(queue.offer(i));
+		}
+
+		assertFalse(queue.offer(5));
+		assertEquals(5, queue.size());
+		assertEquals(0, (int) queue.poll());
+		assertTrue(queue.offer(5));
+		assertFalse(queue.offer(6));
+	}
+
+	@Test
+	public void admitsCapacityFromConcurrentProducers() throws Exception {
+		MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(1000);
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger accepted = new AtomicInteger();
+		CountDownLatch ready = new CountDownLatch(1);
+		List<Thread> producers = start(PRODUCERS, () -> {
+			try {
+				ready.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			for (int i = 0; i < 1000; i++) {
+				if (queue.offer(next.getAndIncrement())) {
+					accepted.incrementAndGet();
+				}
+			}
+		});
+		ready.countDown();
+		join(producers);
+
+		assertEquals(1000, accepted.get());
+		assertEquals(1000, queue.size());
+		BitSet seen = new BitSet();
+		for (int i = 0; i < 1000; i++) {
+			int element = queue.poll();
+			assertFalse(seen.get(element));
+			seen.set(element);
+		}
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void deliversEveryElementOnceInProducerOrder() throws Exception {
+		MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(100);
+		AtomicInteger producerIds = new AtomicInteger();
+		// Offers are counted after they succeed, so the count never runs ahead of claimed slots.
+		AtomicInteger queued = new AtomicInteger();
+		AtomicInteger maxQueued = new AtomicInteger();
+		List<Thread> producers = start(PRODUCERS, () -> {
+			int producer = producerIds.getAndIncrement();
+			for (int i = 0; i < ELEMENTS; i++) {
+				Integer element = i * PRODUCERS + producer;
+				while (!queue.offer(element)) {
+					Thread.yield();
+				}
+				maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+			}
+		});
+
+		BitSet seen = new BitSet();
+		int[] last = new int[PRODUCERS];
+		Arrays.fill(last, -1);
+		int received = 0;
+		while (received < PRODUCERS * ELEMENTS) {
+			Integer element = queue.poll();
+			if (element == null) {
+				Thread.yield();
+				continue;
+			}
+			queued.decrementAndGet();
+			assertFalse("duplicate " + element, seen.get(element));
+			seen.set(element);
+			int producer = element % PRODUCERS;
+			assertTrue(element / PRODUCERS > last[producer]);
+			last[producer] = element / PRODUCERS;
+			received++;
+		}
+		join(producers);
+
+		assertEquals(PRODUCERS * ELEMENTS, seen.cardinality());
+		assertTrue(maxQueued.get() <= queue.capacity());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+}
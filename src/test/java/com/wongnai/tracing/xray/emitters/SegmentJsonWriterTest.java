@@ -0,0 +1,260 @@
+package com.wongnai.tracing.xray.emitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Namespace;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Compares output of {@link SegmentJsonWriter} with the SDK's Jackson serialization.
+ */
+public class SegmentJsonWriterTest {
+	private static final double START = 1500000000.123;
+	private static final double END = 1500000000.5;
+
+	private AWSXRayRecorder recorder;
+	private SegmentJsonWriter writer;
+
+	@Before
+	public void setUp() {
+		recorder = AWSXRayRecorderBuilder.standard().build();
+		writer = new SegmentJsonWriter("", 64 * 1024);
+	}
+
+	private Segment segment(String name) {
+		Segment segment = new SegmentImpl(recorder, name, new TraceID());
+		segment.setStartTime(START);
+		return segment;
+	}
+
+	private Subsegment subsegment(Entity parent, String name) {
+		Subsegment subsegment = new SubsegmentImpl(recorder, name, parent.getParentSegment());
+		subsegment.setParent(parent);
+		subsegment.setStartTime(START);
+		end(subsegment);
+		parent.addSubsegment(subsegment);
+		return subsegment;
+	}
+
+	private static void end(Entity entity) {
+		entity.setEndTime(END);
+		entity.setInProgress(false);
+	}
+
+	private static String toString(ByteBuffer buffer) {
+		return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+	}
+
+	/**
+	 * Normalizes as sent, i.e. with unpaired surrogates replaced when encoded in UTF-8.
+	 */
+	private static String utf8(String json) {
+		return new String(json.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+	}
+
+	private void assertSegment(Segment segment) {
+		assertEquals(utf8(segment.serialize()), toString(writer.writeSegment(segment)));
+	}
+
+	private void assertSubsegment(Subsegment subsegment) {
+		assertEquals(utf8(subsegment.streamSerialize()), toString(writer.writeSubsegment(subsegment)));
+	}
+
+	@Test
+	public void writesMinimalSegment() {
+		Segment segment = segment("minimal");
+		end(segment);
+
+		assertSegment(segment);
+	}
+
+	@Test
+	public void writesInProgressSegment() {
+		Segment segment = segment("in-progress");
+		segment.setInProgress(true);
+
+		assertSegment(segment);
+	}
+
+	@Test
+	public void writesSegmentFieldsAndSubsegments() {
+		Segment segment = segment("GET /restaurants/{id}");
+		end(segment);
+		segment.setParentId("53995c3f42cd8ad8");
+		segment.setUser("user-1");
+		segment.setOrigin("AWS::EC2::Instance");
+		segment.setResourceArn("arn:aws:ec2:ap-southeast-1:123456789012:instance/i-0123");
+		segment.putService("runtime", "OpenJDK");
+		segment.setError(true);
+		segment.setThrottle(true);
+		Map<String, Object> request = new LinkedHashMap<>();
+		request.put("url", "https://www.wongnai.com/restaurants/1?q=\"x\"");
+		request.put("method", "GET");
+		segment.putHttp("request", request);
+		Map<String, Object> response = new HashMap<>();
+		response.put("status", 429);
+		response.put("content_length", 1024L);
+		segment.putHttp("response", response);
+		Map<String, Object> ec2 = new HashMap<>();
+		ec2.put("instance_id", "i-0123");
+		segment.putAws("ec2", ec2);
+		segment.putAnnotation("tenant", "acme");
+		segment.putAnnotation("rows", 42);
+		segment.putAnnotation("cache_hit", true);
+
+		Subsegment query = subsegment(segment, "SELECT");
+		query.setNamespace(Namespace.REMOTE.toString());
+		query.putSql("url", "jdbc:mysql://db/wongnai");
+		query.addPrecursorId("1234567890abcdef");
+		query.setFault(true);
+		Subsegment nested = subsegment(query, "nested");
+		nested.putAws("operation", "GetItem");
+		subsegment(segment, "second");
+
+		assertSegment(segment);
+	}
+
+	@Test
+	public void writesCauseWithChainedExceptions() {
+		Segment segment = segment("failed");
+		end(segment);
+		segment.addException(new IllegalStateException("outer", new IllegalArgumentException("inner \"quoted\"")));
+
+		assertSegment(segment);
+	}
+
+	@Test
+	public void writesCauseReferencingExceptionOfSubsegmentById() {
+		Segment segment = segment("failed");
+		end(segment);
+		Subsegment subsegment = subsegment(segment, "call");
+		RuntimeException exception = new RuntimeException("failed");
+		subsegment.addException(exception);
+		segment.addException(exception);
+
+		assertSegment(segment);
+	}
+
+	@Test
+	public void writesMetadataEscapedAsJackson() {
+		Segment segment = segment("metadata");
+		end(segment);
+		segment.putMetadata("quote", "say \"hi\"");
+		segment.putMetadata("backslash", "C:\\path\\file");
+		segment.putMetadata("control", "line\nbreak\ttab\r\b\f\u0001\u001f\u007f");
+		segment.putMetadata("unicode", "caf\u00e9 \u20ac \u0e01\u0e32\u0e23 \ud83d\ude00");
+		segment.putMetadata("unpaired", "a\ud800b");
+		segment.putMetadata("key \"with\" quotes\n", "value");
+		segment.putMetadata("nullValue", null);
+		segment.putMetadata("db", "rows", 42);
+		segment.putMetadata("db", "long", Long.MIN_VALUE);
+		segment.putMetadata("db", "double", 0.1);
+		segment.putMetadata("db", "float", 0.1f);
+		segment.putMetadata("db", "decimal", new BigDecimal("1.500"));
+		segment.putMetadata("db", "integer", new BigInteger("123456789012345678901234567890"));
+		segment.putMetadata("db", "nan", Double.NaN);
+		List<Object> list = new ArrayList<>();
+		list.add("a");
+		list.add(1);
+		list.add(Arrays.asList(true, false));
+		list.add(null);
+		segment.putMetadata("list", list);
+		segment.putMetadata("array", new Object[] { "x", 2 });
+		Map<Object, Object> numberKeys = new LinkedHashMap<>();
+		numberKeys.put(1, "one");
+		segment.putMetadata("numberKeys", numberKeys);
+		segment.putMetadata("bean", new Restaurant("Somtam", null));
+
+		assertSegment(segment);
+	}
+
+	@Test
+	public void writesStreamedSubsegment() {
+		Segment segment = segment("streamed");
+		Subsegment subsegment = subsegment(segment, "query");
+		subsegment.putMetadata("float", 0.1f);
+		subsegment.putMetadata("decimal", new BigDecimal("1.500"));
+		subsegment.putMetadata("zero", new BigDecimal("0.00"));
+		subsegment.putMetadata("bean", new Restaurant("Somtam", "Thai"));
+		subsegment.addException(new IllegalStateException("failed"));
+		subsegment(subsegment, "child");
+
+		assertSubsegment(subsegment);
+	}
+
+	@Test
+	public void writesInProgressStreamedSubsegment() {
+		Segment segment = segment("streamed");
+		Subsegment subsegment = new SubsegmentImpl(recorder, "in-progress", segment);
+		subsegment.setParent(segment);
+		subsegment.setStartTime(START);
+		subsegment.setInProgress(true);
+		segment.addSubsegment(subsegment);
+
+		assertSubsegment(subsegment);
+	}
+
+	@Test
+	public void writesDaemonHeader() {
+		Segment segment = segment("header");
+		end(segment);
+
+		String datagram = toString(new SegmentJsonWriter().writeSegment(segment));
+
+		assertEquals(DaemonEmitter.HEADER + segment.serialize(), datagram);
+	}
+
+	@Test
+	public void returnsNullIfDocumentDoesNotFit() {
+		Segment segment = segment("large");
+		end(segment);
+		char[] value = new char[200];
+		Arrays.fill(value, 'x');
+		segment.putMetadata("value", new String(value));
+
+		assertNull(new SegmentJsonWriter("", 100).writeSegment(segment));
+	}
+
+	/**
+	 * Bean written by mapper.
+	 */
+	public static class Restaurant {
+		private final String displayName;
+		private final String cuisine;
+
+		Restaurant(String displayName, String cuisine) {
+			this.displayName = displayName;
+			this.cuisine = cuisine;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public String getCuisine() {
+			return cuisine;
+		}
+	}
+}
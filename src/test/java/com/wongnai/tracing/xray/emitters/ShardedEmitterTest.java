@@ -0,0 +1,150 @@
+package com.wongnai.tracing.xray.emitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Tests routing of {@link ShardedEmitter} against local UDP listeners.
+ */
+public class ShardedEmitterTest {
+	private static final int DAEMONS = 3;
+	private static final long RECEIVE_TIMEOUT = 1000;
+
+	private final List<DatagramChannel> daemons = new ArrayList<>();
+	private final ByteBuffer buffer = ByteBuffer.allocate(DaemonEmitter.DATAGRAM_SIZE);
+	private AWSXRayRecorder recorder;
+	private ShardedEmitter emitter;
+
+	@Before
+	public void setUp() throws IOException {
+		recorder = AWSXRayRecorderBuilder.standard().build();
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for (int i = 0; i < DAEMONS; i++) {
+			DatagramChannel daemon = DatagramChannel.open();
+			daemon.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			daemon.configureBlocking(false);
+			daemons.add(daemon);
+			addresses.add((InetSocketAddress) daemon.getLocalAddress());
+		}
+		emitter = new ShardedEmitter(addresses);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		emitter.close();
+		for (DatagramChannel daemon : daemons) {
+			daemon.close();
+		}
+	}
+
+	private Segment segment(TraceID traceId) {
+		Segment segment = new SegmentImpl(recorder, "segment", traceId);
+		segment.setEndTime(segment.getStartTime() + 0.1);
+		segment.setInProgress(false);
+		return segment;
+	}
+
+	/**
+	 * Sends a segment of trace and waits for a daemon to receive it.
+	 *
+	 * @return index of daemon, or {@code -1} if none received it
+	 */
+	private int send(TraceID traceId) throws IOException, InterruptedException {
+		emitter.sendSegment(segment(traceId));
+		String expected = "\"trace_id\":\"" + traceId + "\"";
+		long deadline = System.currentTimeMillis() + RECEIVE_TIMEOUT;
+		while (System.currentTimeMillis() < deadline) {
+			for (int i = 0; i < daemons.size(); i++) {
+				DatagramChannel daemon = daemons.get(i);
+				if (!daemon.isOpen()) {
+					continue;
+				}
+				buffer.clear();
+				if (daemon.receive(buffer) != null) {
+					buffer.flip();
+					String datagram = StandardCharsets.UTF_8.decode(buffer).toString();
+					assertTrue(datagram.startsWith(DaemonEmitter.HEADER));
+					if (datagram.contains(expected)) {
+						return i;
+					}
+				}
+			}
+			Thread.sleep(1);
+		}
+		return -1;
+	}
+
+	@Test
+	public void keepsSegmentsOfTraceOnOneDaemon() throws Exception {
+		Set<Integer> used = new HashSet<>();
+		for (int i = 0; i < 30; i++) {
+			TraceID traceId = new TraceID();
+			int daemon = send(traceId);
+
+			assertNotEquals(-1, daemon);
+			assertEquals(daemon, send(traceId));
+			used.add(daemon);
+		}
+
+		assertTrue(used.size() > 1);
+		long sent = 0;
+		for (ShardedEmitter.Shard shard : emitter.getShards()) {
+			sent += shard.getSent();
+		}
+		assertEquals(60, sent);
+		assertEquals(0, emitter.getDropped());
+	}
+
+	@Test
+	public void failsOverWhenDaemonIsDown() throws Exception {
+		List<TraceID> traces = new ArrayList<>();
+		while (traces.size() < 10) {
+			TraceID traceId = new TraceID();
+			if (send(traceId) == 0) {
+				traces.add(traceId);
+			}
+		}
+		daemons.get(0).close();
+
+		int failedOver = -1;
+		for (int i = 0; i < traces.size() && failedOver == -1; i++) {
+			// The first datagram to a closed port is lost, its ICMP error fails the next one.
+			int daemon = send(traces.get(i));
+			if (daemon > 0) {
+				failedOver = i;
+			}
+		}
+
+		assertTrue(failedOver >= 0);
+		ShardedEmitter.Shard down = emitter.getShards().get(0);
+		assertFalse(down.isHealthy());
+		assertTrue(down.getFailed() >= 1);
+		assertTrue(down.getFailovers() >= 1);
+		for (int i = failedOver + 1; i < traces.size(); i++) {
+			assertTrue(send(traces.get(i)) > 0);
+		}
+	}
+}
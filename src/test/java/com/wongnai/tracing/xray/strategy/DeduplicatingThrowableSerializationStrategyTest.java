@@ -0,0 +1,114 @@
+package com.wongnai.tracing.xray.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.ThrowableDescription;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Tests references to repeated exceptions of {@link DeduplicatingThrowableSerializationStrategy}.
+ */
+public class DeduplicatingThrowableSerializationStrategyTest {
+	private AWSXRayRecorder recorder;
+
+	@Before
+	public void setUp() {
+		recorder = AWSXRayRecorderBuilder.standard().build();
+	}
+
+	private Segment segment(boolean sampled) {
+		Segment segment = new SegmentImpl(recorder, "segment", new TraceID());
+		segment.setSampled(sampled);
+		return segment;
+	}
+
+	private static Exception exception(int line) {
+		Exception exception = new IllegalStateException("failed");
+		exception.setStackTrace(new StackTraceElement[] { new StackTraceElement("Service", "call", "Service.java",
+				line) });
+		return exception;
+	}
+
+	private static ThrowableDescription first(Segment segment) {
+		return segment.getCause().getExceptions().get(0);
+	}
+
+	@Test
+	public void refersToExceptionRepeatedInSameTrace() {
+		DeduplicatingThrowableSerializationStrategy strategy = new DeduplicatingThrowableSerializationStrategy();
+		Segment segment = segment(true);
+
+		strategy.addException(segment, exception(1));
+		strategy.addException(segment, exception(1));
+
+		assertEquals(first(segment).getId(), segment.getCause().getExceptions().get(1).getCause());
+		assertEquals(1, strategy.getSuppressed());
+	}
+
+	@Test
+	public void describesExceptionRepeatedInOtherTraceByDefault() {
+		DeduplicatingThrowableSerializationStrategy strategy = new DeduplicatingThrowableSerializationStrategy();
+		Segment first = segment(true);
+		Segment second = segment(true);
+
+		strategy.addException(first, exception(1));
+		strategy.addException(second, exception(1));
+
+		assertNotNull(first(second).getStack());
+		assertEquals(2, strategy.getDescribed());
+	}
+
+	@Test
+	public void refersToExceptionRepeatedInOtherTraceWithinWindow() {
+		DeduplicatingThrowableSerializationStrategy strategy = new DeduplicatingThrowableSerializationStrategy(32, 4,
+				60000);
+		Segment first = segment(true);
+		Segment second = segment(true);
+
+		strategy.addException(first, exception(1));
+		strategy.addException(second, exception(1));
+
+		assertEquals(first(first).getId(), first(second).getCause());
+	}
+
+	@Test
+	public void doesNotReferToExceptionOfUnsampledTrace() {
+		DeduplicatingThrowableSerializationStrategy strategy = new DeduplicatingThrowableSerializationStrategy(32, 4,
+				60000);
+		Segment unsampled = segment(false);
+		Segment sampled = segment(true);
+
+		strategy.addException(unsampled, exception(1));
+		strategy.addException(sampled, exception(1));
+
+		assertNull(first(sampled).getCause());
+		assertNotNull(first(sampled).getStack());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedFingerprints() {
+		DeduplicatingThrowableSerializationStrategy strategy = new DeduplicatingThrowableSerializationStrategy(32, 4,
+				60000);
+		Segment first = segment(true);
+		for (int line = 0; line <= 1024; line++) {
+			strategy.addException(first, exception(line));
+		}
+
+		Segment evicted = segment(true);
+		strategy.addException(evicted, exception(0));
+		Segment kept = segment(true);
+		strategy.addException(kept, exception(1024));
+
+		assertNull(first(evicted).getCause());
+		assertNotNull(first(kept).getCause());
+	}
+}
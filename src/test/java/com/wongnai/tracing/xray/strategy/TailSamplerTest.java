@@ -0,0 +1,75 @@
+package com.wongnai.tracing.xray.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.TraceID;
+
+/**
+ * Tests buffering of {@link TailSampler}.
+ */
+public class TailSamplerTest {
+	private AWSXRayRecorder recorder;
+
+	@Before
+	public void setUp() {
+		recorder = AWSXRayRecorderBuilder.standard().build();
+	}
+
+	private Segment segment() {
+		Segment segment = new SegmentImpl(recorder, "segment", new TraceID());
+		segment.setSampled(false);
+		return segment;
+	}
+
+	@Test
+	public void releasesRoomWhenRootFinishes() {
+		TailSampler sampler = new TailSampler(1, 10, 1000, Collections.emptyMap());
+		Segment segment = segment();
+
+		assertTrue(sampler.tryBuffer());
+		sampler.buffer(segment);
+		assertFalse(sampler.tryBuffer());
+		sampler.finish(segment);
+
+		assertEquals(0, sampler.getBuffered());
+		assertTrue(sampler.tryBuffer());
+	}
+
+	@Test
+	public void releasesRoomOfTraceNeverFinished() throws InterruptedException {
+		TailSampler sampler = new TailSampler(1, 10, 1000, Collections.emptyMap(), 1);
+		Segment abandoned = segment();
+		assertTrue(sampler.tryBuffer());
+		sampler.buffer(abandoned);
+		Thread.sleep(5);
+
+		assertTrue(sampler.tryBuffer());
+		assertEquals(1, sampler.getExpired());
+		assertEquals(1, sampler.getBuffered());
+
+		sampler.finish(abandoned);
+		assertEquals(1, sampler.getBuffered());
+	}
+
+	@Test
+	public void keepsRoomOfTraceWithinMaxAge() {
+		TailSampler sampler = new TailSampler(1, 10, 1000, Collections.emptyMap(), 60000);
+		assertTrue(sampler.tryBuffer());
+		sampler.buffer(segment());
+
+		assertFalse(sampler.tryBuffer());
+		assertEquals(0, sampler.getExpired());
+		assertEquals(1, sampler.getOverflowed());
+	}
+}
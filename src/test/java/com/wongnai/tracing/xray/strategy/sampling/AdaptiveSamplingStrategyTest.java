@@ -0,0 +1,40 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests limits of {@link AdaptiveSamplingStrategy}.
+ */
+public class AdaptiveSamplingStrategyTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sharesJvmLimitAcrossRules() throws IOException {
+		File rules = folder.newFile("rules.json");
+		Files.write(rules.toPath(), ("{\"version\": 2, \"rules\": ["
+				+ "{\"host\": \"a\", \"http_method\": \"*\", \"url_path\": \"*\", \"fixed_target\": 5, \"rate\": 1},"
+				+ "{\"host\": \"b\", \"http_method\": \"*\", \"url_path\": \"*\", \"fixed_target\": 5, \"rate\": 1}"
+				+ "], \"default\": {\"fixed_target\": 5, \"rate\": 1}}").getBytes(StandardCharsets.UTF_8));
+
+		try (AdaptiveSamplingStrategy strategy = new AdaptiveSamplingStrategy(rules.toURI().toURL(), 5, null)) {
+			int sampled = 0;
+			for (int i = 0; i < 100; i++) {
+				for (String host : new String[] { "a", "b", "c" }) {
+					sampled += strategy.shouldTrace("service", host, "/", "GET") ? 1 : 0;
+				}
+			}
+
+			assertEquals(10, sampled);
+		}
+	}
+}
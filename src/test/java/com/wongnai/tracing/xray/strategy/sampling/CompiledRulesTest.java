@@ -0,0 +1,126 @@
+package com.wongnai.tracing.xray.strategy.sampling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.xray.strategy.sampling.LocalizedSamplingStrategy;
+import com.amazonaws.xray.strategy.sampling.SamplingRequest;
+
+/**
+ * Tests matching of {@link CompiledRules}.
+ */
+public class CompiledRulesTest {
+	private static final String MANIFEST = "{\"version\": 2, \"rules\": ["
+			+ "{\"host\": \"*\", \"http_method\": \"*\", \"url_path\": \"/health\", \"fixed_target\": 0, \"rate\": 0},"
+			+ "{\"host\": \"api.*\", \"http_method\": \"GET\", \"url_path\": \"*\", \"fixed_target\": 1, \"rate\": 0.5},"
+			+ "{\"host\": \"*\", \"http_method\": \"*\", \"url_path\": \"*\", \"fixed_target\": 1, \"rate\": 0.1}"
+			+ "], \"default\": {\"fixed_target\": 1, \"rate\": 0.05}}";
+
+	/**
+	 * Rules sampling all or nothing, so a decision shows which rule applied.
+	 */
+	private static final String VERSION_1_MANIFEST = "{\"version\": 1, \"rules\": ["
+			+ "{\"service_name\": \"api.*\", \"http_method\": \"GET\", \"url_path\": \"/restaurants/*\", "
+			+ "\"fixed_target\": 0, \"rate\": 1},"
+			+ "{\"service_name\": \"*\", \"http_method\": \"*\", \"url_path\": \"/restaurants/*\", "
+			+ "\"fixed_target\": 0, \"rate\": 0},"
+			+ "{\"service_name\": \"www.wongnai.com\", \"http_method\": \"p*\", \"url_path\": \"*\", "
+			+ "\"fixed_target\": 0, \"rate\": 1}"
+			+ "], \"default\": {\"fixed_target\": 0, \"rate\": 0}}";
+	private static final String VERSION_2_MANIFEST = "{\"version\": 2, \"rules\": ["
+			+ "{\"host\": \"*\", \"http_method\": \"*\", \"url_path\": \"/health\", \"fixed_target\": 0, \"rate\": 0},"
+			+ "{\"host\": \"api.*\", \"http_method\": \"GET\", \"url_path\": \"/r?staurants/*/reviews\", "
+			+ "\"fixed_target\": 0, \"rate\": 1},"
+			+ "{\"host\": \"*.wongnai.com\", \"http_method\": \"*\", \"url_path\": \"/restaurants*\", "
+			+ "\"fixed_target\": 0, \"rate\": 0}"
+			+ "], \"default\": {\"fixed_target\": 0, \"rate\": 1}}";
+	private static final String[] HOSTS = { "api.wongnai.com", "API.Wongnai.com", "www.wongnai.com", "localhost" };
+	private static final String[] PATHS = { "/", "/health", "/restaurants", "/restaurants/1",
+			"/Restaurants/1/reviews", "/restaurants/1/reviews/2", "/users/1" };
+	private static final String[] METHODS = { "GET", "get", "POST", "put" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CompiledRules rules;
+
+	@Before
+	public void setUp() throws IOException {
+		rules = CompiledRules.parse(MANIFEST.getBytes(StandardCharsets.UTF_8), null);
+	}
+
+	@Test
+	public void matchesPath() {
+		assertEquals(0, rules.match("service", "www.wongnai.com", "https://www.wongnai.com/health", "GET").getIndex());
+		assertEquals(1, rules.match("service", "api.wongnai.com", "/restaurants", "GET").getIndex());
+		assertEquals(2, rules.match("service", "www.wongnai.com", "/restaurants", "POST").getIndex());
+	}
+
+	@Test
+	public void nullUrlMatchesOnlyAnyPath() {
+		assertEquals(1, rules.match("service", "api.wongnai.com", null, "GET").getIndex());
+		assertEquals(2, rules.match("service", "www.wongnai.com", null, "GET").getIndex());
+	}
+
+	@Test
+	public void nullValueMatchesOnlyAnyPattern() {
+		assertEquals(2, rules.match("service", null, "/restaurants", "GET").getIndex());
+		assertEquals(2, rules.match("service", "api.wongnai.com", "/restaurants", null).getIndex());
+		assertEquals(0, rules.match("service", null, "/health", null).getIndex());
+	}
+
+	@Test
+	public void nullValuesWithoutAnyRuleMatchDefault() throws IOException {
+		CompiledRules specific = CompiledRules.parse(("{\"version\": 2, \"rules\": [{\"host\": \"api.*\", "
+				+ "\"http_method\": \"GET\", \"url_path\": \"/health\", \"fixed_target\": 0, \"rate\": 0}], "
+				+ "\"default\": {\"fixed_target\": 1, \"rate\": 0.05}}").getBytes(StandardCharsets.UTF_8), null);
+
+		assertEquals(-1, specific.match("service", "api.wongnai.com", null, "GET").getIndex());
+		assertEquals(-1, specific.match("service", null, "/health", "GET").getIndex());
+		assertEquals(-1, specific.match("service", "api.wongnai.com", "/health", null).getIndex());
+	}
+
+	@Test
+	public void matchesVersion1ServiceNameAgainstHost() throws IOException {
+		CompiledRules version1 = CompiledRules.parse(VERSION_1_MANIFEST.getBytes(StandardCharsets.UTF_8), null);
+
+		assertEquals(0, version1.match("service", "api.wongnai.com", "/restaurants/1", "GET").getIndex());
+		assertEquals(1, version1.match("api.wongnai.com", "www.wongnai.com", "/restaurants/1", "GET").getIndex());
+	}
+
+	@Test
+	public void decidesAsLocalizedSamplingStrategyOnPaths() throws IOException {
+		assertSameDecisions(VERSION_1_MANIFEST);
+		assertSameDecisions(VERSION_2_MANIFEST);
+	}
+
+	private void assertSameDecisions(String manifest) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), manifest.getBytes(StandardCharsets.UTF_8));
+		URL location = file.toURI().toURL();
+		CompiledSamplingStrategy compiled = new CompiledSamplingStrategy(location);
+		LocalizedSamplingStrategy localized = new LocalizedSamplingStrategy(location);
+
+		for (String host : HOSTS) {
+			for (String path : PATHS) {
+				for (String method : METHODS) {
+					boolean expected = localized.shouldTrace(new SamplingRequest("service", host, path, method, null))
+							.isSampled();
+
+					assertEquals(host + " " + method + " " + path, expected,
+							compiled.shouldTrace("service", host, path, method));
+				}
+			}
+		}
+	}
+}